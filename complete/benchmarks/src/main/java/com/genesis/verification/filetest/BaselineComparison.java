@@ -0,0 +1,95 @@
+package com.genesis.verification.filetest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage:
+ * java com.genesis.verification.filetest.BaselineComparison <baseline.csv> <results.csv> [max-regression-percent]
+ *
+ * Compares two JMH CSV result files (-rf csv) row by row: ops/s or time per op, MB/s
+ * ("megabytes"), bytes allocated per op (gc.alloc.rate.norm) and, for sample-time benchmarks,
+ * the 99th percentile (p0.99). Rows that got worse by more than the given percentage (default
+ * 10) are marked, and the exit status is 1 if there are any. Other profiler rows are skipped;
+ * they are derived from these or too noisy to compare.
+ */
+public class BaselineComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java BaselineComparison <baseline.csv> <results.csv> [max-regression-percent]");
+            System.exit(2);
+        }
+        Map<String, Row> baseline = read(Path.of(args[0]));
+        Map<String, Row> current = read(Path.of(args[1]));
+        double maxRegression = args.length >= 3 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        int regressions = 0;
+        System.out.printf("%-80s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, Row> entry : current.entrySet()) {
+            Row now = entry.getValue();
+            Row before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-80s %14s %14.1f %9s  %s%n", entry.getKey(), "-", now.score(), "", now.unit());
+                continue;
+            }
+            double change = (now.score() - before.score()) / before.score();
+            // Allocation and time per op are better when lower, rates when higher
+            boolean lowerIsBetter = entry.getKey().endsWith("gc.alloc.rate.norm") || now.unit().endsWith("/op");
+            double worse = lowerIsBetter ? change : -change;
+            boolean regressed = worse > maxRegression && Math.abs(now.score() - before.score()) > now.error() + before.error();
+            regressions += regressed ? 1 : 0;
+            System.out.printf("%-80s %14.1f %14.1f %+8.1f%%  %s%s%n", entry.getKey(), before.score(), now.score(),
+                    change * 100, now.unit(), regressed ? "  REGRESSION" : "");
+        }
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private record Row(double score, double error, String unit) { }
+
+    private static Map<String, Row> read(Path csv) throws IOException {
+        List<String> lines = Files.readAllLines(csv);
+        List<String> header = fields(lines.get(0));
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> f = fields(line);
+            String benchmark = f.get(0);
+            if (benchmark.contains(":") && !benchmark.endsWith(":megabytes") && !benchmark.endsWith(":gc.alloc.rate.norm")
+                    && !benchmark.endsWith(":p0.99")) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(shortName(benchmark));
+            for (int i = 7; i < f.size(); i++) {
+                if (!f.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(f.get(i));
+                }
+            }
+            double error = f.get(5).isEmpty() || f.get(5).equals("NaN") ? 0 : Double.parseDouble(f.get(5));
+            rows.put(key.toString(), new Row(Double.parseDouble(f.get(4)), error, f.get(6)));
+        }
+        return rows;
+    }
+
+    // "com.x.LocalDownloadBenchmark.full:gc.alloc.rate.norm" -> "LocalDownloadBenchmark.full:gc.alloc.rate.norm"
+    private static String shortName(String benchmark) {
+        int colon = benchmark.indexOf(':');
+        String method = colon < 0 ? benchmark : benchmark.substring(0, colon);
+        int classStart = method.lastIndexOf('.', method.lastIndexOf('.') - 1) + 1;
+        return benchmark.substring(classStart);
+    }
+
+    // JMH quotes every text field and never embeds quotes or commas in them
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        for (String field : line.split(",", -1)) {
+            fields.add(field.startsWith("\"") && field.endsWith("\"") && field.length() >= 2
+                    ? field.substring(1, field.length() - 1) : field);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,87 @@
+package com.genesis.verification.filetest;
+
+import com.example.restservice.RestServiceApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The download application started in the benchmark JVM on a random port, with the given
+ * {@code download.*} overrides, plus an HTTP client that drains responses into a reused buffer.
+ */
+final class BenchmarkServer implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+    private final URI base;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private BenchmarkServer(ConfigurableApplicationContext context) {
+        this.context = context;
+        this.base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+    }
+
+    static BenchmarkServer start(Map<String, Object> properties) {
+        // The S3 client resolves credentials eagerly; a stub accepts any
+        System.setProperty("aws.accessKeyId", "benchmark");
+        System.setProperty("aws.secretAccessKey", "benchmark");
+        // As command line arguments: default properties would lose to application.yml
+        String[] args = properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(RestServiceApplication.class)
+                .properties(Map.of("server.port", 0, "logging.level.root", "WARN", "spring.main.banner-mode", "off"))
+                .run(args);
+        return new BenchmarkServer(context);
+    }
+
+    URI uri(String pathAndQuery) {
+        return base.resolve(pathAndQuery);
+    }
+
+    HttpClient client() {
+        return client;
+    }
+
+    /** GETs {@code uri} with an optional Range header and returns the body length read. */
+    long get(URI uri, String range) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+        if (range != null) {
+            request.header("Range", range);
+        }
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        long total = 0;
+        try (InputStream in = response.body()) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                total += n;
+            }
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException(uri + " returned " + response.statusCode());
+        }
+        return total;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,108 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RangeDownloader over HTTP/1.1 (a pooled connection per segment in flight) and HTTP/2 (h2c,
+ * 2 multiplexed connections): an 8 MB file in 256 KB segments, 8 in flight, through a
+ * {@link LatencyProxy} with slow start and a 0 or 20 ms round trip. Every operation is a fresh
+ * download with new clients, like a command line run. "megabytes" is MB/s and
+ * "connections" TCP connections opened per second; divided by the score it is connections
+ * per download.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class Http2TransportBenchmark {
+
+    private static final int SIZE = 8 * 1024 * 1024;
+    private static final int SEGMENT = 256 * 1024;
+    private static final int CONCURRENCY = 8;
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public HttpClient.Version transport;
+
+    @Param({"0", "20"})
+    public int rttMillis;
+
+    private Path root;
+    private Path output;
+    private BenchmarkServer server;
+    private LatencyProxy proxy;
+    private URI file;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Connections {
+
+        public long connections;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            connections = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path parent = Files.isDirectory(Path.of("/dev/shm")) ? Path.of("/dev/shm") : Path.of(System.getProperty("java.io.tmpdir"));
+        root = Files.createTempDirectory(parent, "transport-bench");
+        byte[] data = new byte[SIZE];
+        new Random(5).nextBytes(data);
+        Files.write(root.resolve("file.bin"), data);
+        output = Files.createTempDirectory(parent, "transport-bench-out").resolve("file.bin");
+
+        RangeDownloader.tuneHttp2Windows(CONCURRENCY / RangeDownloader.DEFAULT_HTTP2_CONNECTIONS, SEGMENT);
+        server = BenchmarkServer.start(Map.of("download.local.root", root.toString()));
+        proxy = new LatencyProxy(server.uri("/"), rttMillis, 4 * 1024 * 1024);
+        file = proxy.uri(server.uri("/api/download/file.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        proxy.close();
+        server.close();
+        BenchmarkServer.deleteRecursively(root);
+        BenchmarkServer.deleteRecursively(output.getParent());
+    }
+
+    @Benchmark
+    public long download(Transferred transferred, Connections connections) throws Exception {
+        int before = proxy.connections();
+        int clients = transport == HttpClient.Version.HTTP_2 ? RangeDownloader.DEFAULT_HTTP2_CONNECTIONS : 1;
+        RangeDownloader downloader = new RangeDownloader(RangeDownloader.newClients(transport, clients), CONCURRENCY, SEGMENT);
+        try {
+            long n = downloader.download(file, output);
+            transferred.add(n);
+            return n;
+        } finally {
+            connections.connections += proxy.connections() - before;
+            proxy.disconnectAll();
+        }
+    }
+}
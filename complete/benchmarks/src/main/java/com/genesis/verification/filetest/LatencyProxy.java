@@ -0,0 +1,150 @@
+package com.genesis.verification.filetest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP proxy in front of a loopback server that behaves like a long link: responses take
+ * {@code rttMillis} to arrive, and each connection's congestion window starts at ten segments
+ * and doubles per round trip up to {@code maxWindow} bytes, as in TCP slow start. Requests
+ * pass straight through. Counts the connections it accepts.
+ */
+final class LatencyProxy implements AutoCloseable {
+
+    private static final int INITIAL_WINDOW = 10 * 1460;
+
+    private final InetSocketAddress upstream;
+    private final long rttNanos;
+    private final int maxWindow;
+    private final ServerSocket server;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    LatencyProxy(URI upstream, long rttMillis, int maxWindow) throws IOException {
+        this.upstream = new InetSocketAddress(upstream.getHost(), upstream.getPort());
+        this.rttNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis);
+        this.maxWindow = maxWindow;
+        this.server = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+        daemon("latency-proxy-accept", this::accept).start();
+    }
+
+    /** {@code uri} with its authority replaced by the proxy's. */
+    URI uri(URI uri) {
+        return URI.create("http://127.0.0.1:" + server.getLocalPort() + uri.getRawPath()
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+    }
+
+    /** Connections accepted so far. */
+    int connections() {
+        return accepted.get();
+    }
+
+    /** Drops every open connection, as a client process exiting would. */
+    void disconnectAll() {
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                accepted.incrementAndGet();
+                Socket origin = new Socket();
+                origin.connect(upstream);
+                client.setTcpNoDelay(true);
+                origin.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(origin);
+                daemon("latency-proxy-up", () -> pipe(client, origin)).start();
+                daemon("latency-proxy-down", () -> shape(origin, client)).start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void pipe(Socket from, Socket to) {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // either side closed
+        } finally {
+            close(from, to);
+        }
+    }
+
+    // Per round trip: take up to a window of bytes, hold them for the RTT, deliver, grow the window
+    private void shape(Socket from, Socket to) {
+        byte[] buffer = new byte[INITIAL_WINDOW];
+        int window = INITIAL_WINDOW;
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            while (true) {
+                int n = in.read(buffer, 0, window);
+                if (n < 0) {
+                    break;
+                }
+                long due = System.nanoTime() + rttNanos;
+                while (n < window && in.available() > 0) {
+                    int more = in.read(buffer, n, Math.min(window - n, in.available()));
+                    if (more < 0) {
+                        break;
+                    }
+                    n += more;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, due - System.nanoTime()));
+                out.write(buffer, 0, n);
+                out.flush();
+                if (n == window && window < maxWindow) {
+                    window = Math.min(maxWindow, window * 2);
+                    buffer = new byte[window];
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // either side closed
+        } finally {
+            close(from, to);
+        }
+    }
+
+    private void close(Socket a, Socket b) {
+        closeQuietly(a);
+        closeQuietly(b);
+        sockets.remove(a);
+        sockets.remove(b);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        disconnectAll();
+    }
+}
@@ -0,0 +1,94 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /api/download over loopback: the whole file, its middle half, and 50 spread 4 KB ranges
+ * as multipart/byteranges, for files on tmpfs (/dev/shm) and on disk (java.io.tmpdir, or
+ * -Dbench.disk.dir). Disk files are read once before measuring, so both mostly hit the page
+ * cache; the difference is the file system path, not the device.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class LocalDownloadBenchmark {
+
+    @Param({"tmpfs", "disk"})
+    public String storage;
+
+    @Param({"1048576", "33554432"})
+    public long size;
+
+    private Path root;
+    private BenchmarkServer server;
+    private URI file;
+    private String middleHalf;
+    private String multiRange;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        Path parent = storage.equals("tmpfs") && Files.isDirectory(Path.of("/dev/shm"))
+                ? Path.of("/dev/shm")
+                : Path.of(System.getProperty("bench.disk.dir", System.getProperty("java.io.tmpdir")));
+        root = Files.createTempDirectory(parent, "download-bench");
+        byte[] data = new byte[(int) size];
+        new Random(1).nextBytes(data);
+        Files.write(root.resolve("file.bin"), data);
+
+        server = BenchmarkServer.start(Map.of("download.local.root", root.toString()));
+        file = server.uri("/api/download/file.bin");
+        middleHalf = Ranges.middleHalf(size);
+        multiRange = Ranges.spread(size, 50, 4096);
+        server.get(file, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        BenchmarkServer.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public long full(Transferred transferred) throws Exception {
+        long n = server.get(file, null);
+        transferred.add(n);
+        return n;
+    }
+
+    @Benchmark
+    public long singleRange(Transferred transferred) throws Exception {
+        long n = server.get(file, middleHalf);
+        transferred.add(n);
+        return n;
+    }
+
+    @Benchmark
+    public long multiRange(Transferred transferred) throws Exception {
+        long n = server.get(file, multiRange);
+        transferred.add(n);
+        return n;
+    }
+}
@@ -0,0 +1,51 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of one multipart/byteranges part: MultipartFrameWriter against the string
+ * concatenation both controllers used before. gc.alloc.rate.norm is the bytes per part.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartFramingBenchmark {
+
+    private static final String BOUNDARY = "MULTIPART_BYTERANGES_BOUNDARY_1234567890";
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private final MultipartFrameWriter frames = new MultipartFrameWriter(BOUNDARY, CONTENT_TYPE);
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private final ByteRange part = new ByteRange(123_456_789L, 123_460_884L);
+    private final long totalSize = 8_589_934_592L;
+
+    @Benchmark
+    public void frameWriter() throws IOException {
+        frames.writePartHeader(out, part, totalSize);
+        frames.writePartEnd(out);
+    }
+
+    @Benchmark
+    public void stringConcatenation() throws IOException {
+        out.write(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(("Content-Type: " + CONTENT_TYPE + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(("Content-Range: bytes " + part.start() + "-" + part.end() + "/" + totalSize + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,78 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultipartReconstructor.reconstruct of an in-memory 16 MB multipart/byteranges response
+ * split into 1 or 50 parts, written to a file on tmpfs when available.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class MultipartReconstructorBenchmark {
+
+    private static final int SIZE = 16 * 1024 * 1024;
+    private static final String BOUNDARY = "BENCH_BOUNDARY";
+
+    @Param({"1", "50"})
+    public int parts;
+
+    private byte[] response;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = new byte[SIZE];
+        new Random(3).nextBytes(data);
+        MultipartFrameWriter frames = new MultipartFrameWriter(BOUNDARY, "application/octet-stream");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE + parts * 128);
+        int length = SIZE / parts;
+        for (int i = 0; i < parts; i++) {
+            int start = i * length;
+            int end = i == parts - 1 ? SIZE - 1 : start + length - 1;
+            frames.writePartHeader(out, new ByteRange(start, end), SIZE);
+            out.write(data, start, end - start + 1);
+            frames.writePartEnd(out);
+        }
+        frames.writeClose(out);
+        response = out.toByteArray();
+
+        Path dir = Files.isDirectory(Path.of("/dev/shm")) ? Path.of("/dev/shm") : Path.of(System.getProperty("java.io.tmpdir"));
+        output = Files.createTempFile(dir, "reconstructed", ".bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public Object reconstruct(Transferred transferred) throws IOException {
+        Object result = MultipartReconstructor.reconstruct(new ByteArrayInputStream(response), BOUNDARY, output);
+        transferred.add(response.length);
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RangeDownloader end to end: a 32 MB file from the in-process /api/download endpoint into
+ * a file, in 4 MB segments over 1 or 4 connections. Both sides share the benchmark JVM.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class RangeDownloaderBenchmark {
+
+    private static final int SIZE = 32 * 1024 * 1024;
+
+    @Param({"1", "4"})
+    public int concurrency;
+
+    private Path root;
+    private Path output;
+    private BenchmarkServer server;
+    private URI file;
+    private RangeDownloader downloader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path parent = Files.isDirectory(Path.of("/dev/shm")) ? Path.of("/dev/shm") : Path.of(System.getProperty("java.io.tmpdir"));
+        root = Files.createTempDirectory(parent, "range-bench");
+        byte[] data = new byte[SIZE];
+        new Random(4).nextBytes(data);
+        Files.write(root.resolve("file.bin"), data);
+        output = Files.createTempDirectory(parent, "range-bench-out").resolve("file.bin");
+
+        server = BenchmarkServer.start(Map.of("download.local.root", root.toString()));
+        file = server.uri("/api/download/file.bin");
+        downloader = new RangeDownloader(server.client(), concurrency, 4 * 1024 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        BenchmarkServer.deleteRecursively(root);
+        BenchmarkServer.deleteRecursively(output.getParent());
+    }
+
+    @Benchmark
+    public long download(Transferred transferred) throws Exception {
+        long n = downloader.download(file, output);
+        transferred.add(n);
+        return n;
+    }
+}
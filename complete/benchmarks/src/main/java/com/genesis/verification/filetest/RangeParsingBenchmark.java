@@ -0,0 +1,53 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpRange;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range header to fetch plan, as both download endpoints do it: HttpRange parsing followed by
+ * RangePlanner validation, sorting and coalescing. Spring rejects headers with more than 100
+ * ranges, so at 500 this measures the cost of turning a hostile header away.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RangeParsingBenchmark {
+
+    private static final long SIZE = 1L << 30;
+
+    @Param({"1", "10", "100", "500"})
+    public int ranges;
+
+    private String header;
+    private RangePlanner planner;
+
+    @Setup
+    public void setUp() {
+        header = Ranges.spread(SIZE, ranges, 4096);
+        planner = new RangePlanner(1000, 256 * 1024, 1024 * 1024);
+    }
+
+    @Benchmark
+    public Object parseAndPlan() {
+        try {
+            return planner.plan(HttpRange.parseRanges(header), SIZE);
+        } catch (IllegalArgumentException tooMany) {
+            return tooMany;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.genesis.verification.filetest;
+
+/** Range header values shared by the download benchmarks. */
+final class Ranges {
+
+    private Ranges() {
+    }
+
+    /** The middle half of the object. */
+    static String middleHalf(long size) {
+        return "bytes=" + size / 4 + "-" + (size / 4 + size / 2 - 1);
+    }
+
+    /** {@code count} ranges of {@code length} bytes spread evenly over the object. */
+    static String spread(long size, int count, long length) {
+        StringBuilder header = new StringBuilder("bytes=");
+        long stride = size / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * stride;
+            header.append(i == 0 ? "" : ",").append(start).append('-').append(start + Math.min(length, stride) - 1);
+        }
+        return header.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /s3/download against an in-process {@link S3Stub}, with and without the block cache.
+ * Read-ahead is off so repeated identical ranges measure the endpoint, not the prefetch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class S3DownloadBenchmark {
+
+    private static final long SIZE = 8 * 1024 * 1024;
+
+    @Param({"false", "true"})
+    public boolean blockCache;
+
+    private S3Stub stub;
+    private Path cacheDir;
+    private BenchmarkServer server;
+    private URI object;
+    private String middleHalf;
+    private String multiRange;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        byte[] data = new byte[(int) SIZE];
+        new Random(2).nextBytes(data);
+        stub = new S3Stub(data, 0);
+        cacheDir = Files.createTempDirectory("s3-bench-cache");
+        server = BenchmarkServer.start(Map.of(
+                "download.s3.endpoint", stub.endpoint().toString(),
+                "download.s3.cache.enabled", blockCache,
+                "download.s3.cache.directory", cacheDir.toString(),
+                "download.s3.read-ahead.enabled", false));
+        object = server.uri("/s3/download?key=object.bin");
+        middleHalf = Ranges.middleHalf(SIZE);
+        multiRange = Ranges.spread(SIZE, 50, 4096);
+        server.get(object, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        stub.close();
+        BenchmarkServer.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public long full(Transferred transferred) throws Exception {
+        long n = server.get(object, null);
+        transferred.add(n);
+        return n;
+    }
+
+    @Benchmark
+    public long singleRange(Transferred transferred) throws Exception {
+        long n = server.get(object, middleHalf);
+        transferred.add(n);
+        return n;
+    }
+
+    @Benchmark
+    public long multiRange(Transferred transferred) throws Exception {
+        long n = server.get(object, multiRange);
+        transferred.add(n);
+        return n;
+    }
+}
@@ -0,0 +1,143 @@
+package com.genesis.verification.filetest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal S3-compatible server for one in-memory object, enough for HEAD and GET with a
+ * single Range and If-Match as the download endpoint issues them. Every key in every bucket
+ * is the same object. An optional delay before each response models S3 first-byte latency;
+ * a fraction of responses can be made slower still, and a fraction of bodies can stop half
+ * way for a while, to model S3's tail.
+ */
+final class S3Stub implements AutoCloseable {
+
+    private final byte[] object;
+    private final String eTag;
+    private final String lastModified;
+    private final long firstByteDelayMillis;
+    private final double slowFraction;
+    private final long slowDelayMillis;
+    private final double stallFraction;
+    private final long stallMillis;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "s3-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    S3Stub(byte[] object, long firstByteDelayMillis) throws IOException {
+        this(object, firstByteDelayMillis, 0, 0, 0, 0);
+    }
+
+    /**
+     * {@code slowFraction} of responses wait another {@code slowDelayMillis} before the headers;
+     * {@code stallFraction} of GET bodies stop for {@code stallMillis} after half their bytes.
+     */
+    S3Stub(byte[] object, long firstByteDelayMillis, double slowFraction, long slowDelayMillis,
+           double stallFraction, long stallMillis) throws IOException {
+        this.object = object;
+        this.eTag = "\"" + md5(object) + "\"";
+        this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().atOffset(ZoneOffset.UTC));
+        this.firstByteDelayMillis = firstByteDelayMillis;
+        this.slowFraction = slowFraction;
+        this.slowDelayMillis = slowDelayMillis;
+        this.stallFraction = stallFraction;
+        this.stallMillis = stallMillis;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 512);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URI endpoint() {
+        return URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            long delay = firstByteDelayMillis;
+            if (slowFraction > 0 && ThreadLocalRandom.current().nextDouble() < slowFraction) {
+                delay += slowDelayMillis;
+            }
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            Headers request = exchange.getRequestHeaders();
+            Headers response = exchange.getResponseHeaders();
+            response.set("ETag", eTag);
+            response.set("Last-Modified", lastModified);
+            response.set("Accept-Ranges", "bytes");
+            response.set("Content-Type", "application/octet-stream");
+
+            String ifMatch = request.getFirst("If-Match");
+            if (ifMatch != null && !ifMatch.equals(eTag)) {
+                exchange.sendResponseHeaders(412, -1);
+                return;
+            }
+            long start = 0;
+            long end = object.length - 1;
+            int status = 200;
+            String range = request.getFirst("Range");
+            if (range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring("bytes=".length()).split("-", 2);
+                start = Long.parseLong(bounds[0]);
+                end = bounds[1].isEmpty() ? end : Math.min(end, Long.parseLong(bounds[1]));
+                response.set("Content-Range", "bytes " + start + "-" + end + "/" + object.length);
+                status = 206;
+            }
+            long length = end - start + 1;
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                response.set("Content-Length", Long.toString(object.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (stallFraction > 0 && length > 1 && ThreadLocalRandom.current().nextDouble() < stallFraction) {
+                    long half = length / 2;
+                    out.write(object, (int) start, (int) half);
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(stallMillis);
+                    out.write(object, (int) (start + half), (int) (length - half));
+                } else {
+                    out.write(object, (int) start, (int) length);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,80 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /s3/download latency distribution against an {@link S3Stub} with a tail: 2% of responses
+ * take 200ms longer and 0.5% of bodies stall for 2s half way. Compare the p0.99 rows with
+ * hedging off and on. Caches and read-ahead are off so every request reaches the stub; the
+ * stall timeout floor is lowered to the stub's scale.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class S3TailLatencyBenchmark {
+
+    private static final long SIZE = 1024 * 1024;
+
+    @Param({"false", "true"})
+    public boolean hedging;
+
+    private S3Stub stub;
+    private BenchmarkServer server;
+    private URI object;
+    private String middleHalf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        byte[] data = new byte[(int) SIZE];
+        new Random(3).nextBytes(data);
+        stub = new S3Stub(data, 2, 0.02, 200, 0.005, 2000);
+        server = BenchmarkServer.start(Map.of(
+                "download.s3.endpoint", stub.endpoint().toString(),
+                "download.s3.cache.enabled", false,
+                "download.s3.read-ahead.enabled", false,
+                "download.s3.metadata.ttl", "1h",
+                "download.s3.hedging.enabled", hedging,
+                "download.s3.hedging.min-delay", "5ms",
+                "download.s3.hedging.min-stall-timeout", "100ms"));
+        object = server.uri("/s3/download?key=object.bin");
+        middleHalf = Ranges.middleHalf(SIZE);
+        server.get(object, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public long full() throws Exception {
+        return server.get(object, null);
+    }
+
+    @Benchmark
+    public long singleRange() throws Exception {
+        return server.get(object, middleHalf);
+    }
+}
@@ -0,0 +1,26 @@
+package com.genesis.verification.filetest;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Bytes moved by a benchmark, reported next to ops/s as a "megabytes" rate, i.e. MB/s. */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Transferred {
+
+    private static final double MB = 1024 * 1024;
+
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+
+    void add(long bytes) {
+        megabytes += bytes / MB;
+    }
+}
@@ -0,0 +1,199 @@
+package com.genesis.verification.filetest;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Streams an S3 GET into a servlet response without holding a thread for the transfer.
+ *
+ * The request is put into async mode and the S3 body publisher is bridged to a
+ * {@link WriteListener}: one buffer is requested from S3 only when the previous one has
+ * been written and the servlet output is ready again, so a slow client stops the S3
+ * read instead of piling up buffers in memory.
+ */
+public class AsyncS3Streamer {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncS3Streamer.class);
+
+    private final S3AsyncClient s3AsyncClient;
+
+    public AsyncS3Streamer(S3AsyncClient s3AsyncClient) {
+        this.s3AsyncClient = s3AsyncClient;
+    }
+
+    /**
+     * Starts async processing of {@code request} and returns immediately. {@code status} and
+     * {@code headers} are sent once S3 has answered; {@code onFailure} sees any S3 or client
+     * error. The body's bytes and outcome are recorded in {@code transfer}.
+     */
+    public void stream(GetObjectRequest get, HttpStatusCode status, HttpHeaders headers,
+                       HttpServletRequest request, HttpServletResponse response,
+                       DownloadMetrics.Transfer transfer, Consumer<Throwable> onFailure) throws IOException {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);  // bounded by the S3 read timeout and the connector's timeouts instead
+
+        ServletBridge bridge = new ServletBridge(async, response.getOutputStream(), transfer, onFailure);
+        response.getOutputStream().setWriteListener(bridge);
+
+        s3AsyncClient.getObject(get, AsyncResponseTransformer.toPublisher()).whenComplete((publisher, error) -> {
+            if (error != null) {
+                transfer.failed();
+                onFailure.accept(error);
+                // Nothing written yet, so the status can still change
+                response.setStatus(HttpStatus.BAD_GATEWAY.value());
+                async.complete();
+                return;
+            }
+            response.setStatus(status.value());
+            headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            publisher.subscribe(bridge.upstream);
+        });
+    }
+
+    /**
+     * Write listener on the servlet side, {@link #upstream} subscriber on the S3 side. All
+     * state is guarded by "this"; {@link #drain} runs on whichever thread last made
+     * progress possible.
+     */
+    private static final class ServletBridge implements WriteListener {
+        private final AsyncContext async;
+        private final ServletOutputStream output;
+        private final DownloadMetrics.Transfer transfer;
+        private final Consumer<Throwable> onFailure;
+
+        private Subscription subscription;
+        private ByteBuffer pending;
+        private boolean demanded;
+        private boolean upstreamDone;
+        private boolean finished;
+        private boolean draining;
+
+        final Subscriber<ByteBuffer> upstream = new Subscriber<>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                synchronized (ServletBridge.this) {
+                    subscription = s;
+                    drain();
+                }
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                synchronized (ServletBridge.this) {
+                    pending = buffer;
+                    demanded = false;
+                    drain();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                synchronized (ServletBridge.this) {
+                    // The status line is already out; all that is left is to cut the body short
+                    transfer.failed();
+                    fail(t);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                synchronized (ServletBridge.this) {
+                    upstreamDone = true;
+                    drain();
+                }
+            }
+        };
+
+        ServletBridge(AsyncContext async, ServletOutputStream output, DownloadMetrics.Transfer transfer,
+                      Consumer<Throwable> onFailure) {
+            this.async = async;
+            this.output = output;
+            this.transfer = transfer;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            drain();
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            log.debug("Client write failed", t);
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            transfer.aborted();
+            fail(t);
+        }
+
+        private void drain() {
+            // request(1) may deliver onNext on this thread; the outer loop picks it up
+            if (draining || finished || subscription == null) {
+                return;
+            }
+            draining = true;
+            try {
+                while (!finished) {
+                    if (!output.isReady()) {
+                        return;  // onWritePossible resumes
+                    }
+                    if (pending != null) {
+                        ByteBuffer buffer = pending;
+                        pending = null;
+                        transfer.written(buffer.remaining());
+                        output.write(buffer);
+                    } else if (upstreamDone) {
+                        finished = true;
+                        transfer.completed();
+                        async.complete();
+                    } else if (!demanded) {
+                        demanded = true;
+                        subscription.request(1);
+                        if (pending == null && !upstreamDone) {
+                            return;  // delivered asynchronously
+                        }
+                    } else {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                transfer.aborted();
+                fail(e);
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                transfer.failed();
+                fail(e);
+            } finally {
+                draining = false;
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            onFailure.accept(t);
+            async.complete();
+        }
+    }
+}
@@ -1,63 +1,116 @@
 package com.genesis.verification.filetest;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.checksums.RequestChecksumCalculation;
+import software.amazon.awssdk.core.checksums.ResponseChecksumValidation;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
 
 @Configuration
 public class AwsConfig {
 
     private static final long MB = 1024L * 1024L;
 
-    /*@Bean
-    public S3AsyncClient s3AsyncClient() {
-        return S3AsyncClient.builder()
+    // s3.latency for both clients
+    @Bean
+    public S3RequestMetrics s3RequestMetrics(MeterRegistry meterRegistry) {
+        return new S3RequestMetrics(meterRegistry);
+    }
+
+    // Only for download.s3.mode=async; Netty needs no thread per open download
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.mode", havingValue = "async")
+    public S3AsyncClient s3AsyncClient(DownloadProperties properties, S3RequestMetrics s3RequestMetrics) {
+        S3AsyncClientBuilder builder = S3AsyncClient.builder();
+        if (properties.getS3().getEndpoint() != null) {
+            builder.endpointOverride(properties.getS3().getEndpoint()).forcePathStyle(true);
+        }
+        return builder
                 .region(Region.US_EAST_1)  // Your region
                 .credentialsProvider(DefaultCredentialsProvider.builder().build())
                 .httpClient(NettyNioAsyncHttpClient.builder()
-                        .maxConcurrency(100)
-                        .build())
-                //.httpClient(AwsCrtAsyncHttpClient.builder()
-                        //.maxConcurrency(100)  // Parallelism limit
-                        //.connectionTimeout(Duration.ofSeconds(30))  // Valid: Connect timeout
-                        //.connectionAcquisitionTimeout(Duration.ofSeconds(60))  // Valid: Acquire connection
-                        //.connectionMaxIdleTime(Duration.ofMinutes(5))  // Valid: Idle connection cleanup
-                        //.build())
-                .multipartEnabled(true)  // Enable parallel multipart
-                .multipartConfiguration(MultipartConfiguration.builder()
-                        .minimumPartSizeInBytes(8 * MB)  // 8 MB min chunk
-                        .apiCallBufferSizeInBytes(64 * MB)  // 64 MB buffer (prevents stalls)
+                        .maxConcurrency(properties.getS3().getAsyncMaxConcurrency())
+                        .connectionTimeout(Duration.ofSeconds(30))
+                        .connectionAcquisitionTimeout(Duration.ofSeconds(60))
+                        .readTimeout(Duration.ofMinutes(10))  // Long for stalled slow clients
                         .build())
+                .requestChecksumCalculation(RequestChecksumCalculation.WHEN_SUPPORTED)
+                .responseChecksumValidation(ResponseChecksumValidation.WHEN_SUPPORTED)
+                .overrideConfiguration(c -> c.addExecutionInterceptor(s3RequestMetrics))
                 .build();
     }
 
+    // Sized with download.limits.s3 x download.s3.prefetch.window in mind
     @Bean
-    public S3TransferManager s3TransferManager(S3AsyncClient s3AsyncClient) {
-        return S3TransferManager.builder()
-                .s3Client(s3AsyncClient)
-                .build();
-    }*/
-
-    @Bean
-    public S3Client s3Client() {
-        return S3Client.builder()
+    public S3Client s3Client(DownloadProperties properties, S3RequestMetrics s3RequestMetrics, ExecutorService s3FetchExecutor) {
+        S3ClientBuilder builder = S3Client.builder();
+        if (properties.getS3().getEndpoint() != null) {
+            builder.endpointOverride(properties.getS3().getEndpoint()).forcePathStyle(true);
+        }
+        S3Client client = builder
                 .region(Region.US_EAST_1)  // Your region
                 .credentialsProvider(DefaultCredentialsProvider.builder().build())
                 .httpClient(ApacheHttpClient.builder()
-                        .maxConnections(50)  // Pool for parallel ranges
+                        .maxConnections(properties.getS3().getMaxConnections())  // Pool for parallel ranges
                         .connectionTimeout(Duration.ofSeconds(30))
-                        .socketTimeout(Duration.ofMinutes(10))  // Long for large chunks
-                        .build())
-                .serviceConfiguration(S3Configuration.builder()
-                        .checksumValidationEnabled(true)  // Validates every byte
+                        .connectionAcquisitionTimeout(Duration.ofSeconds(30))
+                        .socketTimeout(Duration.ofMinutes(10))  // Long for large chunks; stalls are resumed by hedging
                         .build())
+                .requestChecksumCalculation(RequestChecksumCalculation.WHEN_SUPPORTED)
+                .responseChecksumValidation(ResponseChecksumValidation.WHEN_SUPPORTED)  // Validates every byte S3 has a checksum for
+                .overrideConfiguration(c -> c.addExecutionInterceptor(s3RequestMetrics))
                 .build();
+        DownloadProperties.Hedging hedging = properties.getS3().getHedging();
+        if (!hedging.isEnabled()) {
+            return client;
+        }
+        return new HedgingS3Client(client, s3FetchExecutor, hedging.getWindow().toNanos(), hedging.getQuantile(),
+                hedging.getMinDelay().toNanos(), hedging.getMaxDelay().toNanos(), hedging.getBudget(),
+                hedging.getStallFactor(), hedging.getMinStallTimeout().toNanos(), hedging.getMaxStallTimeout().toNanos(),
+                hedging.getMaxResumes());
+    }
+
+    // Nothing to register when hedging is off or the client is replaced
+    @Bean
+    public MeterBinder s3HedgingMetrics(S3Client s3Client) {
+        return registry -> {
+            if (!(s3Client instanceof HedgingS3Client hedging)) {
+                return;
+            }
+            FunctionCounter.builder("s3.get.hedged", hedging, HedgingS3Client::hedged)
+                    .description("GETs sent again because the first had not answered within the hedge delay")
+                    .register(registry);
+            FunctionCounter.builder("s3.get.hedge.wins", hedging, HedgingS3Client::hedgeWins)
+                    .description("Hedged GETs that answered first")
+                    .register(registry);
+            FunctionCounter.builder("s3.get.stalls", hedging, HedgingS3Client::stalls)
+                    .description("Body reads aborted for waiting longer than the stall timeout")
+                    .register(registry);
+            FunctionCounter.builder("s3.get.resumed", hedging, HedgingS3Client::resumed)
+                    .description("Bodies continued from the last byte received with a ranged GET")
+                    .register(registry);
+            Gauge.builder("s3.get.hedge.delay", hedging, h -> h.hedgeDelayNanos() / 1e9)
+                    .baseUnit("seconds")
+                    .register(registry);
+            Gauge.builder("s3.get.stall.timeout", hedging, h -> h.stallTimeoutNanos() / 1e9)
+                    .baseUnit("seconds")
+                    .register(registry);
+        };
     }
 }
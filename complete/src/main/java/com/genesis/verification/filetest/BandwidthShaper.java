@@ -0,0 +1,306 @@
+package com.genesis.verification.filetest;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Egress shaping for download bodies: hierarchical token buckets and a budget of bytes
+ * admitted but not yet sent.
+ *
+ * Every write takes its bytes from three buckets, the request's, its client's (see
+ * {@link ClientIdentity}; the client rate is multiplied by the client's weight) and the
+ * global one, and sleeps until the slowest of them has them. Buckets are kept as the time
+ * at which they would be full again (GCRA), so taking tokens is one CAS per bucket and
+ * one park at most, per buffer written. A rate of 0 leaves that level unlimited.
+ *
+ * {@link #admit} turns a download away when the bytes still owed to all admitted
+ * downloads would pass {@code maxOutstanding}; the caller answers 503 with
+ * {@link #retryAfterSeconds()}.
+ */
+public class BandwidthShaper {
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final Bucket global;  // null when unlimited
+    private final long clientRate;
+    private final long requestRate;
+    private final long burst;
+    private final long maxOutstanding;
+    private final int maxClients;
+    private final ClientIdentity identity;
+
+    private final ConcurrentHashMap<String, Bucket> clients = new ConcurrentHashMap<>();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    public BandwidthShaper(long globalRate, long clientRate, long requestRate, long burst, long maxOutstanding,
+                           int maxClients, ClientIdentity identity) {
+        this.global = globalRate > 0 ? new Bucket(globalRate, burst) : null;
+        this.clientRate = clientRate;
+        this.requestRate = requestRate;
+        this.burst = burst;
+        this.maxOutstanding = maxOutstanding;
+        this.maxClients = maxClients;
+        this.identity = identity;
+    }
+
+    /** True if any bucket limits the rate; bodies the container writes itself (sendfile) cannot be shaped. */
+    public boolean limitsRate() {
+        return global != null || clientRate > 0 || requestRate > 0;
+    }
+
+    /**
+     * Admits a response that will send about {@code bytes}, or returns {@code null} if that
+     * would pass the outstanding budget. The ticket must be closed when the response ends;
+     * {@link #shape} does that for the body it wraps.
+     */
+    public Ticket admit(HttpServletRequest request, long bytes) {
+        long size = Math.max(0, bytes);
+        if (maxOutstanding > 0) {
+            long current;
+            do {
+                current = outstanding.get();
+                // A single response larger than the budget still gets through when nothing else is owed
+                if (current > 0 && current + size > maxOutstanding) {
+                    rejected.increment();
+                    return null;
+                }
+            } while (!outstanding.compareAndSet(current, current + size));
+        } else {
+            outstanding.addAndGet(size);
+        }
+
+        Bucket client = null;
+        if (clientRate > 0) {
+            String key = identity.key(request);
+            if (clients.size() >= maxClients) {
+                expireIdleClients();
+            }
+            client = clients.computeIfAbsent(key, k -> new Bucket(clientRate * identity.weight(k), burst));
+        }
+        return new Ticket(requestRate > 0 ? new Bucket(requestRate, burst) : null, client, size);
+    }
+
+    /** Seconds the global rate needs to free half of the budget, 1 to 60; 1 without a global rate. */
+    public long retryAfterSeconds() {
+        if (global == null || maxOutstanding <= 0) {
+            return 1;
+        }
+        long excess = Math.max(0, outstanding.get() - maxOutstanding / 2);
+        long seconds = (long) Math.ceil(excess * global.nanosPerByte / 1e9);
+        return Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, seconds));
+    }
+
+    /** Wraps {@code body} so its writes are shaped by {@code ticket}, which is closed when the body ends. */
+    public static StreamingResponseBody shape(Ticket ticket, StreamingResponseBody body) {
+        if (body == null) {
+            ticket.close();
+            return null;
+        }
+        return out -> {
+            try {
+                body.writeTo(new ShapedOutputStream(out, ticket));
+            } finally {
+                ticket.close();
+            }
+        };
+    }
+
+    /** Bytes admitted and not yet sent or released. */
+    public long outstanding() {
+        return outstanding.get();
+    }
+
+    /** Responses turned away by the outstanding budget. */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** Total time writers spent waiting for tokens. */
+    public long throttledNanos() {
+        return throttledNanos.sum();
+    }
+
+    // A full bucket carries no state worth keeping
+    private void expireIdleClients() {
+        long now = System.nanoTime();
+        clients.values().removeIf(bucket -> bucket.tat.get() <= now);
+    }
+
+    /**
+     * Token bucket of {@code rate} bytes per second holding up to {@code burst} bytes, kept as
+     * its theoretical arrival time: sending is allowed as long as it is at most burst ahead of now.
+     */
+    private static final class Bucket {
+        final double nanosPerByte;
+        final long burstNanos;
+        final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        Bucket(long rate, long burst) {
+            this.nanosPerByte = 1e9 / rate;
+            this.burstNanos = (long) (burst * nanosPerByte);
+        }
+
+        /** Takes {@code count} bytes; returns how long to wait before sending them. */
+        long take(long count, long now) {
+            long cost = (long) (count * nanosPerByte);
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + cost;
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, next - burstNanos - now);
+                }
+            }
+        }
+    }
+
+    /** One admitted response: its own bucket, its client's, and the bytes it still owes. */
+    public final class Ticket implements AutoCloseable {
+        private final Bucket request;  // null when unlimited
+        private final Bucket client;   // null when unlimited
+        private final AtomicLong owed;
+
+        private Ticket(Bucket request, Bucket client, long bytes) {
+            this.request = request;
+            this.client = client;
+            this.owed = new AtomicLong(bytes);
+        }
+
+        /** Waits until {@code count} bytes may be sent. */
+        void acquire(long count) throws InterruptedIOException {
+            long now = System.nanoTime();
+            long wait = 0;
+            if (request != null) {
+                wait = request.take(count, now);
+            }
+            if (client != null) {
+                wait = Math.max(wait, client.take(count, now));
+            }
+            if (global != null) {
+                wait = Math.max(wait, global.take(count, now));
+            }
+            if (wait > 0) {
+                throttledNanos.add(wait);
+                long deadline = now + wait;
+                for (long left = wait; left > 0; left = deadline - System.nanoTime()) {
+                    LockSupport.parkNanos(this, left);
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttled");
+                    }
+                }
+            }
+            sent(count);
+        }
+
+        private void sent(long count) {
+            long before = owed.getAndUpdate(o -> Math.max(0, o - count));
+            outstanding.addAndGet(-Math.min(before, count));
+        }
+
+        /** For responses written without a shaped body: closes the ticket when {@code async} ends. */
+        public void closeWhenComplete(AsyncContext async) {
+            async.addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    event.getAsyncContext().addListener(this);
+                }
+            });
+        }
+
+        /** Releases whatever the response did not send. Idempotent. */
+        @Override
+        public void close() {
+            outstanding.addAndGet(-owed.getAndSet(0));
+        }
+    }
+
+    /** Takes tokens before every write; stays a {@link ServletOutputStream} for direct-buffer writes. */
+    private static final class ShapedOutputStream extends ServletOutputStream {
+        private final OutputStream out;
+        private final ServletOutputStream servletOut;  // null unless out is one
+        private final Ticket ticket;
+
+        ShapedOutputStream(OutputStream out, Ticket ticket) {
+            this.out = out;
+            this.servletOut = out instanceof ServletOutputStream s ? s : null;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ticket.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ticket.acquire(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            if (servletOut == null) {
+                super.write(buffer);
+                return;
+            }
+            ticket.acquire(buffer.remaining());
+            servletOut.write(buffer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return servletOut == null || servletOut.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            if (servletOut == null) {
+                throw new IllegalStateException("Not a servlet output stream");
+            }
+            servletOut.setWriteListener(listener);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized {@link BlockSignatures} of local files, computed once per file version (ETag)
+ * and kept in memory up to {@code maxMemory} bytes, least recently used evicted first.
+ * Concurrent requests for a version being signed wait for the same computation.
+ */
+public class BlockSignatureCache {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockSignatureCache.class);
+
+    private record Key(Path path, String eTag) { }
+
+    private final FileChannelPool channelPool;
+    private final int blockSize;
+    private final long maxMemory;
+
+    // Access-ordered LRU, guarded by "this"
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long memory;
+
+    private final ConcurrentHashMap<Key, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BlockSignatureCache(FileChannelPool channelPool, int blockSize, long maxMemory) {
+        this.channelPool = channelPool;
+        this.blockSize = blockSize;
+        this.maxMemory = maxMemory;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** The signatures of exactly this version of the file, in {@link BlockSignatures} wire format. */
+    public byte[] get(FileCatalog.FileMetadata file) throws IOException {
+        Key key = new Key(file.path(), file.eTag());
+        synchronized (this) {
+            byte[] cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            byte[] signatures = compute(file);
+            put(key, signatures);
+            created.complete(signatures);
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, created);
+        }
+        return await(created);
+    }
+
+    /** Requests answered from memory. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Requests that signed the file or waited for it to be signed. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private byte[] compute(FileCatalog.FileMetadata file) throws IOException {
+        long started = System.nanoTime();
+        BlockSignatures signatures;
+        try (FileChannelPool.Lease lease = channelPool.acquire(file)) {
+            signatures = BlockSignatures.compute(lease.channel(), file.size(), blockSize, file.eTag());
+        }
+        // Written in place while it was read: the signatures match neither version
+        BasicFileAttributes attrs = Files.readAttributes(file.path(), BasicFileAttributes.class);
+        if (!ConditionalRequests.fileETag(attrs).equals(file.eTag())) {
+            throw new IOException(file.path() + " changed while it was being signed");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        signatures.writeTo(out);
+        log.debug("Signed {} ({} blocks) in {}ms", file.path(), signatures.blocks(), (System.nanoTime() - started) / 1_000_000);
+        return out.toByteArray();
+    }
+
+    private synchronized void put(Key key, byte[] signatures) {
+        if (signatures.length > maxMemory) {
+            return;
+        }
+        byte[] previous = entries.put(key, signatures);
+        memory += signatures.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<Key, byte[]>> eldest = entries.entrySet().iterator();
+        while (memory > maxMemory && eldest.hasNext()) {
+            memory -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> signatures) throws IOException {
+        try {
+            return signatures.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.genesis.verification.filetest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Per-block signatures of one version of a file, for delta downloads.
+ *
+ * The file is cut into fixed blocks of {@code blockSize} bytes (the last one shorter), and
+ * each block gets the rsync rolling checksum as a weak hash and the first 16 bytes of its
+ * SHA-256 as a strong one. A client holding an older copy rolls the weak hash over every
+ * offset of it, confirms weak matches with the strong hash, and so finds unchanged blocks
+ * even where insertions have shifted them; only the rest has to be downloaded.
+ *
+ * Wire format, big-endian: magic {@code BSIG}, version, block size, file size, ETag as
+ * UTF, block count, then per block the weak hash and the strong hash.
+ */
+public final class BlockSignatures {
+
+    public static final int STRONG_LENGTH = 16;
+
+    private static final int MAGIC = 0x42534947;  // "BSIG"
+    private static final int VERSION = 1;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final String eTag;
+    private final long size;
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[] strong;
+
+    // Weak hashes in ascending order with their blocks, for lookups while rolling
+    private int[] sortedWeak;
+    private int[] sortedBlocks;
+
+    private BlockSignatures(String eTag, long size, int blockSize, int[] weak, byte[] strong) {
+        this.eTag = eTag;
+        this.size = size;
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /** Reads {@code size} bytes of {@code channel} from the start and signs them. */
+    public static BlockSignatures compute(FileChannel channel, long size, int blockSize, String eTag) throws IOException {
+        int blocks = blockCount(size, blockSize);
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_LENGTH];
+        MessageDigest sha = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(blockSize);
+        for (int i = 0; i < blocks; i++) {
+            long start = (long) i * blockSize;
+            int length = (int) Math.min(blockSize, size - start);
+            buf.clear().limit(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, start + buf.position()) < 0) {
+                    throw new IOException("File ended at " + (start + buf.position()) + " of " + size + " bytes");
+                }
+            }
+            weak[i] = weak(buf.array(), 0, length);
+            strongHash(sha, buf.array(), 0, length, strong, i * STRONG_LENGTH);
+        }
+        return new BlockSignatures(eTag, size, blockSize, weak, strong);
+    }
+
+    public static BlockSignatures read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a version " + VERSION + " block signature file");
+        }
+        int blockSize = data.readInt();
+        long size = data.readLong();
+        String eTag = data.readUTF();
+        int blocks = data.readInt();
+        if (blockSize <= 0 || size < 0 || blocks != blockCount(size, blockSize)) {
+            throw new IOException("Inconsistent block signatures: " + blocks + " blocks of " + blockSize + " for " + size + " bytes");
+        }
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_LENGTH];
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = data.readInt();
+            data.readFully(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+        }
+        return new BlockSignatures(eTag, size, blockSize, weak, strong);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(blockSize);
+        data.writeLong(size);
+        data.writeUTF(eTag);
+        data.writeInt(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            data.writeInt(weak[i]);
+            data.write(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+        }
+        data.flush();
+    }
+
+    public String eTag() {
+        return eTag;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int blocks() {
+        return weak.length;
+    }
+
+    public long start(int block) {
+        return (long) block * blockSize;
+    }
+
+    public int length(int block) {
+        return (int) Math.min(blockSize, size - start(block));
+    }
+
+    /** True if {@code length} bytes of {@code data} from {@code offset} are block {@code block}. */
+    public boolean matches(int block, MessageDigest sha, byte[] data, int offset, int length) {
+        if (length != length(block) || weak(data, offset, length) != weak[block]) {
+            return false;
+        }
+        byte[] hash = new byte[STRONG_LENGTH];
+        strongHash(sha, data, offset, length, hash, 0);
+        return Arrays.equals(hash, 0, STRONG_LENGTH, strong, block * STRONG_LENGTH, (block + 1) * STRONG_LENGTH);
+    }
+
+    /**
+     * Finds the blocks in the first {@code localSize} bytes of {@code local}, an older copy of
+     * the file. Returns for each block an offset in {@code local} holding it, preferring the
+     * block's own offset, or -1. {@code parallelism} slices of the copy are searched at once.
+     */
+    public long[] locate(FileChannel local, long localSize, int parallelism) throws IOException {
+        AtomicLongArray found = new AtomicLongArray(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            found.set(i, -1);
+        }
+        if (weak.length > 0 && localSize > 0) {
+            index();
+            // Slices start on block boundaries, so unchanged blocks are found at their own offsets
+            long blocksPerSlice = Math.max(1, (localSize / blockSize + parallelism) / parallelism);
+            long sliceSize = blocksPerSlice * blockSize;
+            int slices = (int) ((localSize + sliceSize - 1) / sliceSize);
+            try {
+                IntStream.range(0, slices).parallel().forEach(slice -> {
+                    try {
+                        long from = slice * sliceSize;
+                        scan(local, localSize, from, Math.min(localSize, from + sliceSize), found);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            locateLastBlock(local, localSize, found);
+        }
+        long[] offsets = new long[weak.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = found.get(i);
+        }
+        return offsets;
+    }
+
+    // Rolls a full-block window over every start offset in [from, to), jumping a block after a match
+    private void scan(FileChannel local, long localSize, long from, long to, AtomicLongArray found) throws IOException {
+        long lastStart = Math.min(to, localSize - blockSize + 1);  // exclusive
+        if (from >= lastStart) {
+            return;
+        }
+        MessageDigest sha = sha256();
+        byte[] hash = new byte[STRONG_LENGTH];
+        Window window = new Window(local, localSize, Math.max(READ_BUFFER_SIZE, 2 * blockSize + 1));
+        long position = from;
+        boolean fresh = true;  // a and b still have to be summed over the window at position
+        int a = 0;
+        int b = 0;
+        while (position < lastStart) {
+            int i = window.ensure(position, blockSize + 1);
+            byte[] buf = window.buf;
+            if (fresh) {
+                fresh = false;
+                a = 0;
+                b = 0;
+                for (int k = 0; k < blockSize; k++) {
+                    int x = buf[i + k] & 0xff;
+                    a += x;
+                    b += (blockSize - k) * x;
+                }
+            }
+            int rolling = (a & 0xffff) | (b << 16);
+            if (matchWeak(rolling, buf, i, position, sha, hash, found)) {
+                position += blockSize;
+                fresh = true;
+                continue;
+            }
+            if (position + 1 < lastStart) {
+                int out = buf[i] & 0xff;
+                int in = buf[i + blockSize] & 0xff;
+                a += in - out;
+                b += a - blockSize * out;
+            }
+            position++;
+        }
+    }
+
+    // The short last block can't be found by full-size windows; try its own offset and the copy's end
+    private void locateLastBlock(FileChannel local, long localSize, AtomicLongArray found) throws IOException {
+        int last = weak.length - 1;
+        int length = length(last);
+        if (length == blockSize || found.get(last) >= 0) {
+            return;
+        }
+        MessageDigest sha = sha256();
+        byte[] data = new byte[length];
+        for (long offset : new long[] { start(last), localSize - length }) {
+            if (offset < 0 || offset + length > localSize) {
+                continue;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining() && local.read(buf, offset + buf.position()) >= 0) {
+                // keep reading
+            }
+            if (!buf.hasRemaining() && matches(last, sha, data, 0, length)) {
+                found.set(last, offset);
+                return;
+            }
+        }
+    }
+
+    // Weak hit -> strong check; records the offset for every full block with this content
+    private boolean matchWeak(int rolling, byte[] buf, int i, long position, MessageDigest sha, byte[] hash,
+                              AtomicLongArray found) {
+        int at = Arrays.binarySearch(sortedWeak, rolling);
+        if (at < 0) {
+            return false;
+        }
+        while (at > 0 && sortedWeak[at - 1] == rolling) {
+            at--;
+        }
+        boolean hashed = false;
+        boolean matched = false;
+        for (; at < sortedWeak.length && sortedWeak[at] == rolling; at++) {
+            int block = sortedBlocks[at];
+            if (length(block) != blockSize) {
+                continue;
+            }
+            if (!hashed) {
+                strongHash(sha, buf, i, blockSize, hash, 0);
+                hashed = true;
+            }
+            if (!Arrays.equals(hash, 0, STRONG_LENGTH, strong, block * STRONG_LENGTH, (block + 1) * STRONG_LENGTH)) {
+                continue;
+            }
+            matched = true;
+            long own = start(block);
+            found.getAndUpdate(block, current -> current < 0 || position == own ? position : current);
+        }
+        return matched;
+    }
+
+    private synchronized void index() {
+        if (sortedWeak != null) {
+            return;
+        }
+        long[] pairs = new long[weak.length];
+        for (int i = 0; i < weak.length; i++) {
+            pairs[i] = ((long) weak[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+        int[] w = new int[pairs.length];
+        int[] blocks = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            w[i] = (int) (pairs[i] >> 32);
+            blocks[i] = (int) pairs[i];
+        }
+        sortedBlocks = blocks;
+        sortedWeak = w;
+    }
+
+    /** rsync's checksum: a = sum of bytes, b = sum of (length - k) x byte k, both mod 2^16. */
+    static int weak(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int k = 0; k < length; k++) {
+            int x = data[offset + k] & 0xff;
+            a += x;
+            b += (length - k) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static void strongHash(MessageDigest sha, byte[] data, int offset, int length, byte[] out, int outOffset) {
+        sha.reset();
+        sha.update(data, offset, length);
+        System.arraycopy(sha.digest(), 0, out, outOffset, STRONG_LENGTH);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int blockCount(long size, int blockSize) {
+        long blocks = (size + blockSize - 1) / blockSize;
+        if (blocks > Integer.MAX_VALUE / STRONG_LENGTH) {
+            throw new IllegalArgumentException("Block size " + blockSize + " is too small for " + size + " bytes");
+        }
+        return (int) blocks;
+    }
+
+    /** A sliding read buffer over a file. */
+    private static final class Window {
+        final FileChannel channel;
+        final long fileSize;
+        final byte[] buf;
+        long start;
+        int length;
+
+        Window(FileChannel channel, long fileSize, int capacity) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.buf = new byte[capacity];
+        }
+
+        /** Makes {@code [position, position + count)} (cut at the end of the file) readable; returns its index. */
+        int ensure(long position, int count) throws IOException {
+            long end = Math.min(fileSize, position + count);
+            if (position >= start && end <= start + length) {
+                return (int) (position - start);
+            }
+            start = position;
+            ByteBuffer target = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, fileSize - position));
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("File ended at " + (position + target.position()) + " of " + fileSize + " bytes");
+                }
+            }
+            length = target.position();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.genesis.verification.filetest;
+
+/**
+ * Inclusive, resolved byte range of a resource, as in {@code Content-Range: bytes start-end/size}.
+ */
+public record ByteRange(long start, long end) {
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /** Value for an upstream {@code Range} request header. */
+    public String toRangeHeader() {
+        return "bytes=" + start + "-" + end;
+    }
+}
@@ -0,0 +1,35 @@
+package com.genesis.verification.filetest;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Map;
+
+/**
+ * Who a download is for, as far as shaping and fair sharing are concerned: the API key
+ * header if it names a key with a configured weight, else the remote address. Unknown keys
+ * are ignored so a client can neither claim another's weight by guessing nor escape its
+ * own bucket by rotating keys. Weights are configured per key or address; everyone else
+ * weighs 1.
+ */
+public class ClientIdentity {
+
+    private final String apiKeyHeader;
+    private final Map<String, Integer> weights;
+
+    public ClientIdentity(String apiKeyHeader, Map<String, Integer> weights) {
+        this.apiKeyHeader = apiKeyHeader;
+        this.weights = Map.copyOf(weights);
+    }
+
+    public String key(HttpServletRequest request) {
+        String apiKey = apiKeyHeader == null ? null : request.getHeader(apiKeyHeader);
+        if (apiKey != null && weights.containsKey(apiKey.trim())) {
+            return apiKey.trim();
+        }
+        return request.getRemoteAddr();
+    }
+
+    public int weight(String client) {
+        return Math.max(1, weights.getOrDefault(client, 1));
+    }
+}
@@ -0,0 +1,341 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed variants of full downloads, negotiated from Accept-Encoding and kept on local
+ * disk by source, ETag and content coding.
+ *
+ * There is no separate build step: the first response for a variant compresses on the fly
+ * and writes the compressed bytes both to the client and to a temporary file, which becomes
+ * the cached variant once the body is complete. Responses racing with that build compress on
+ * their own. Later ones send the file, with its length, and cost no CPU. Like
+ * {@link S3BlockCache} the variants are kept in a {@link DiskLruIndex}, which evicts least
+ * recently used ones beyond the byte budget and hands them out already opened, so eviction
+ * never deletes one from under a response.
+ *
+ * Only gzip ships with the JDK. Further codings (zstd, br) plug in through {@link Coding}.
+ */
+public class CompressedVariantCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CompressedVariantCache.class);
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern VARIANT_FILE = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9-]+");
+
+    /** Wraps the stream that receives the encoded bytes; closing the result finishes the encoding. */
+    @FunctionalInterface
+    public interface Coding {
+        OutputStream encode(OutputStream out) throws IOException;
+    }
+
+    /** A cached variant, open for reading; the response writing it closes it. */
+    public record Variant(FileChannel channel, long size) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private record VariantKey(String source, String eTag, String coding) { }
+
+    private final long maxSourceSize;
+    private final long minSize;
+    private final List<MediaType> compressible;
+
+    // Server preference order when the client rates codings equally
+    private final Map<String, Coding> codings = new LinkedHashMap<>();
+
+    private final DiskLruIndex<VariantKey> index;
+
+    private final Set<VariantKey> building = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CompressedVariantCache(Path directory, long maxBytes, long maxSourceSize, long minSize,
+                                  List<String> mimeTypes, int gzipLevel) throws IOException {
+        this.maxSourceSize = maxSourceSize;
+        this.minSize = minSize;
+        this.compressible = MediaType.parseMediaTypes(mimeTypes);
+        codings.put("gzip", out -> new GZIPOutputStream(out, GZIP_BUFFER_SIZE) {
+            {
+                def.setLevel(gzipLevel);
+            }
+        });
+        this.index = new DiskLruIndex<>(directory, maxBytes, "variant", CompressedVariantCache::fileName, VARIANT_FILE);
+    }
+
+    /** Adds a coding, preferred after the ones registered before it. */
+    public void register(String coding, Coding encoder) {
+        codings.put(coding.toLowerCase(Locale.ROOT), encoder);
+    }
+
+    /** True if a body of {@code type} and {@code size} bytes is worth compressing. */
+    public boolean compressible(MediaType type, long size) {
+        if (size < minSize) {
+            return false;
+        }
+        for (MediaType candidate : compressible) {
+            if (candidate.includes(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The supported coding the client rates highest, or {@code null} for identity. Codings
+     * not named fall under "*"; a q of 0 excludes a coding.
+     */
+    public String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+        Map<String, Double> ratings = new LinkedHashMap<>();
+        for (String element : acceptEncoding.split(",")) {
+            String[] params = element.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (!coding.isEmpty()) {
+                ratings.put(coding, q);
+            }
+        }
+        String best = null;
+        double bestQ = 0;
+        for (String coding : codings.keySet()) {
+            double q = ratings.getOrDefault(coding, ratings.getOrDefault("*", 0.0));
+            if (q > bestQ) {
+                best = coding;
+                bestQ = q;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The cached variant, opened while the index still holds it, or {@code null} if it has to
+     * be built by {@link #encoder}. The caller must close it.
+     */
+    public Variant get(String source, String eTag, String coding) throws IOException {
+        FileChannel channel = index.open(new VariantKey(source, eTag, coding));
+        if (channel == null) {
+            misses.increment();
+            return null;
+        }
+        try {
+            Variant variant = new Variant(channel, channel.size());
+            hits.increment();
+            return variant;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stream that takes the identity bytes of {@code source} and writes them, encoded, to
+     * {@code client}. When nobody else is building the variant and the source is small enough,
+     * the encoded bytes are also kept and cached on {@link Encoder#finish()}; closing without
+     * finishing discards them. Neither closes {@code client}.
+     */
+    public Encoder encoder(String source, String eTag, String coding, long sourceSize, OutputStream client) throws IOException {
+        Coding encoding = codings.get(coding);
+        if (encoding == null) {
+            throw new IllegalArgumentException("Unsupported coding " + coding);
+        }
+        VariantKey key = new VariantKey(source, eTag, coding);
+        Path tmp = null;
+        OutputStream file = null;
+        if (sourceSize <= maxSourceSize && building.add(key)) {
+            try {
+                tmp = index.createTempFile();
+                file = new BufferedOutputStream(Files.newOutputStream(tmp), GZIP_BUFFER_SIZE);
+            } catch (IOException e) {
+                log.warn("Not caching the {} variant of {}", coding, source, e);
+                building.remove(key);
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+                tmp = null;
+            }
+        }
+        Tee tee = new Tee(client, file);
+        return new Encoder(key, encoding.encode(tee), tee, tmp);
+    }
+
+    /** Variants answered from disk so far. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Variants that had to be encoded. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long cachedBytes() {
+        return index.cachedBytes();
+    }
+
+    /** Identity bytes in, encoded bytes out to the client and, while building, to the variant file. */
+    public final class Encoder extends FilterOutputStream {
+        private final VariantKey key;
+        private final Tee tee;
+        private final Path tmp;  // null when not building
+        private boolean finished;
+        private boolean closed;
+
+        private Encoder(VariantKey key, OutputStream encoded, Tee tee, Path tmp) {
+            super(encoded);
+            this.key = key;
+            this.tee = tee;
+            this.tmp = tmp;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /** Writes the end of the encoding and caches the variant if it was being built. */
+        public void finish() throws IOException {
+            finished = true;
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            boolean complete = false;
+            try {
+                if (!finished) {
+                    tee.discard();  // no trailer after a failed body; closing just frees the encoder
+                }
+                out.close();
+                complete = finished;
+            } finally {
+                if (tmp != null) {
+                    commitOrDiscard(complete);
+                }
+            }
+        }
+
+        private void commitOrDiscard(boolean complete) throws IOException {
+            try {
+                tee.closeFile();
+                if (complete && !tee.fileFailed) {
+                    index.put(key, tmp);
+                }
+            } finally {
+                building.remove(key);
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    // Client failures propagate; a failing variant file is only dropped
+    private static final class Tee extends OutputStream {
+        private final OutputStream client;
+        private OutputStream file;
+        private boolean discarding;
+        boolean fileFailed;
+
+        Tee(OutputStream client, OutputStream file) {
+            this.client = client;
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (discarding) {
+                return;
+            }
+            if (file != null) {
+                try {
+                    file.write(b, off, len);
+                } catch (IOException e) {
+                    log.warn("Writing a compressed variant failed, not caching it", e);
+                    fileFailed = true;
+                    closeFile();
+                }
+            }
+            client.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!discarding) {
+                client.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Only the encoding ends here; the response stream belongs to the container
+            flush();
+            closeFile();
+        }
+
+        void discard() {
+            discarding = true;
+            fileFailed = true;
+            closeFile();
+        }
+
+        void closeFile() {
+            if (file == null) {
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                fileFailed = true;
+            }
+            file = null;
+        }
+    }
+
+    private static String fileName(VariantKey key) {
+        return DiskLruIndex.digest(key.source(), key.eTag(), key.coding()) + '.' + key.coding();
+    }
+}
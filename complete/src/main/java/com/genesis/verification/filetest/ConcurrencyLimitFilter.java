@@ -0,0 +1,123 @@
+package com.genesis.verification.filetest;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the downloads of one endpoint that are in progress at once.
+ *
+ * A slot is held until the response is complete, including the async part of streaming
+ * bodies. Requests that find no free slot within {@code acquireTimeout} get 503 with
+ * Retry-After, so a flood on one endpoint fails fast instead of queuing on shared
+ * threads and S3 connections. Sendfile responses release their slot when the handler
+ * returns; the container finishes them without a thread.
+ *
+ * With a {@link ClientIdentity}, slots that free up while requests wait go to clients by
+ * weighted fair share (see {@link FairSharePermits}) instead of first come, first served.
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+    private final String name;
+    private final int limit;
+    private final FairSharePermits permits;
+    private final long acquireTimeoutNanos;
+    private final ClientIdentity clients;  // null: one queue for everyone
+
+    public ConcurrencyLimitFilter(String name, int limit, Duration acquireTimeout) {
+        this(name, limit, acquireTimeout, null);
+    }
+
+    public ConcurrencyLimitFilter(String name, int limit, Duration acquireTimeout, ClientIdentity clients) {
+        this.name = name;
+        this.limit = limit;
+        this.permits = new FairSharePermits(limit);
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.clients = clients;
+    }
+
+    public int inUse() {
+        return permits.inUse();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String client = clients != null ? clients.key(request) : "";
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(client, clients != null ? clients.weight(client) : 1, acquireTimeoutNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            log.debug("{} limit of {} reached, rejecting {}", name, limit, request.getRequestURI());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+
+        Release release = new Release(client);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(release);
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    /** Returns the slot exactly once, whichever way the response ends. */
+    private final class Release implements AsyncListener, Runnable {
+        private final String client;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Release(String client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                permits.release(client);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.genesis.verification.filetest;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates RFC 9110 preconditions (section 13.2.2) for a GET or HEAD of a representation
+ * with the given validators.
+ */
+final class ConditionalRequests {
+
+    private ConditionalRequests() {
+    }
+
+    /**
+     * Returns 412 or 304 if a precondition short-circuits the request, or {@code null} to
+     * proceed. Precedence: If-Match, If-Unmodified-Since, If-None-Match, If-Modified-Since.
+     */
+    static HttpStatus evaluate(HttpHeaders request, String eTag, Instant lastModified) {
+        List<String> ifMatch = request.getIfMatch();
+        if (!ifMatch.isEmpty()) {
+            if (!matches(ifMatch, eTag, true)) {
+                return HttpStatus.PRECONDITION_FAILED;
+            }
+        } else {
+            long ifUnmodifiedSince = request.getIfUnmodifiedSince();
+            if (ifUnmodifiedSince >= 0 && lastModified != null && seconds(lastModified) > ifUnmodifiedSince / 1000) {
+                return HttpStatus.PRECONDITION_FAILED;
+            }
+        }
+
+        List<String> ifNoneMatch = request.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            if (matches(ifNoneMatch, eTag, false)) {
+                return HttpStatus.NOT_MODIFIED;
+            }
+        } else {
+            long ifModifiedSince = request.getIfModifiedSince();
+            if (ifModifiedSince >= 0 && lastModified != null && seconds(lastModified) <= ifModifiedSince / 1000) {
+                return HttpStatus.NOT_MODIFIED;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if a Range header may be honoured: there is no If-Range, or it still matches the
+     * current representation. If-Range requires a strong ETag match or an exact date match.
+     */
+    static boolean rangeApplies(HttpHeaders request, String eTag, Instant lastModified) {
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return eTag != null && !isWeak(ifRange) && !isWeak(eTag) && ifRange.equals(eTag);
+        }
+        try {
+            long date = request.getFirstDate(HttpHeaders.IF_RANGE);
+            return lastModified != null && seconds(lastModified) == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Strong ETag for a local file from its size, modification time and file key (inode),
+     * so a replaced file of identical size and time still gets a new tag.
+     */
+    static String fileETag(BasicFileAttributes attrs) {
+        StringBuilder tag = new StringBuilder("\"")
+                .append(Long.toHexString(attrs.size()))
+                .append('-')
+                .append(Long.toHexString(attrs.lastModifiedTime().to(TimeUnit.MICROSECONDS)));
+        Object fileKey = attrs.fileKey();  // null on Windows
+        if (fileKey != null) {
+            tag.append('-').append(Integer.toHexString(fileKey.hashCode()));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Weak form of {@code eTag}, for an encoded variant: byte-for-byte different from the
+     * identity representation, so no good for If-Range, but the same for If-None-Match.
+     */
+    static String weak(String eTag) {
+        return eTag == null || isWeak(eTag) ? eTag : "W/" + eTag;
+    }
+
+    /** Sets ETag and Last-Modified on a response; either may be unknown. */
+    static void setValidators(HttpHeaders response, String eTag, Instant lastModified) {
+        if (eTag != null) {
+            response.setETag(eTag);
+        }
+        if (lastModified != null) {
+            response.setLastModified(lastModified);
+        }
+    }
+
+    private static boolean matches(List<String> candidates, String eTag, boolean strong) {
+        if (eTag == null) {
+            return false;
+        }
+        for (String candidate : candidates) {
+            String c = candidate.trim();
+            if (c.equals("*")) {
+                return true;
+            }
+            if (strong) {
+                if (!isWeak(c) && !isWeak(eTag) && c.equals(eTag)) {
+                    return true;
+                }
+            } else if (opaque(c).equals(opaque(eTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWeak(String eTag) {
+        return eTag.startsWith("W/");
+    }
+
+    private static String opaque(String eTag) {
+        return isWeak(eTag) ? eTag.substring(2) : eTag;
+    }
+
+    // HTTP dates have one-second resolution
+    private static long seconds(Instant instant) {
+        return instant.truncatedTo(ChronoUnit.SECONDS).getEpochSecond();
+    }
+}
@@ -0,0 +1,158 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers in power-of-two size classes from {@code minSize} to {@code maxSize}.
+ * Allocating direct memory is expensive and it is only freed when the owning buffer is
+ * collected, so buffers are recycled instead. At most {@code maxRetained} idle buffers are
+ * kept per class; surplus buffers, and requests larger than {@code maxSize}, are left to the GC.
+ *
+ * One in {@code leakSampleRate} acquired buffers (0 = none) is tracked with its acquisition
+ * stack trace. A tracked buffer that is garbage collected without {@link #release} is
+ * logged and counted in {@link #leaks()}.
+ */
+public class DirectBufferPool {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectBufferPool.class);
+
+    private final int minSize;
+    private final int maxSize;
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer>[] idle;
+
+    private final int leakSampleRate;
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+    private final Map<Tracked, Tracked> tracked = new ConcurrentHashMap<>();
+    private final LongAdder leaks = new LongAdder();
+
+    public DirectBufferPool(int bufferSize, int maxRetained) {
+        this(bufferSize, bufferSize, bufferSize, maxRetained, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int minSize, int maxSize, int bufferSize, int maxRetained, int leakSampleRate) {
+        this.minSize = minSize;
+        int classes = 1;
+        while ((long) minSize << (classes - 1) < maxSize) {
+            classes++;
+        }
+        this.maxSize = minSize << (classes - 1);
+        this.idle = new BlockingQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            idle[i] = new ArrayBlockingQueue<>(Math.max(1, maxRetained));
+        }
+        this.bufferSize = bufferSize <= this.maxSize ? classSize(classIndex(bufferSize)) : bufferSize;
+        this.leakSampleRate = leakSampleRate;
+    }
+
+    /** Capacity of the buffers returned by {@link #acquire()}. */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Returns a cleared buffer of {@link #bufferSize()} bytes. */
+    public ByteBuffer acquire() {
+        return acquire(bufferSize);
+    }
+
+    /** Returns a cleared buffer of at least {@code capacity} bytes, the size of its class. */
+    public ByteBuffer acquire(int capacity) {
+        reportLeaks();
+        if (capacity > maxSize) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        int index = classIndex(capacity);
+        ByteBuffer buf = idle[index].poll();
+        buf = buf != null ? buf.clear() : ByteBuffer.allocateDirect(classSize(index));
+        if (leakSampleRate > 0 && ThreadLocalRandom.current().nextInt(leakSampleRate) == 0) {
+            Tracked record = new Tracked(buf, collected, new Throwable("Buffer acquired here"));
+            tracked.put(record, record);
+        }
+        return buf;
+    }
+
+    /** Returns a buffer from {@link #acquire}; anything else, including {@code null}, is ignored. */
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect() || buf.capacity() > maxSize) {
+            return;
+        }
+        int index = classIndex(buf.capacity());
+        if (classSize(index) != buf.capacity()) {
+            return;
+        }
+        if (!tracked.isEmpty()) {
+            tracked.remove(new Tracked(buf, null, null));
+        }
+        idle[index].offer(buf);
+    }
+
+    /** Tracked buffers collected without being released so far. */
+    public long leaks() {
+        reportLeaks();
+        return leaks.sum();
+    }
+
+    private void reportLeaks() {
+        for (Object ref; (ref = collected.poll()) != null; ) {
+            Tracked record = (Tracked) ref;
+            // Released buffers were removed from the map when they came back
+            if (tracked.remove(record) != null) {
+                leaks.increment();
+                log.error("Direct buffer of {} bytes was garbage collected without being released",
+                        record.capacity, record.acquiredAt);
+            }
+        }
+    }
+
+    private int classIndex(int capacity) {
+        int index = 0;
+        while ((long) minSize << index < capacity) {
+            index++;
+        }
+        return index;
+    }
+
+    private int classSize(int index) {
+        return minSize << index;
+    }
+
+    /** Weak, identity-compared handle on an acquired buffer; also the key used to find it on release. */
+    private static final class Tracked extends WeakReference<ByteBuffer> {
+        private final int hash;
+        private final int capacity;
+        private final Throwable acquiredAt;
+
+        Tracked(ByteBuffer buf, ReferenceQueue<ByteBuffer> queue, Throwable acquiredAt) {
+            super(buf, queue);
+            this.hash = System.identityHashCode(buf);
+            this.capacity = buf.capacity();
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            ByteBuffer buf = get();
+            return buf != null && o instanceof Tracked other && other.get() == buf;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
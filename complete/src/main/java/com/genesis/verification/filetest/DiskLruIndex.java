@@ -0,0 +1,147 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory LRU index of the files a disk cache keeps in its directory, shared by
+ * {@link S3BlockCache} and {@link CompressedVariantCache}.
+ *
+ * Files are written to temporaries from {@link #createTempFile()} and moved into place by
+ * {@link #put}, which evicts least recently used files beyond {@code maxBytes}. {@link #open}
+ * opens a file while the index still holds it, so eviction never deletes one from under a
+ * reader. The index is not persisted: the cache's files and temporaries are wiped when it is
+ * created, and nothing else in the directory is touched.
+ */
+final class DiskLruIndex<K> {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskLruIndex.class);
+
+    private record Entry(Path path, long size) { }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String tempPrefix;
+    private final Function<K, String> fileName;
+    private final Pattern ownFile;
+
+    // Access-ordered, guarded by "this"
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes;
+
+    /**
+     * @param fileName  name of a key's file in the directory
+     * @param fileNames matches every name {@code fileName} returns
+     */
+    DiskLruIndex(Path directory, long maxBytes, String tempPrefix, Function<K, String> fileName,
+                 Pattern fileNames) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.tempPrefix = tempPrefix;
+        this.fileName = fileName;
+        this.ownFile = Pattern.compile("(?:" + fileNames.pattern() + ")|" + Pattern.quote(tempPrefix) + "\\d+\\.tmp");
+        Files.createDirectories(directory);
+        wipe();
+    }
+
+    /** SHA-256 of the parts, in hex; the stem of file names that must not leak keys or paths. */
+    static String digest(String... parts) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(String.join("\0", parts).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A new temporary file in the directory, to be filled and then {@link #put} or deleted. */
+    Path createTempFile() throws IOException {
+        return Files.createTempFile(directory, tempPrefix, ".tmp");
+    }
+
+    /** Moves the complete {@code tmp} into place as the file of {@code key} and evicts beyond the budget. */
+    synchronized void put(K key, Path tmp) throws IOException {
+        Path target = directory.resolve(fileName.apply(key));
+        long size = Files.size(tmp);
+        // Under the lock, so an eviction of the same key cannot delete the new file
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Entry previous = entries.put(key, new Entry(target, size));
+        if (previous != null) {
+            cachedBytes -= previous.size();
+        }
+        cachedBytes += size;
+
+        Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<K, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            cachedBytes -= eldest.getValue().size();
+            delete(eldest.getValue().path());
+        }
+    }
+
+    /** The file of {@code key} opened for reading, or null if it is not cached; the caller closes it. */
+    synchronized FileChannel open(K key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return FileChannel.open(entry.path(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            entries.remove(key);
+            cachedBytes -= entry.size();
+            return null;
+        }
+    }
+
+    /** True if {@code key} is cached; unlike {@link #open} this does not count as a use. */
+    synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    synchronized long cachedBytes() {
+        return cachedBytes;
+    }
+
+    private void wipe() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (ownFile.matcher(file.getFileName().toString()).matches() && Files.isRegularFile(file)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Still open by a reader on Windows; it is overwritten or wiped on the next start
+            log.debug("Could not delete cache file {}", path, e);
+        }
+    }
+}
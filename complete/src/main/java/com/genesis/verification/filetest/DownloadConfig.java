@@ -0,0 +1,234 @@
+package com.genesis.verification.filetest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ToLongFunction;
+
+@Configuration
+@EnableConfigurationProperties(DownloadProperties.class)
+public class DownloadConfig {
+
+    @Bean
+    public RangePlanner rangePlanner(DownloadProperties properties) {
+        DownloadProperties.Ranges ranges = properties.getRanges();
+        return new RangePlanner(ranges.getMaxRanges(), ranges.getCoalesceGap().toBytes(), ranges.getMaxBuffer().toBytes());
+    }
+
+    @Bean
+    public FileCatalog fileCatalog(DownloadProperties properties) throws IOException {
+        DownloadProperties.Local local = properties.getLocal();
+        return new FileCatalog(Path.of(local.getRoot()), local.getMaxCachedFiles());
+    }
+
+    // Channels of changed or evicted files are retired as soon as the catalog notices
+    @Bean
+    public FileChannelPool fileChannelPool(FileCatalog fileCatalog, DownloadProperties properties) {
+        FileChannelPool pool = new FileChannelPool(properties.getLocal().getMaxOpenChannels());
+        fileCatalog.onInvalidate(pool::retire);
+        return pool;
+    }
+
+    // Shared by both controllers; acquire() hands out the prefetch buffer size
+    @Bean
+    public DirectBufferPool directBufferPool(DownloadProperties properties) {
+        DownloadProperties.Buffers buffers = properties.getBuffers();
+        return new DirectBufferPool((int) buffers.getMinSize().toBytes(), (int) buffers.getMaxSize().toBytes(),
+                (int) properties.getS3().getPrefetch().getBufferSize().toBytes(), buffers.getMaxRetained(),
+                buffers.getLeakSampleRate());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.read-ahead.enabled", havingValue = "true", matchIfMissing = true)
+    public SequentialReadAhead sequentialReadAhead(S3Client s3Client, ExecutorService s3FetchExecutor, DownloadProperties properties) {
+        DownloadProperties.ReadAhead readAhead = properties.getS3().getReadAhead();
+        return new SequentialReadAhead(s3Client, s3FetchExecutor, readAhead.getMaxMemory().toBytes(),
+                readAhead.getMinWindow().toBytes(), readAhead.getMaxWindow().toBytes(),
+                readAhead.getLookAhead(), readAhead.getIdleTimeout(), readAhead.getMaxStreams());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.cache.enabled", havingValue = "true", matchIfMissing = true)
+    public S3BlockCache s3BlockCache(S3Client s3Client, ExecutorService s3FetchExecutor, DownloadProperties properties) throws IOException {
+        DownloadProperties.Cache cache = properties.getS3().getCache();
+        return new S3BlockCache(s3Client, s3FetchExecutor, Path.of(cache.getDirectory()),
+                (int) cache.getBlockSize().toBytes(), cache.getMaxSize().toBytes());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.single-flight.enabled", havingValue = "true", matchIfMissing = true)
+    public SingleFlightFetcher singleFlightFetcher(S3Client s3Client, DownloadProperties properties) {
+        DownloadProperties.SingleFlight singleFlight = properties.getS3().getSingleFlight();
+        return new SingleFlightFetcher(s3Client, singleFlight.getWindow().toBytes(),
+                (int) singleFlight.getChunkSize().toBytes(), singleFlight.getMaxFlights());
+    }
+
+    @Bean
+    public S3MetadataCache s3MetadataCache(S3Client s3Client, ExecutorService s3FetchExecutor, DownloadProperties properties) {
+        DownloadProperties.Metadata metadata = properties.getS3().getMetadata();
+        return new S3MetadataCache(s3Client, s3FetchExecutor, metadata.getTtl(), metadata.getMaxStale(), metadata.getMaxEntries());
+    }
+
+    // A part's worth of buffers per slot, so every part in the window keeps downloading
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.parallel.enabled", havingValue = "true", matchIfMissing = true)
+    public ParallelObjectReader parallelObjectReader(S3Client s3Client, ExecutorService s3FetchExecutor,
+                                                     DirectBufferPool directBufferPool, DownloadProperties properties) {
+        DownloadProperties.Parallel parallel = properties.getS3().getParallel();
+        long partSize = parallel.getPartSize().toBytes();
+        int buffersPerPart = (int) Math.max(1, (partSize + directBufferPool.bufferSize() - 1) / directBufferPool.bufferSize());
+        OrderedPrefetcher prefetcher = new OrderedPrefetcher(s3FetchExecutor, directBufferPool, parallel.getConcurrency(), buffersPerPart);
+        return new ParallelObjectReader(s3Client, prefetcher, partSize, parallel.getMaxDownloads());
+    }
+
+    // Part buffers of one upload per slot of the upload limit are kept for reuse
+    @Bean
+    public MultipartUploader multipartUploader(S3Client s3Client, ExecutorService s3FetchExecutor, DownloadProperties properties) {
+        DownloadProperties.Upload upload = properties.getS3().getUpload();
+        return new MultipartUploader(s3Client, s3FetchExecutor, (int) upload.getPartSize().toBytes(), upload.getConcurrency(),
+                properties.getLimits().getUpload() * (upload.getConcurrency() + 1));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.s3.mode", havingValue = "async")
+    public AsyncS3Streamer asyncS3Streamer(S3AsyncClient s3AsyncClient) {
+        return new AsyncS3Streamer(s3AsyncClient);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.compression.enabled", havingValue = "true", matchIfMissing = true)
+    public CompressedVariantCache compressedVariantCache(DownloadProperties properties) throws IOException {
+        DownloadProperties.Compression compression = properties.getCompression();
+        return new CompressedVariantCache(Path.of(compression.getDirectory()), compression.getMaxSize().toBytes(),
+                compression.getMaxObjectSize().toBytes(), compression.getMinSize().toBytes(),
+                compression.getMimeTypes(), compression.getGzipLevel());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.local.signatures.enabled", havingValue = "true", matchIfMissing = true)
+    public BlockSignatureCache blockSignatureCache(FileChannelPool fileChannelPool, DownloadProperties properties) {
+        DownloadProperties.Signatures signatures = properties.getLocal().getSignatures();
+        return new BlockSignatureCache(fileChannelPool, (int) signatures.getBlockSize().toBytes(),
+                signatures.getMaxMemory().toBytes());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.local.hot.enabled", havingValue = "true", matchIfMissing = true)
+    public HotFileCache hotFileCache(FileCatalog fileCatalog, FileChannelPool fileChannelPool, DownloadProperties properties) {
+        DownloadProperties.Hot hot = properties.getLocal().getHot();
+        HotFileCache cache = new HotFileCache(fileChannelPool, hot.getMaxFileSize().toBytes(), hot.getMaxMemory().toBytes(),
+                hot.getAdmitAfter(), hot.getMaxTracked());
+        fileCatalog.onInvalidate(cache::invalidate);
+        return cache;
+    }
+
+    @Bean
+    public ClientIdentity clientIdentity(DownloadProperties properties) {
+        DownloadProperties.Shaping shaping = properties.getShaping();
+        return new ClientIdentity(shaping.getApiKeyHeader(), shaping.getWeights());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "download.shaping.enabled", havingValue = "true", matchIfMissing = true)
+    public BandwidthShaper bandwidthShaper(ClientIdentity clientIdentity, DownloadProperties properties) {
+        DownloadProperties.Shaping shaping = properties.getShaping();
+        return new BandwidthShaper(shaping.getGlobalRate().toBytes(), shaping.getClientRate().toBytes(),
+                shaping.getRequestRate().toBytes(), shaping.getBurst().toBytes(), shaping.getMaxOutstanding().toBytes(),
+                shaping.getMaxClients(), clientIdentity);
+    }
+
+    @Bean
+    public DownloadMetrics downloadMetrics(MeterRegistry meterRegistry) {
+        return new DownloadMetrics(meterRegistry);
+    }
+
+    // Hit ratio per cache: rate(download_cache_requests_total{result="hit"}) over all results
+    @Bean
+    public MeterBinder downloadCacheMetrics(FileCatalog fileCatalog, S3MetadataCache s3MetadataCache,
+                                            ObjectProvider<S3BlockCache> s3BlockCache,
+                                            ObjectProvider<SequentialReadAhead> sequentialReadAhead,
+                                            ObjectProvider<CompressedVariantCache> compressedVariantCache,
+                                            ObjectProvider<SingleFlightFetcher> singleFlightFetcher,
+                                            ObjectProvider<BandwidthShaper> bandwidthShaper,
+                                            ObjectProvider<BlockSignatureCache> blockSignatureCache,
+                                            ObjectProvider<HotFileCache> hotFileCache,
+                                            DirectBufferPool directBufferPool) {
+        return registry -> {
+            cacheRequests(registry, "file-catalog", fileCatalog, FileCatalog::hits, FileCatalog::misses);
+            cacheRequests(registry, "s3-metadata", s3MetadataCache, S3MetadataCache::hits, S3MetadataCache::misses);
+            FunctionCounter.builder("download.cache.requests", s3MetadataCache, S3MetadataCache::staleHits)
+                    .tags("cache", "s3-metadata", "result", "stale")
+                    .register(registry);
+            s3BlockCache.ifAvailable(cache ->
+                    cacheRequests(registry, "s3-block", cache, S3BlockCache::hits, S3BlockCache::misses));
+            compressedVariantCache.ifAvailable(cache -> cacheRequests(registry, "compressed-variant", cache,
+                    CompressedVariantCache::hits, CompressedVariantCache::misses));
+            blockSignatureCache.ifAvailable(cache -> cacheRequests(registry, "block-signatures", cache,
+                    BlockSignatureCache::hits, BlockSignatureCache::misses));
+            hotFileCache.ifAvailable(cache -> {
+                cacheRequests(registry, "hot-files", cache, HotFileCache::hits, HotFileCache::misses);
+                Gauge.builder("download.hot.files.memory", cache, HotFileCache::memory)
+                        .description("Direct memory holding hot file copies")
+                        .baseUnit("bytes")
+                        .register(registry);
+            });
+            sequentialReadAhead.ifAvailable(readAhead -> {
+                cacheRequests(registry, "s3-read-ahead", readAhead, SequentialReadAhead::hits, SequentialReadAhead::misses);
+                Gauge.builder("download.read.ahead.prefetched", readAhead, SequentialReadAhead::prefetchedBytes)
+                        .baseUnit("bytes")
+                        .register(registry);
+            });
+            singleFlightFetcher.ifAvailable(singleFlight -> {
+                cacheRequests(registry, "s3-single-flight", singleFlight, SingleFlightFetcher::hits, SingleFlightFetcher::misses);
+                FunctionCounter.builder("download.single.flight.detached", singleFlight, SingleFlightFetcher::detached)
+                        .description("Readers that fell behind a shared GET and continued with their own")
+                        .register(registry);
+            });
+            bandwidthShaper.ifAvailable(shaper -> {
+                Gauge.builder("download.shaping.outstanding", shaper, BandwidthShaper::outstanding)
+                        .description("Body bytes admitted and not yet sent")
+                        .baseUnit("bytes")
+                        .register(registry);
+                FunctionCounter.builder("download.shaping.rejected", shaper, BandwidthShaper::rejected)
+                        .description("Downloads turned away with 503 by the outstanding-bytes budget")
+                        .register(registry);
+                FunctionCounter.builder("download.shaping.throttled", shaper, s -> s.throttledNanos() / 1e9)
+                        .description("Time writers spent waiting for tokens")
+                        .baseUnit("seconds")
+                        .register(registry);
+            });
+            FunctionCounter.builder("download.buffers.leaks", directBufferPool, DirectBufferPool::leaks)
+                    .description("Pooled direct buffers garbage collected without being released")
+                    .register(registry);
+        };
+    }
+
+    private static <T> void cacheRequests(MeterRegistry registry, String cache, T source,
+                                          ToLongFunction<T> hits, ToLongFunction<T> misses) {
+        FunctionCounter.builder("download.cache.requests", source, s -> hits.applyAsLong(s))
+                .tags("cache", cache, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("download.cache.requests", source, s -> misses.applyAsLong(s))
+                .tags("cache", cache, "result", "miss")
+                .register(registry);
+    }
+
+    @Bean
+    public OrderedPrefetcher s3Prefetcher(ExecutorService s3FetchExecutor, DirectBufferPool directBufferPool,
+                                          DownloadProperties properties) {
+        DownloadProperties.Prefetch prefetch = properties.getS3().getPrefetch();
+        return new OrderedPrefetcher(s3FetchExecutor, directBufferPool, prefetch.getWindow(), prefetch.getBuffersPerPart());
+    }
+}
@@ -0,0 +1,262 @@
+package com.genesis.verification.filetest;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for the download endpoints, tagged by {@code endpoint} ({@code s3},
+ * {@code local}) and {@code mode} ({@code full}, {@code single}, {@code multipart}).
+ *
+ * Every response body is one {@link Transfer}. The streaming loop only bumps plain fields
+ * on it; timers and distributions are updated once, when the body is done. The duration
+ * timer is also tagged with the {@code outcome}: {@code ok}, {@code aborted} when writing
+ * to the client failed, or {@code error} for anything else, typically S3.
+ */
+public class DownloadMetrics {
+
+    public static final String S3 = "s3";
+    public static final String LOCAL = "local";
+
+    public enum Mode {
+        FULL, SINGLE, MULTIPART;
+
+        final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final MeterRegistry registry;
+
+    // Meters per endpoint and mode, so a request does not look them up in the registry
+    private final ConcurrentHashMap<String, Meters> meters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DistributionSummary> ranges = new ConcurrentHashMap<>();
+
+    public DownloadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Starts timing one response of a request handled since {@code startNanos} ({@link System#nanoTime}). */
+    public Transfer start(String endpoint, Mode mode, long startNanos) {
+        return new Transfer(meters.computeIfAbsent(endpoint + '/' + mode.tag, k -> new Meters(endpoint, mode)), startNanos);
+    }
+
+    /** Ranges asked for by one request, before coalescing. */
+    public void ranges(String endpoint, int count) {
+        ranges.computeIfAbsent(endpoint, e -> DistributionSummary.builder("download.ranges")
+                .description("Ranges per range request")
+                .tag("endpoint", e)
+                .register(registry)).record(count);
+    }
+
+    /** Wraps {@code body} so its bytes and timings end up in {@code transfer}. */
+    public static StreamingResponseBody meter(Transfer transfer, StreamingResponseBody body) {
+        return out -> {
+            MeteredOutputStream metered = new MeteredOutputStream(out, transfer);
+            try {
+                body.writeTo(metered);
+            } catch (IOException | RuntimeException e) {
+                if (metered.clientFailed) {
+                    transfer.aborted();
+                } else {
+                    transfer.failed();
+                }
+                throw e;
+            }
+            transfer.completed();
+        };
+    }
+
+    private final class Meters {
+        final Timer ttfb;
+        final Timer ok;
+        final Timer aborted;
+        final Timer error;
+        final DistributionSummary bytes;
+        final DistributionSummary throughput;
+
+        Meters(String endpoint, Mode mode) {
+            ttfb = Timer.builder("download.ttfb")
+                    .description("Time from handling the request to the first body byte")
+                    .tags("endpoint", endpoint, "mode", mode.tag)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            ok = duration(endpoint, mode, "ok");
+            aborted = duration(endpoint, mode, "aborted");
+            error = duration(endpoint, mode, "error");
+            bytes = DistributionSummary.builder("download.bytes")
+                    .description("Body bytes written per response")
+                    .baseUnit("bytes")
+                    .tags("endpoint", endpoint, "mode", mode.tag)
+                    .register(registry);
+            throughput = DistributionSummary.builder("download.throughput")
+                    .description("Body bytes per second of completed responses")
+                    .baseUnit("bytes.per.second")
+                    .tags("endpoint", endpoint, "mode", mode.tag)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        private Timer duration(String endpoint, Mode mode, String outcome) {
+            return Timer.builder("download.duration")
+                    .description("Time from handling the request to the end of the body")
+                    .tags("endpoint", endpoint, "mode", mode.tag, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+
+    /**
+     * One response body. Not thread-safe: it is driven by whoever writes the body, one
+     * thread at a time. Only the first of completed, aborted or failed is recorded.
+     */
+    public static final class Transfer {
+        private final Meters meters;
+        private final long startNanos;
+        private long firstByteNanos;
+        private long bytes;
+        private boolean finished;
+
+        private Transfer(Meters meters, long startNanos) {
+            this.meters = meters;
+            this.startNanos = startNanos;
+        }
+
+        /** {@code count} body bytes are about to be written. */
+        public void written(long count) {
+            if (firstByteNanos == 0 && count > 0) {
+                firstByteNanos = System.nanoTime();
+            }
+            bytes += count;
+        }
+
+        /**
+         * The container writes the body after the handler returns (sendfile), so only the
+         * bytes are known.
+         */
+        public void handedOff(long count) {
+            if (!finished) {
+                finished = true;
+                meters.bytes.record(count);
+            }
+        }
+
+        public void completed() {
+            finish(meters.ok);
+        }
+
+        public void aborted() {
+            finish(meters.aborted);
+        }
+
+        public void failed() {
+            finish(meters.error);
+        }
+
+        private void finish(Timer duration) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            long end = System.nanoTime();
+            duration.record(end - startNanos, TimeUnit.NANOSECONDS);
+            meters.bytes.record(bytes);
+            if (firstByteNanos != 0) {
+                meters.ttfb.record(firstByteNanos - startNanos, TimeUnit.NANOSECONDS);
+            }
+            if (duration == meters.ok && bytes > 0) {
+                meters.throughput.record(bytes * 1e9 / Math.max(1, end - startNanos));
+            }
+        }
+    }
+
+    /**
+     * Counts bytes on their way to the client and notes whether writing them failed. Stays
+     * a {@link ServletOutputStream}, so bodies keep writing direct buffers without a copy.
+     */
+    private static final class MeteredOutputStream extends ServletOutputStream {
+        private final OutputStream out;
+        private final ServletOutputStream servletOut;  // null unless out is one
+        private final Transfer transfer;
+        boolean clientFailed;
+
+        MeteredOutputStream(OutputStream out, Transfer transfer) {
+            this.out = out;
+            this.servletOut = out instanceof ServletOutputStream s ? s : null;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            transfer.written(1);
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                clientFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            transfer.written(len);
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                clientFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            if (servletOut == null) {
+                super.write(buffer);
+                return;
+            }
+            transfer.written(buffer.remaining());
+            try {
+                servletOut.write(buffer);
+            } catch (IOException e) {
+                clientFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                clientFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return servletOut == null || servletOut.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            if (servletOut == null) {
+                throw new IllegalStateException("Not a servlet output stream");
+            }
+            servletOut.setWriteListener(listener);
+        }
+    }
+}
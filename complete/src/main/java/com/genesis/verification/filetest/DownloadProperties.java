@@ -0,0 +1,1262 @@
+package com.genesis.verification.filetest;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tuning for the download endpoints, bound from {@code download.*} in application.yml.
+ */
+@ConfigurationProperties(prefix = "download")
+public class DownloadProperties {
+
+    private final Ranges ranges = new Ranges();
+
+    private final Local local = new Local();
+
+    private final Execution execution = new Execution();
+
+    private final Http2 http2 = new Http2();
+
+    private final Limits limits = new Limits();
+
+    private final Buffers buffers = new Buffers();
+
+    private final Compression compression = new Compression();
+
+    private final Shaping shaping = new Shaping();
+
+    private final S3 s3 = new S3();
+
+    public Ranges getRanges() {
+        return ranges;
+    }
+
+    public Local getLocal() {
+        return local;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public Http2 getHttp2() {
+        return http2;
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    public Buffers getBuffers() {
+        return buffers;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Shaping getShaping() {
+        return shaping;
+    }
+
+    /**
+     * Threads that run request handlers, streaming bodies and S3 fetches.
+     */
+    public static class Execution {
+
+        public enum Mode {
+            PLATFORM,
+            /** Virtual threads for Tomcat handlers, streaming bodies and S3 fetches; startup fails before Java 21. */
+            VIRTUAL
+        }
+
+        private Mode mode = Mode.PLATFORM;
+
+        /** Streaming response bodies running at once in PLATFORM mode. */
+        private int streamThreads = 400;
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public int getStreamThreads() {
+            return streamThreads;
+        }
+
+        public void setStreamThreads(int streamThreads) {
+            this.streamThreads = streamThreads;
+        }
+    }
+
+    /**
+     * Tomcat's HTTP/2 connections, when {@code server.http2.enabled} is on: h2c by upgrade on
+     * plain HTTP, h2 by ALPN with {@code server.ssl}.
+     */
+    public static class Http2 {
+
+        /** Streams a client may open at once on one connection. */
+        private long maxConcurrentStreams = 128;
+
+        /** Streams of one connection being handled at once; the rest wait for a thread. */
+        private int maxConcurrentStreamExecution = 64;
+
+        /** Receive window per stream, i.e. upload bytes a client may send ahead. */
+        private DataSize initialWindowSize = DataSize.ofMegabytes(1);
+
+        /** How long a stream may wait for request body data or for window to send into. */
+        private Duration streamTimeout = Duration.ofMinutes(5);
+
+        public long getMaxConcurrentStreams() {
+            return maxConcurrentStreams;
+        }
+
+        public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+            this.maxConcurrentStreams = maxConcurrentStreams;
+        }
+
+        public int getMaxConcurrentStreamExecution() {
+            return maxConcurrentStreamExecution;
+        }
+
+        public void setMaxConcurrentStreamExecution(int maxConcurrentStreamExecution) {
+            this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+        }
+
+        public DataSize getInitialWindowSize() {
+            return initialWindowSize;
+        }
+
+        public void setInitialWindowSize(DataSize initialWindowSize) {
+            this.initialWindowSize = initialWindowSize;
+        }
+
+        public Duration getStreamTimeout() {
+            return streamTimeout;
+        }
+
+        public void setStreamTimeout(Duration streamTimeout) {
+            this.streamTimeout = streamTimeout;
+        }
+    }
+
+    /**
+     * Concurrent downloads per endpoint; requests beyond them get 503 with Retry-After.
+     */
+    public static class Limits {
+
+        /** /s3/** downloads; each may hold up to prefetch.window S3 connections. */
+        private int s3 = 64;
+
+        /** /api/download/** downloads. */
+        private int local = 256;
+
+        /** /s3/upload uploads; each holds up to s3.upload.concurrency + 1 parts in memory. */
+        private int upload = 4;
+
+        /** /api/signatures/** requests; a cache miss hashes the whole file on the request thread. */
+        private int signatures = 8;
+
+        /** How long a request may wait for a free slot before it is rejected. */
+        private Duration acquireTimeout = Duration.ofMillis(100);
+
+        public int getS3() {
+            return s3;
+        }
+
+        public void setS3(int s3) {
+            this.s3 = s3;
+        }
+
+        public int getLocal() {
+            return local;
+        }
+
+        public void setLocal(int local) {
+            this.local = local;
+        }
+
+        public int getUpload() {
+            return upload;
+        }
+
+        public void setUpload(int upload) {
+            this.upload = upload;
+        }
+
+        public int getSignatures() {
+            return signatures;
+        }
+
+        public void setSignatures(int signatures) {
+            this.signatures = signatures;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+    }
+
+    /**
+     * Egress shaping of both download endpoints, per request, per client and in total, and
+     * weighted fair sharing of the S3 download slots between clients.
+     */
+    public static class Shaping {
+
+        private boolean enabled = true;
+
+        /** Bytes per second over all downloads; 0 = unlimited. */
+        private DataSize globalRate = DataSize.ofBytes(0);
+
+        /** Bytes per second per client, times its weight; 0 = unlimited. */
+        private DataSize clientRate = DataSize.ofBytes(0);
+
+        /** Bytes per second per response; 0 = unlimited. */
+        private DataSize requestRate = DataSize.ofBytes(0);
+
+        /** What each bucket may send at once after being idle. */
+        private DataSize burst = DataSize.ofMegabytes(1);
+
+        /** Body bytes admitted but not yet sent, over all downloads; more get 503 with Retry-After. 0 = no budget. */
+        private DataSize maxOutstanding = DataSize.ofBytes(0);
+
+        /** Identifies a client; requests without it are told apart by remote address. */
+        private String apiKeyHeader = "X-Api-Key";
+
+        /**
+         * Weight per API key or remote address, for fair sharing and the client rate; others weigh 1.
+         * Only keys listed here identify a client; requests with any other key count as their address.
+         */
+        private Map<String, Integer> weights = new LinkedHashMap<>();
+
+        /** Grant S3 download slots that free up under contention by weighted fair share, not arrival order. */
+        private boolean fairShare = true;
+
+        /** Client buckets kept; full (idle) ones are dropped beyond this. */
+        private int maxClients = 10_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getGlobalRate() {
+            return globalRate;
+        }
+
+        public void setGlobalRate(DataSize globalRate) {
+            this.globalRate = globalRate;
+        }
+
+        public DataSize getClientRate() {
+            return clientRate;
+        }
+
+        public void setClientRate(DataSize clientRate) {
+            this.clientRate = clientRate;
+        }
+
+        public DataSize getRequestRate() {
+            return requestRate;
+        }
+
+        public void setRequestRate(DataSize requestRate) {
+            this.requestRate = requestRate;
+        }
+
+        public DataSize getBurst() {
+            return burst;
+        }
+
+        public void setBurst(DataSize burst) {
+            this.burst = burst;
+        }
+
+        public DataSize getMaxOutstanding() {
+            return maxOutstanding;
+        }
+
+        public void setMaxOutstanding(DataSize maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+        }
+
+        public String getApiKeyHeader() {
+            return apiKeyHeader;
+        }
+
+        public void setApiKeyHeader(String apiKeyHeader) {
+            this.apiKeyHeader = apiKeyHeader;
+        }
+
+        public Map<String, Integer> getWeights() {
+            return weights;
+        }
+
+        public void setWeights(Map<String, Integer> weights) {
+            this.weights = weights;
+        }
+
+        public boolean isFairShare() {
+            return fairShare;
+        }
+
+        public void setFairShare(boolean fairShare) {
+            this.fairShare = fairShare;
+        }
+
+        public int getMaxClients() {
+            return maxClients;
+        }
+
+        public void setMaxClients(int maxClients) {
+            this.maxClients = maxClients;
+        }
+    }
+
+    /**
+     * Shared pool of direct buffers, in power-of-two size classes from minSize to maxSize.
+     */
+    public static class Buffers {
+
+        private DataSize minSize = DataSize.ofKilobytes(8);
+
+        /** Larger requests get an unpooled buffer. */
+        private DataSize maxSize = DataSize.ofMegabytes(1);
+
+        /** Idle buffers kept per size class. */
+        private int maxRetained = 64;
+
+        /** One in this many buffers is tracked for leaks (0 = off, 1 = every buffer). */
+        private int leakSampleRate = 128;
+
+        public DataSize getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(DataSize minSize) {
+            this.minSize = minSize;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxRetained() {
+            return maxRetained;
+        }
+
+        public void setMaxRetained(int maxRetained) {
+            this.maxRetained = maxRetained;
+        }
+
+        public int getLeakSampleRate() {
+            return leakSampleRate;
+        }
+
+        public void setLeakSampleRate(int leakSampleRate) {
+            this.leakSampleRate = leakSampleRate;
+        }
+    }
+
+    /**
+     * Content-Encoding of full downloads of compressible types, with compressed variants
+     * cached on local disk by ETag and coding.
+     */
+    public static class Compression {
+
+        private boolean enabled = true;
+
+        /** Smaller bodies are sent as they are. */
+        private DataSize minSize = DataSize.ofKilobytes(1);
+
+        /** Compressible media types; wildcards such as text/* and application/*+json allowed. */
+        private List<String> mimeTypes = new ArrayList<>(List.of("text/*", "application/json", "application/*+json",
+                "application/x-ndjson", "application/xml", "application/*+xml", "application/javascript",
+                "application/x-yaml", "application/yaml"));
+
+        /** Deflate level of gzip, 1 (fastest) to 9 (smallest). */
+        private int gzipLevel = 6;
+
+        /** Variant cache directory; wiped on startup. */
+        private String directory = System.getProperty("java.io.tmpdir") + "/compressed-variants";
+
+        /** Disk budget; least recently used variants are evicted beyond it. */
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+
+        /** Larger sources are compressed on every download instead of cached. */
+        private DataSize maxObjectSize = DataSize.ofMegabytes(512);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(DataSize minSize) {
+            this.minSize = minSize;
+        }
+
+        public List<String> getMimeTypes() {
+            return mimeTypes;
+        }
+
+        public void setMimeTypes(List<String> mimeTypes) {
+            this.mimeTypes = mimeTypes;
+        }
+
+        public int getGzipLevel() {
+            return gzipLevel;
+        }
+
+        public void setGzipLevel(int gzipLevel) {
+            this.gzipLevel = gzipLevel;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMaxObjectSize() {
+            return maxObjectSize;
+        }
+
+        public void setMaxObjectSize(DataSize maxObjectSize) {
+            this.maxObjectSize = maxObjectSize;
+        }
+    }
+
+    public S3 getS3() {
+        return s3;
+    }
+
+    /**
+     * Range header handling shared by both download endpoints.
+     */
+    public static class Ranges {
+
+        /** Requests with more ranges than this are answered with 416. */
+        private int maxRanges = 64;
+
+        /** Parts at most this far apart are served from one upstream read. */
+        private DataSize coalesceGap = DataSize.ofKilobytes(256);
+
+        /** Memory per response for reads whose parts are wanted out of order or overlap; beyond it they are read again. */
+        private DataSize maxBuffer = DataSize.ofMegabytes(1);
+
+        public int getMaxRanges() {
+            return maxRanges;
+        }
+
+        public void setMaxRanges(int maxRanges) {
+            this.maxRanges = maxRanges;
+        }
+
+        public DataSize getCoalesceGap() {
+            return coalesceGap;
+        }
+
+        public void setCoalesceGap(DataSize coalesceGap) {
+            this.coalesceGap = coalesceGap;
+        }
+
+        public DataSize getMaxBuffer() {
+            return maxBuffer;
+        }
+
+        public void setMaxBuffer(DataSize maxBuffer) {
+            this.maxBuffer = maxBuffer;
+        }
+    }
+
+    /**
+     * Files served from local disk by {@code /api/download/**}.
+     */
+    public static class Local {
+
+        /** Directory the request paths are resolved against; nothing outside it is served. */
+        private String root = System.getProperty("user.home") + "/Downloads";
+
+        /** Files whose metadata is kept in memory (invalidated by a directory watch). */
+        private int maxCachedFiles = 10_000;
+
+        /** Pooled open channels; idle ones beyond this are closed, least recently used first. */
+        private int maxOpenChannels = 256;
+
+        /** Let the servlet container send full and single-range bodies with sendfile where it can. */
+        private boolean sendfile = true;
+
+        /** Smaller bodies are written directly; sendfile setup is not worth it for them. */
+        private DataSize sendfileMinSize = DataSize.ofKilobytes(48);
+
+        private final Signatures signatures = new Signatures();
+
+        private final Hot hot = new Hot();
+
+        public String getRoot() {
+            return root;
+        }
+
+        public void setRoot(String root) {
+            this.root = root;
+        }
+
+        public int getMaxCachedFiles() {
+            return maxCachedFiles;
+        }
+
+        public void setMaxCachedFiles(int maxCachedFiles) {
+            this.maxCachedFiles = maxCachedFiles;
+        }
+
+        public int getMaxOpenChannels() {
+            return maxOpenChannels;
+        }
+
+        public void setMaxOpenChannels(int maxOpenChannels) {
+            this.maxOpenChannels = maxOpenChannels;
+        }
+
+        public boolean isSendfile() {
+            return sendfile;
+        }
+
+        public void setSendfile(boolean sendfile) {
+            this.sendfile = sendfile;
+        }
+
+        public DataSize getSendfileMinSize() {
+            return sendfileMinSize;
+        }
+
+        public void setSendfileMinSize(DataSize sendfileMinSize) {
+            this.sendfileMinSize = sendfileMinSize;
+        }
+
+        public Signatures getSignatures() {
+            return signatures;
+        }
+
+        public Hot getHot() {
+            return hot;
+        }
+    }
+
+    /**
+     * Small, frequently requested local files held in direct memory and served without file I/O.
+     */
+    public static class Hot {
+
+        private boolean enabled = true;
+
+        /** Larger files are always read from disk (or sent with sendfile); smaller ones are counted on every request. */
+        private DataSize maxFileSize = DataSize.ofMegabytes(1);
+
+        /** Direct memory for file copies, least recently used evicted first; counts against -XX:MaxDirectMemorySize. */
+        private DataSize maxMemory = DataSize.ofMegabytes(256);
+
+        /** Requests for one version of a file before it is copied into memory. */
+        private int admitAfter = 4;
+
+        /** File versions whose requests are counted; beyond it all counts are halved. */
+        private int maxTracked = 10_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public void setMaxFileSize(DataSize maxFileSize) {
+            this.maxFileSize = maxFileSize;
+        }
+
+        public DataSize getMaxMemory() {
+            return maxMemory;
+        }
+
+        public void setMaxMemory(DataSize maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        public int getAdmitAfter() {
+            return admitAfter;
+        }
+
+        public void setAdmitAfter(int admitAfter) {
+            this.admitAfter = admitAfter;
+        }
+
+        public int getMaxTracked() {
+            return maxTracked;
+        }
+
+        public void setMaxTracked(int maxTracked) {
+            this.maxTracked = maxTracked;
+        }
+    }
+
+    /**
+     * Block signatures of local files for delta downloads, at /api/signatures/&lt;path&gt;.
+     */
+    public static class Signatures {
+
+        private boolean enabled = true;
+
+        /** Unit of change detection: smaller blocks fetch less of a changed file but make larger signatures. */
+        private DataSize blockSize = DataSize.ofKilobytes(128);
+
+        /** Serialized signatures kept in memory, about 20 bytes per block. */
+        private DataSize maxMemory = DataSize.ofMegabytes(64);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getBlockSize() {
+            return blockSize;
+        }
+
+        public void setBlockSize(DataSize blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        public DataSize getMaxMemory() {
+            return maxMemory;
+        }
+
+        public void setMaxMemory(DataSize maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+    }
+
+    public static class S3 {
+
+        /** How single-stream responses are written; multipart responses always use the prefetcher. */
+        public enum Mode {
+            /** Blocking S3Client, one request thread per download. */
+            SYNC,
+            /** S3AsyncClient publisher bridged to servlet non-blocking output. */
+            ASYNC
+        }
+
+        private Mode mode = Mode.SYNC;
+
+        /** S3-compatible endpoint (MinIO, a local stub) addressed path-style; unset = AWS. */
+        private URI endpoint;
+
+        /** Connection pool of the blocking S3Client. */
+        private int maxConnections = 256;
+
+        /** Connections of the async client; only used in ASYNC mode. */
+        private int asyncMaxConcurrency = 500;
+
+        private final Prefetch prefetch = new Prefetch();
+
+        private final Parallel parallel = new Parallel();
+
+        private final ReadAhead readAhead = new ReadAhead();
+
+        private final Cache cache = new Cache();
+
+        private final Metadata metadata = new Metadata();
+
+        private final Upload upload = new Upload();
+
+        private final SingleFlight singleFlight = new SingleFlight();
+
+        private final Hedging hedging = new Hedging();
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public URI getEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(URI endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getAsyncMaxConcurrency() {
+            return asyncMaxConcurrency;
+        }
+
+        public void setAsyncMaxConcurrency(int asyncMaxConcurrency) {
+            this.asyncMaxConcurrency = asyncMaxConcurrency;
+        }
+
+        public Prefetch getPrefetch() {
+            return prefetch;
+        }
+
+        public Parallel getParallel() {
+            return parallel;
+        }
+
+        public ReadAhead getReadAhead() {
+            return readAhead;
+        }
+
+        public Cache getCache() {
+            return cache;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        public Upload getUpload() {
+            return upload;
+        }
+
+        public SingleFlight getSingleFlight() {
+            return singleFlight;
+        }
+
+        public Hedging getHedging() {
+            return hedging;
+        }
+    }
+
+    /**
+     * Duplicate GETs that are slow to answer and resume bodies that stall, on the blocking client.
+     */
+    public static class Hedging {
+
+        private boolean enabled = true;
+
+        /** Quantile of recent times to first byte after which a GET is sent again. */
+        private double quantile = 0.95;
+
+        /** Lower bound of the hedge delay, whatever the quantile says. */
+        private Duration minDelay = Duration.ofMillis(20);
+
+        /** Upper bound of the hedge delay; also used until enough GETs have been timed. */
+        private Duration maxDelay = Duration.ofSeconds(1);
+
+        /** Extra GETs hedging may add, as a fraction of all GETs. */
+        private double budget = 0.05;
+
+        /** Latency samples are kept for one to two windows. */
+        private Duration window = Duration.ofMinutes(1);
+
+        /** A body read waiting longer than this multiple of the p99 time to first byte is stalled. */
+        private double stallFactor = 4;
+
+        private Duration minStallTimeout = Duration.ofSeconds(2);
+
+        /** Also used until enough GETs have been timed. */
+        private Duration maxStallTimeout = Duration.ofSeconds(30);
+
+        /** Ranged GETs one body may be resumed with before the error reaches the caller. */
+        private int maxResumes = 3;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getQuantile() {
+            return quantile;
+        }
+
+        public void setQuantile(double quantile) {
+            this.quantile = quantile;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+
+        public double getBudget() {
+            return budget;
+        }
+
+        public void setBudget(double budget) {
+            this.budget = budget;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public double getStallFactor() {
+            return stallFactor;
+        }
+
+        public void setStallFactor(double stallFactor) {
+            this.stallFactor = stallFactor;
+        }
+
+        public Duration getMinStallTimeout() {
+            return minStallTimeout;
+        }
+
+        public void setMinStallTimeout(Duration minStallTimeout) {
+            this.minStallTimeout = minStallTimeout;
+        }
+
+        public Duration getMaxStallTimeout() {
+            return maxStallTimeout;
+        }
+
+        public void setMaxStallTimeout(Duration maxStallTimeout) {
+            this.maxStallTimeout = maxStallTimeout;
+        }
+
+        public int getMaxResumes() {
+            return maxResumes;
+        }
+
+        public void setMaxResumes(int maxResumes) {
+            this.maxResumes = maxResumes;
+        }
+    }
+
+    /**
+     * One shared GET for concurrent requests of the same object version and range.
+     */
+    public static class SingleFlight {
+
+        private boolean enabled = true;
+
+        /** Bytes a shared GET keeps behind its fastest reader; slower readers continue with their own GET. */
+        private DataSize window = DataSize.ofMegabytes(4);
+
+        /** Unit in which the window is fetched and released. */
+        private DataSize chunkSize = DataSize.ofKilobytes(128);
+
+        /** Shared GETs at once; further requests read on their own. Memory is at most maxFlights x window. */
+        private int maxFlights = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getWindow() {
+            return window;
+        }
+
+        public void setWindow(DataSize window) {
+            this.window = window;
+        }
+
+        public DataSize getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(DataSize chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getMaxFlights() {
+            return maxFlights;
+        }
+
+        public void setMaxFlights(int maxFlights) {
+            this.maxFlights = maxFlights;
+        }
+    }
+
+    /**
+     * In-memory cache of HEAD results.
+     */
+    public static class Metadata {
+
+        /** Entries younger than this are used without asking S3. */
+        private Duration ttl = Duration.ofSeconds(30);
+
+        /** How long past the TTL an entry is still served while it is revalidated. */
+        private Duration maxStale = Duration.ofMinutes(5);
+
+        private int maxEntries = 10_000;
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Duration getMaxStale() {
+            return maxStale;
+        }
+
+        public void setMaxStale(Duration maxStale) {
+            this.maxStale = maxStale;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    /**
+     * Local disk block cache in front of S3.
+     */
+    public static class Cache {
+
+        private boolean enabled = true;
+
+        /** Cache directory; wiped on startup. */
+        private String directory = System.getProperty("java.io.tmpdir") + "/s3-block-cache";
+
+        private DataSize blockSize = DataSize.ofMegabytes(4);
+
+        /** Disk budget; least recently used blocks are evicted beyond it. */
+        private DataSize maxSize = DataSize.ofGigabytes(2);
+
+        /** Full downloads of larger objects bypass the cache so they don't flush it. */
+        private DataSize maxObjectSize = DataSize.ofMegabytes(256);
+
+        /** Blocks of a range loaded in the background ahead of the one being written. */
+        private int readAhead = 2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getBlockSize() {
+            return blockSize;
+        }
+
+        public void setBlockSize(DataSize blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMaxObjectSize() {
+            return maxObjectSize;
+        }
+
+        public void setMaxObjectSize(DataSize maxObjectSize) {
+            this.maxObjectSize = maxObjectSize;
+        }
+
+        public int getReadAhead() {
+            return readAhead;
+        }
+
+        public void setReadAhead(int readAhead) {
+            this.readAhead = readAhead;
+        }
+    }
+
+    /**
+     * Full downloads of large objects over several S3 connections.
+     */
+    public static class Parallel {
+
+        private boolean enabled = true;
+
+        /** Smaller objects are read with one GET. */
+        private DataSize minSize = DataSize.ofMegabytes(64);
+
+        /** Range size, and the buffer budget per part in flight. */
+        private DataSize partSize = DataSize.ofMegabytes(8);
+
+        /** Parts in flight per download, including the one being written. */
+        private int concurrency = 6;
+
+        /** Objects read in parallel at once; further ones use one GET. Memory is about maxDownloads x concurrency x partSize. */
+        private int maxDownloads = 2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(DataSize minSize) {
+            this.minSize = minSize;
+        }
+
+        public DataSize getPartSize() {
+            return partSize;
+        }
+
+        public void setPartSize(DataSize partSize) {
+            this.partSize = partSize;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        public int getMaxDownloads() {
+            return maxDownloads;
+        }
+
+        public void setMaxDownloads(int maxDownloads) {
+            this.maxDownloads = maxDownloads;
+        }
+    }
+
+    /**
+     * Streaming multipart uploads through {@code /s3/upload}.
+     */
+    public static class Upload {
+
+        /** S3 part size; grown for bodies of known length that would need more than 10,000 parts. */
+        private DataSize partSize = DataSize.ofMegabytes(16);
+
+        /** Parts uploaded at once per upload, while the next one is read from the client. */
+        private int concurrency = 4;
+
+        public DataSize getPartSize() {
+            return partSize;
+        }
+
+        public void setPartSize(DataSize partSize) {
+            this.partSize = partSize;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+    }
+
+    /**
+     * In-memory prefetch ahead of clients reading an object with back-to-back ranges.
+     */
+    public static class ReadAhead {
+
+        private boolean enabled = true;
+
+        /** Budget for prefetched bytes across all clients; clients idle past the look-ahead lose theirs first. */
+        private DataSize maxMemory = DataSize.ofMegabytes(256);
+
+        /** Smallest prefetch once a client reads sequentially. */
+        private DataSize minWindow = DataSize.ofMegabytes(1);
+
+        /** Largest prefetch per client; capped at 2 GB. */
+        private DataSize maxWindow = DataSize.ofMegabytes(32);
+
+        /** How far ahead to prefetch, in time at the client's observed consumption rate. */
+        private Duration lookAhead = Duration.ofSeconds(2);
+
+        /** Clients that make no request for this long are forgotten and their prefetched bytes freed. */
+        private Duration idleTimeout = Duration.ofSeconds(30);
+
+        /** Tracked client streams; the least recently active are forgotten beyond it. */
+        private int maxStreams = 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxMemory() {
+            return maxMemory;
+        }
+
+        public void setMaxMemory(DataSize maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        public DataSize getMinWindow() {
+            return minWindow;
+        }
+
+        public void setMinWindow(DataSize minWindow) {
+            this.minWindow = minWindow;
+        }
+
+        public DataSize getMaxWindow() {
+            return maxWindow;
+        }
+
+        public void setMaxWindow(DataSize maxWindow) {
+            this.maxWindow = maxWindow;
+        }
+
+        public Duration getLookAhead() {
+            return lookAhead;
+        }
+
+        public void setLookAhead(Duration lookAhead) {
+            this.lookAhead = lookAhead;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getMaxStreams() {
+            return maxStreams;
+        }
+
+        public void setMaxStreams(int maxStreams) {
+            this.maxStreams = maxStreams;
+        }
+    }
+
+    /**
+     * Concurrent ranged GETs for multipart responses.
+     */
+    public static class Prefetch {
+
+        /** Parts fetched concurrently, including the one being written. 1 = sequential. */
+        private int window = 4;
+
+        /** Size of each pooled direct buffer. */
+        private DataSize bufferSize = DataSize.ofKilobytes(256);
+
+        /** Buffers a part may fill ahead of the writer before its fetch pauses. */
+        private int buffersPerPart = 4;
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+
+        public DataSize getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(DataSize bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getBuffersPerPart() {
+            return buffersPerPart;
+        }
+
+        public void setBuffersPerPart(int buffersPerPart) {
+            this.buffersPerPart = buffersPerPart;
+        }
+    }
+}
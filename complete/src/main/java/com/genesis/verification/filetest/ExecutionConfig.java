@@ -0,0 +1,160 @@
+package com.genesis.verification.filetest;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Where download work runs: Tomcat request handlers, streaming response bodies (the MVC
+ * async executor), S3 fetches, and the per-endpoint concurrency limits in front of them.
+ * HTTP/2 streams run on the same handler threads, up to download.http2 limits per connection.
+ *
+ * In VIRTUAL mode every blocking S3 or disk read parks a virtual thread instead of pinning
+ * a platform one, so the endpoint limits and the S3 connection pool become the only caps.
+ * VIRTUAL needs Java 21; on an older JVM startup fails rather than quietly running the
+ * platform pools the deployment was not sized for. The build targets Java 17, so the mode
+ * only takes effect when the application runs on a newer JVM.
+ */
+@Configuration
+public class ExecutionConfig implements WebMvcConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    private final DownloadProperties properties;
+
+    private final boolean virtual;
+
+    public ExecutionConfig(DownloadProperties properties) {
+        this.properties = properties;
+        this.virtual = useVirtualThreads(properties);
+    }
+
+    /** True if VIRTUAL mode is configured; fails if this JVM has no virtual threads. */
+    static boolean useVirtualThreads(DownloadProperties properties) {
+        if (properties.getExecution().getMode() != DownloadProperties.Execution.Mode.VIRTUAL) {
+            return false;
+        }
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException("download.execution.mode=virtual needs Java 21+, running on "
+                    + Runtime.version() + "; set it to platform");
+        }
+        log.info("Running Tomcat handlers, streaming bodies and S3 fetches on virtual threads");
+        return true;
+    }
+
+    // Runs every StreamingResponseBody; Boot's default application executor has only 8 threads
+    @Bean
+    public AsyncTaskExecutor streamingTaskExecutor() {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor("stream-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("stream-");
+        executor.setCorePoolSize(properties.getExecution().getStreamThreads());
+        executor.setMaxPoolSize(properties.getExecution().getStreamThreads());
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setQueueCapacity(0);  // the endpoint limits queue requests, not this pool
+        executor.setDaemon(true);
+        return executor;
+    }
+
+    // Fetch threads mostly block on S3 sockets; the S3 connection pool is the real limit
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService s3FetchExecutor() {
+        if (virtual) {
+            return new VirtualThreadExecutor("s3-fetch-");
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-fetch-");
+        threadFactory.setDaemon(true);
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingTaskExecutor());
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> handlerThreads() {
+        return protocolHandler -> {
+            if (virtual) {
+                protocolHandler.setExecutor(new VirtualThreadExecutor("tomcat-handler-"));
+            }
+        };
+    }
+
+    // Boot adds the HTTP/2 upgrade protocol when server.http2.enabled; its defaults suit browsers,
+    // not one client multiplexing all its segments (20 streams executing, 64KB upload window)
+    @Bean
+    public TomcatConnectorCustomizer http2Streams() {
+        DownloadProperties.Http2 http2 = properties.getHttp2();
+        return connector -> {
+            for (UpgradeProtocol protocol : connector.findUpgradeProtocols()) {
+                if (protocol instanceof Http2Protocol h2) {
+                    h2.setMaxConcurrentStreams(http2.getMaxConcurrentStreams());
+                    h2.setMaxConcurrentStreamExecution(http2.getMaxConcurrentStreamExecution());
+                    h2.setInitialWindowSize((int) Math.min(Integer.MAX_VALUE, http2.getInitialWindowSize().toBytes()));
+                    h2.setStreamReadTimeout(http2.getStreamTimeout().toMillis());
+                    h2.setStreamWriteTimeout(http2.getStreamTimeout().toMillis());
+                }
+            }
+        };
+    }
+
+    // Slots that free up under contention go to the client furthest below its weighted share
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> s3ConcurrencyLimit(ClientIdentity clientIdentity) {
+        DownloadProperties.Limits limits = properties.getLimits();
+        long worstCase = (long) limits.getS3() * properties.getS3().getPrefetch().getWindow();
+        if (worstCase > properties.getS3().getMaxConnections()) {
+            log.warn("download.limits.s3 ({}) x prefetch window ({}) exceeds download.s3.max-connections ({}); "
+                            + "multipart downloads may wait for S3 connections",
+                    limits.getS3(), properties.getS3().getPrefetch().getWindow(), properties.getS3().getMaxConnections());
+        }
+        return limit("s3", limits.getS3(), "/s3/download",
+                properties.getShaping().isFairShare() ? clientIdentity : null);
+    }
+
+    // Also bounds upload memory: limit x (upload.concurrency + 1) x upload.part-size
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> uploadConcurrencyLimit() {
+        return limit("upload", properties.getLimits().getUpload(), "/s3/upload", null);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> localConcurrencyLimit() {
+        return limit("local", properties.getLimits().getLocal(), "/api/download/*", null);
+    }
+
+    // Signing a cold file is a full sequential read plus SHA-256 on the request thread; without a
+    // limit enough of them would hold every Tomcat thread
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> signaturesConcurrencyLimit() {
+        return limit("signatures", properties.getLimits().getSignatures(), "/api/signatures/*", null);
+    }
+
+    private FilterRegistrationBean<ConcurrencyLimitFilter> limit(String name, int limit, String urlPattern,
+                                                                 ClientIdentity clients) {
+        FilterRegistrationBean<ConcurrencyLimitFilter> registration = new FilterRegistrationBean<>(
+                new ConcurrencyLimitFilter(name, limit, properties.getLimits().getAcquireTimeout(), clients));
+        registration.setName(name + "ConcurrencyLimit");
+        registration.addUrlPatterns(urlPattern);
+        return registration;
+    }
+}
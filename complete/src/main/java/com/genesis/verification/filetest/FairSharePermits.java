@@ -0,0 +1,158 @@
+package com.genesis.verification.filetest;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counting semaphore whose permits go to clients by weighted fair share.
+ *
+ * Free permits are taken at once as long as nobody is waiting. Under contention a released
+ * permit goes to the waiting client with the fewest permits in use per unit of weight,
+ * oldest waiter first among equals, so a client holding ten permits waits behind one holding
+ * none, however many requests it queued first. Permits are never held back while someone
+ * waits, so a lone client can still use all of them.
+ */
+public class FairSharePermits {
+
+    private final int permits;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock; clients without permits or waiters are dropped
+    private final Map<String, Client> clients = new HashMap<>();
+    private int available;
+    private int waiting;
+    private long sequence;
+
+    public FairSharePermits(int permits) {
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    /**
+     * Takes a permit for {@code client}, waiting up to {@code timeoutNanos} for one. Returns
+     * false if none was granted in time.
+     */
+    public boolean tryAcquire(String client, int weight, long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            Client c = clients.computeIfAbsent(client, Client::new);
+            c.weight = Math.max(1, weight);
+            if (available > 0 && waiting == 0) {
+                available--;
+                c.inUse++;
+                return true;
+            }
+            Waiter waiter = new Waiter(lock.newCondition(), sequence++);
+            c.waiters.add(waiter);
+            waiting++;
+            long remaining = timeoutNanos;
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        c.waiters.remove(waiter);
+                        waiting--;
+                        forgetIfIdle(c);
+                        return false;
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    release(c);
+                } else {
+                    c.waiters.remove(waiter);
+                    waiting--;
+                    forgetIfIdle(c);
+                }
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(String client) {
+        lock.lock();
+        try {
+            Client c = clients.get(client);
+            if (c == null || c.inUse == 0) {
+                throw new IllegalStateException("No permit held by " + client);
+            }
+            release(c);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inUse() {
+        lock.lock();
+        try {
+            return permits - available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Client c) {
+        c.inUse--;
+        available++;
+        dispatch();
+        forgetIfIdle(c);
+    }
+
+    private void dispatch() {
+        while (available > 0 && waiting > 0) {
+            Client next = null;
+            for (Client c : clients.values()) {
+                if (!c.waiters.isEmpty() && (next == null || c.before(next))) {
+                    next = c;
+                }
+            }
+            Waiter waiter = next.waiters.poll();
+            waiting--;
+            available--;
+            next.inUse++;
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    private void forgetIfIdle(Client c) {
+        if (c.inUse == 0 && c.waiters.isEmpty()) {
+            clients.remove(c.name);
+        }
+    }
+
+    private static final class Client {
+        final String name;
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        int inUse;
+        int weight = 1;
+
+        Client(String name) {
+            this.name = name;
+        }
+
+        // inUse / weight below the other's, compared without division
+        boolean before(Client other) {
+            long mine = (long) inUse * other.weight;
+            long theirs = (long) other.inUse * weight;
+            return mine < theirs || (mine == theirs && waiters.peek().sequence < other.waiters.peek().sequence);
+        }
+    }
+
+    private static final class Waiter {
+        final Condition condition;
+        final long sequence;
+        boolean granted;
+
+        Waiter(Condition condition, long sequence) {
+            this.condition = condition;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Resolves request paths to regular files under a root directory and caches their metadata.
+ *
+ * Paths that normalize or resolve (through symlinks) outside the root are treated as
+ * missing. Cached entries are dropped when a {@link WatchService} reports a change in
+ * their directory, so the size and ETag of a replaced file are never stale for longer
+ * than the event delivery delay. Directories are watched lazily, once a file in them has
+ * been served.
+ */
+public class FileCatalog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileCatalog.class);
+
+    public record FileMetadata(Path path, long size, Instant lastModified, String eTag) {
+
+        public String fileName() {
+            return path.getFileName().toString();
+        }
+    }
+
+    private final Path root;
+    private final int maxEntries;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    private final ConcurrentHashMap<Path, FileMetadata> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+
+    // Bumped on every invalidation, to catch events that race with a lookup
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Told about every invalidated path, e.g. to retire pooled channels
+    private volatile Consumer<Path> invalidationListener = path -> { };
+
+    public FileCatalog(Path root, int maxEntries) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxEntries = maxEntries;
+        this.watchService = this.root.getFileSystem().newWatchService();
+        this.watcher = new Thread(this::watch, "file-catalog-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+        if (!Files.isDirectory(this.root)) {
+            log.warn("Download root {} does not exist; every request will get 404", this.root);
+        }
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /** Adds a listener told about every invalidated path. */
+    public synchronized void onInvalidate(Consumer<Path> listener) {
+        this.invalidationListener = invalidationListener.andThen(listener);
+    }
+
+    /**
+     * Returns the metadata of the file at {@code relativePath}, or {@code null} if it does
+     * not exist, is not a readable regular file, or lies outside the root.
+     */
+    public FileMetadata lookup(String relativePath) throws IOException {
+        Path path = resolve(relativePath);
+        if (path == null) {
+            return null;
+        }
+        FileMetadata cached = entries.get(path);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        try {
+            // Symlinks may point anywhere; only their targets inside the root are served
+            Path realRoot = root.toRealPath();
+            if (!path.toRealPath().startsWith(realRoot)) {
+                log.warn("Refusing {}: resolves outside {}", relativePath, realRoot);
+                return null;
+            }
+            // Watch before reading, so a change right after the read still invalidates
+            boolean cacheable = watch(path.getParent());
+            long generation = invalidations.get();
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile() || !Files.isReadable(path)) {
+                return null;
+            }
+            FileMetadata metadata = new FileMetadata(path, attrs.size(), attrs.lastModifiedTime().toInstant(),
+                    ConditionalRequests.fileETag(attrs));
+            if (cacheable) {
+                evictIfFull();
+                entries.put(path, metadata);
+                if (invalidations.get() != generation) {
+                    entries.remove(path, metadata);
+                }
+            }
+            return metadata;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Forgets the cached metadata of one file. */
+    public void invalidate(Path path) {
+        invalidations.incrementAndGet();
+        entries.remove(path);
+        invalidationListener.accept(path);
+    }
+
+    public int cachedEntries() {
+        return entries.size();
+    }
+
+    /** Lookups answered from memory. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Lookups that read the file system. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Normalized absolute path under the root, or {@code null} if the path escapes it. */
+    Path resolve(String relativePath) {
+        if (relativePath == null) {
+            return null;
+        }
+        String trimmed = relativePath.startsWith("/") ? relativePath.substring(1) : relativePath;
+        if (trimmed.isEmpty() || trimmed.indexOf('\0') >= 0) {
+            return null;
+        }
+        try {
+            Path path = root.resolve(trimmed).normalize();
+            return path.startsWith(root) && !path.equals(root) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    // Returns false if the directory cannot be watched, in which case nothing is cached for it
+    private boolean watch(Path directory) {
+        if (watchedDirectories.containsKey(directory)) {
+            return true;
+        }
+        try {
+            WatchKey key = directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(directory, key);
+            return true;
+        } catch (IOException | ClosedWatchServiceException e) {
+            log.warn("Cannot watch {}; its files are not cached", directory, e);
+            return false;
+        }
+    }
+
+    private void evictIfFull() {
+        // Rare with sane limits; drop arbitrary entries rather than track recency on every hit
+        Iterator<Path> it = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && it.hasNext()) {
+            Path path = it.next();
+            it.remove();
+            invalidationListener.accept(path);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateDirectory(directory);
+                    } else {
+                        invalidate(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    // Directory deleted or unmounted
+                    watchedDirectories.remove(directory, key);
+                    invalidateDirectory(directory);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void invalidateDirectory(Path directory) {
+        for (Path path : entries.keySet()) {
+            if (directory.equals(path.getParent())) {
+                invalidate(path);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watcher.interrupt();
+    }
+}
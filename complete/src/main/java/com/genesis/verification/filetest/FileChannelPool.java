@@ -0,0 +1,178 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Shares open read-only {@link FileChannel}s between requests.
+ *
+ * A channel is opened for one version (ETag) of a file and handed out as reference-counted
+ * {@link Lease}s; all reads must be positional so concurrent leases don't interfere. Idle
+ * channels stay open until more than {@code maxOpen} are open, then the least recently
+ * used idle ones are closed. A retired channel (file changed or evicted from the catalog)
+ * is closed as soon as its last lease is released.
+ */
+public class FileChannelPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileChannelPool.class);
+
+    private static final class Handle {
+        private final Path path;
+        private final String eTag;
+        private final FileChannel channel;
+        private int refs;
+        private boolean retired;
+
+        Handle(Path path, String eTag, FileChannel channel) {
+            this.path = path;
+            this.eTag = eTag;
+            this.channel = channel;
+        }
+    }
+
+    /** One borrower's reference to a pooled channel. */
+    public final class Lease implements AutoCloseable {
+        private final Handle handle;
+        private boolean released;
+
+        private Lease(Handle handle) {
+            this.handle = handle;
+        }
+
+        public FileChannel channel() {
+            return handle.channel;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(handle);
+            }
+        }
+    }
+
+    private final int maxOpen;
+
+    // Access-ordered, guarded by "this"
+    private final LinkedHashMap<Path, Handle> open = new LinkedHashMap<>(64, 0.75f, true);
+
+    public FileChannelPool(int maxOpen) {
+        this.maxOpen = Math.max(1, maxOpen);
+    }
+
+    /** Returns a lease on a channel for exactly the version of the file described by {@code file}. */
+    public Lease acquire(FileCatalog.FileMetadata file) throws IOException {
+        synchronized (this) {
+            Handle handle = open.get(file.path());
+            if (handle != null && handle.eTag.equals(file.eTag())) {
+                handle.refs++;
+                return new Lease(handle);
+            }
+        }
+
+        // Open outside the lock; a racing opener of the same file just loses below
+        FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ);
+        try {
+            if (channel.size() != file.size()) {
+                throw new IOException(file.path() + " changed since its metadata was read");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        FileChannel unused = null;
+        try {
+            synchronized (this) {
+                Handle handle = open.get(file.path());
+                if (handle != null && handle.eTag.equals(file.eTag())) {
+                    unused = channel;
+                } else {
+                    if (handle != null) {
+                        retire(handle);
+                    }
+                    handle = new Handle(file.path(), file.eTag(), channel);
+                    open.put(file.path(), handle);
+                    trim();
+                }
+                handle.refs++;
+                return new Lease(handle);
+            }
+        } finally {
+            closeQuietly(unused);
+        }
+    }
+
+    /** Retires the channel of {@code path}, if any; it closes once no lease uses it. */
+    public synchronized void retire(Path path) {
+        Handle handle = open.get(path);
+        if (handle != null) {
+            retire(handle);
+        }
+    }
+
+    public synchronized int openChannels() {
+        return open.size();
+    }
+
+    private void retire(Handle handle) {
+        open.remove(handle.path, handle);
+        handle.retired = true;
+        if (handle.refs == 0) {
+            closeQuietly(handle.channel);
+        }
+    }
+
+    private synchronized void release(Handle handle) {
+        handle.refs--;
+        if (handle.refs == 0 && handle.retired) {
+            closeQuietly(handle.channel);
+        } else {
+            trim();
+        }
+    }
+
+    // Closes least recently used idle channels beyond the limit; leased ones stay open
+    private void trim() {
+        Iterator<Handle> it = open.values().iterator();
+        while (open.size() > maxOpen && it.hasNext()) {
+            Handle handle = it.next();
+            if (handle.refs == 0) {
+                it.remove();
+                handle.retired = true;
+                closeQuietly(handle.channel);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Closing pooled channel failed", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Handle handle : open.values()) {
+            handle.retired = true;
+            if (handle.refs == 0) {
+                closeQuietly(handle.channel);
+            }
+        }
+        open.clear();
+    }
+}
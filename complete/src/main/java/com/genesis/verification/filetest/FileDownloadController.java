@@ -1,186 +1,472 @@
 package com.genesis.verification.filetest;
 
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriUtils;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Serves files below {@code download.local.root} at {@code /api/download/<relative path>}.
+ *
+ * Full and single-range bodies are handed to Tomcat's sendfile when the connector supports
+ * it; otherwise they, like every multipart part, are copied with positional reads of exactly
+ * the requested bytes into a pooled direct buffer, which the servlet stream writes without a
+ * heap copy. Multipart framing comes from a {@link MultipartFrameWriter}. Full downloads of
+ * compressible types are gzipped for clients that accept it, from a {@link CompressedVariantCache}.
+ * Bodies of small files in the {@link HotFileCache} that sendfile does not take, and all
+ * their multipart parts, are slices of an in-memory copy instead, with no file I/O.
+ * With a {@link BandwidthShaper} that limits rates, sendfile is off: the shaper can only pace
+ * bodies written here.
+ *
+ * {@code /api/signatures/<relative path>} serves the file's {@link BlockSignatures} for delta
+ * downloads; HEAD responses link to it.
+ */
 @RestController
 @RequestMapping("/api")
 public class FileDownloadController {
 
     private static final Logger log = LoggerFactory.getLogger(FileDownloadController.class);
 
-    private static final Path FILE = Paths.get("C:\\Users\\itsme\\Downloads\\AirParrot-3.1.8-64.msi"); // Change this
-    private static final String FILE_NAME = FILE.getFileName().toString();
     private static final MediaType OCTET_STREAM = MediaType.APPLICATION_OCTET_STREAM;
 
-    // Cache file size (avoid calling Files.size() on every request)
-    private static final long FILE_SIZE = initializeFileSize();
+    /** Link relation of the signatures of a file, as {@link RangeDownloader} looks for it. */
+    public static final String BLOCK_SIGNATURES_REL = "block-signatures";
 
-    private static long initializeFileSize() {
-        try {
-            return Files.size(FILE);
-        } catch (IOException e) {
-            log.error("Cannot access file: {}", FILE, e);
-            throw new IllegalStateException("File not accessible: " + FILE, e);
-        }
+    // Tomcat request attributes (org.apache.coyote.Constants); other containers never set SENDFILE_SUPPORTED
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final RangePlanner rangePlanner;
+
+    private final FileCatalog catalog;
+
+    private final FileChannelPool channelPool;
+
+    private final DirectBufferPool bufferPool;
+
+    private final boolean sendfile;
+
+    private final long sendfileMinSize;
+
+    private final DownloadMetrics metrics;
+
+    private final CompressedVariantCache compression;  // null when disabled
+
+    private final BandwidthShaper shaper;  // null when disabled
+
+    private final BlockSignatureCache signatures;  // null when disabled
+
+    private final HotFileCache hotFiles;  // null when disabled
+
+    public FileDownloadController(RangePlanner rangePlanner, FileCatalog fileCatalog, FileChannelPool fileChannelPool,
+                                  DirectBufferPool directBufferPool, DownloadProperties properties,
+                                  DownloadMetrics metrics, ObjectProvider<CompressedVariantCache> compression,
+                                  ObjectProvider<BandwidthShaper> shaper, ObjectProvider<BlockSignatureCache> signatures,
+                                  ObjectProvider<HotFileCache> hotFiles) {
+        this.rangePlanner = rangePlanner;
+        this.catalog = fileCatalog;
+        this.channelPool = fileChannelPool;
+        this.bufferPool = directBufferPool;
+        this.shaper = shaper.getIfAvailable();
+        this.sendfile = properties.getLocal().isSendfile() && (this.shaper == null || !this.shaper.limitsRate());
+        this.sendfileMinSize = properties.getLocal().getSendfileMinSize().toBytes();
+        this.metrics = metrics;
+        this.compression = compression.getIfAvailable();
+        this.signatures = signatures.getIfAvailable();
+        this.hotFiles = hotFiles.getIfAvailable();
     }
 
-    @GetMapping("/download")
+    @GetMapping("/download/{*path}")
     public ResponseEntity<StreamingResponseBody> download(
+            @PathVariable String path,
             @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader HttpHeaders headers,
             HttpServletRequest request) {
 
+        long started = System.nanoTime();
+        BandwidthShaper.Ticket ticket = null;  // released by the shaped body, or below if building it fails
         try {
-            if (!Files.exists(FILE) || !Files.isReadable(FILE)) {
-                log.warn("File not found or not readable: {}", FILE);
+            // Missing, unreadable, or outside the root → 404
+            FileCatalog.FileMetadata file = catalog.lookup(path);
+            if (file == null) {
+                log.debug("Not found: {}", path);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
 
-            // No Range header → full file download (200 OK)
-            if (rangeHeader == null || rangeHeader.trim().isEmpty()) {
-                return fullDownload();
+            // If-Match / If-None-Match / If-(Un)Modified-Since → 412 or 304
+            HttpStatus precondition = ConditionalRequests.evaluate(headers, file.eTag(), file.lastModified());
+            if (precondition != null) {
+                return ResponseEntity.status(precondition).eTag(file.eTag()).lastModified(file.lastModified()).build();
+            }
+
+            // No Range header, or a stale If-Range → full file download (200 OK)
+            if (rangeHeader == null || rangeHeader.trim().isEmpty()
+                    || !ConditionalRequests.rangeApplies(headers, file.eTag(), file.lastModified())) {
+                ticket = admit(request, file.size());
+                if (ticket == null && shaper != null) {
+                    return overloaded();
+                }
+                DownloadMetrics.Transfer transfer = metrics.start(DownloadMetrics.LOCAL, DownloadMetrics.Mode.FULL, started);
+                boolean compressible = compression != null && compression.compressible(contentType(file), file.size());
+                String coding = compressible ? compression.negotiate(headers.getFirst(HttpHeaders.ACCEPT_ENCODING)) : null;
+                return shaped(coding != null
+                        ? compressedDownload(file, coding, transfer)
+                        : fullDownload(file, compressible, request, transfer), ticket);
             }
 
-            // Parse Range header
-            List<HttpRange> ranges = parseRanges(rangeHeader);
-            if (ranges.isEmpty()) {
-                return rangeNotSatisfiable();
+            // Parse Range header; the parts are the ranges as requested
+            RangePlanner.Plan plan = planRanges(rangeHeader, file.size());
+            if (!plan.isSatisfiable()) {
+                return rangeNotSatisfiable(file.size());
+            }
+            metrics.ranges(DownloadMetrics.LOCAL, plan.parts().size());
+
+            long bytes = 0;
+            for (ByteRange part : plan.parts()) {
+                bytes += part.length();
+            }
+            ticket = admit(request, bytes);
+            if (ticket == null && shaper != null) {
+                return overloaded();
             }
 
             // Single range → standard 206
-            if (ranges.size() == 1) {
-                return singleRangeDownload(ranges.get(0));
+            if (plan.parts().size() == 1) {
+                return shaped(singleRangeDownload(file, plan.parts().get(0), request,
+                        metrics.start(DownloadMetrics.LOCAL, DownloadMetrics.Mode.SINGLE, started)), ticket);
             }
 
             // Multiple ranges → multipart/byteranges
-            return multipartByteRangesDownload(ranges);
+            return shaped(multipartByteRangesDownload(file, plan.parts(),
+                    metrics.start(DownloadMetrics.LOCAL, DownloadMetrics.Mode.MULTIPART, started)), ticket);
 
         } catch (Exception e) {
-            log.error("Unexpected error during download", e);
+            if (ticket != null) {
+                ticket.close();
+            }
+            log.error("Unexpected error during download of {}", path, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    private ResponseEntity<StreamingResponseBody> fullDownload() {
-        StreamingResponseBody stream = out -> {
-            try (var in = Files.newInputStream(FILE)) {
-                in.transferTo(out);
-            }
-        };
+    // Null without a shaper or if the outstanding-bytes budget is spent
+    private BandwidthShaper.Ticket admit(HttpServletRequest request, long bytes) {
+        return shaper != null ? shaper.admit(request, bytes) : null;
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + FILE_NAME + "\"")
+    private ResponseEntity<StreamingResponseBody> overloaded() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(shaper.retryAfterSeconds()))
+                .build();
+    }
+
+    // The body's writes wait for tokens, and its bytes leave the budget as they are sent.
+    // Sendfile bodies (null) release theirs at once; the container sends them unshaped.
+    private static ResponseEntity<StreamingResponseBody> shaped(ResponseEntity<StreamingResponseBody> entity,
+                                                                BandwidthShaper.Ticket ticket) {
+        if (ticket == null) {
+            return entity;
+        }
+        return ResponseEntity.status(entity.getStatusCode())
+                .headers(entity.getHeaders())
+                .body(BandwidthShaper.shape(ticket, entity.getBody()));
+    }
+
+    // Identity encoding; Vary tells caches a compressed variant exists
+    private ResponseEntity<StreamingResponseBody> fullDownload(FileCatalog.FileMetadata file, boolean vary,
+                                                               HttpServletRequest request, DownloadMetrics.Transfer transfer) {
+        ByteRange range = new ByteRange(0, file.size() - 1);
+        StreamingResponseBody stream = metered(zeroCopyBody(file, range, request), transfer, range.length());
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (vary) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(file))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .contentType(OCTET_STREAM)
-                .contentLength(FILE_SIZE)
+                .eTag(file.eTag())
+                .lastModified(file.lastModified())
+                .contentType(contentType(file))
+                .contentLength(file.size())
                 .body(stream);
     }
 
-    private ResponseEntity<StreamingResponseBody> singleRangeDownload(HttpRange range) {
-        long start = range.getRangeStart(FILE_SIZE);
-        long end = range.getRangeEnd(FILE_SIZE);
-        long contentLength = end - start + 1;
+    /**
+     * A cached variant is written from the channel the cache opened, with its length; not with
+     * sendfile, which would reopen the file by name after eviction may have deleted it.
+     * Otherwise the file is encoded on the fly, which also builds the variant, and the length
+     * is unknown.
+     */
+    private ResponseEntity<StreamingResponseBody> compressedDownload(FileCatalog.FileMetadata file, String coding,
+                                                                     DownloadMetrics.Transfer transfer) throws IOException {
+        String source = file.path().toString();
+        CompressedVariantCache.Variant variant = compression.get(source, file.eTag(), coding);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        StreamingResponseBody stream;
+        if (variant != null) {
+            response.contentLength(variant.size());
+            stream = DownloadMetrics.meter(transfer, out -> {
+                try (variant) {
+                    transfer(variant.channel(), 0, variant.size(), out);
+                }
+            });
+        } else {
+            stream = DownloadMetrics.meter(transfer, out -> {
+                CompressedVariantCache.Encoder encoder = compression.encoder(source, file.eTag(), coding, file.size(), out);
+                try (FileChannelPool.Lease lease = channelPool.acquire(file)) {
+                    transfer(lease.channel(), 0, file.size(), encoder);
+                    encoder.finish();
+                } finally {
+                    encoder.close();
+                }
+            });
+        }
 
-        StreamingResponseBody stream = out -> {
-            try (var in = Files.newInputStream(FILE)) {
-                in.skipNBytes(start);
-                in.transferTo(out);
-            }
-        };
+        return response
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(file))
+                .header(HttpHeaders.CONTENT_ENCODING, coding)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(ConditionalRequests.weak(file.eTag()))
+                .lastModified(file.lastModified())
+                .contentType(contentType(file))
+                .body(stream);
+    }
+
+    private ResponseEntity<StreamingResponseBody> singleRangeDownload(FileCatalog.FileMetadata file, ByteRange range,
+                                                                      HttpServletRequest request, DownloadMetrics.Transfer transfer) {
+        long start = range.start();
+        long end = range.end();
+        long contentLength = range.length();
+
+        StreamingResponseBody stream = metered(zeroCopyBody(file, range, request), transfer, contentLength);
 
         return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + FILE_NAME + "\"")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(file))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + FILE_SIZE)
-                .contentType(OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + file.size())
+                .eTag(file.eTag())
+                .lastModified(file.lastModified())
+                .contentType(contentType(file))
                 .contentLength(contentLength)
                 .body(stream);
     }
 
-    private ResponseEntity<StreamingResponseBody> multipartByteRangesDownload(List<HttpRange> ranges) {
-        String boundary = "MULTIPART_BYTERANGES_BOUNDARY_" + System.nanoTime();
-
-        StreamingResponseBody stream = out -> {
-            // Use FileChannel for ranged reads
-            try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
-                WritableByteChannel outChannel = Channels.newChannel(out);
-                for (HttpRange range : ranges) {
-                    long start = range.getRangeStart(FILE_SIZE);
-                    long end = range.getRangeEnd(FILE_SIZE);
-                    long length = end - start + 1;
-
-                    // Write part header
-                    out.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-                    out.write(("Content-Type: application/octet-stream\r\n").getBytes(StandardCharsets.UTF_8));
-                    out.write(("Content-Range: bytes " + start + "-" + end + "/" + FILE_SIZE + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-
-                    // Transfer requested bytes
-                    long remaining = length;
-                    long offset = start;
-                    while (remaining > 0) {
-                        long transferred = channel.transferTo(offset, remaining, outChannel);
-                        if (transferred <= 0) {
-                            break;
-                        }
-                        remaining -= transferred;
-                        offset += transferred;
-                    }
-                    if (remaining != 0) {
-                        log.warn("Incomplete chunk write: expected {} bytes but {} bytes remaining", length, remaining);
-                    }
+    private ResponseEntity<StreamingResponseBody> multipartByteRangesDownload(FileCatalog.FileMetadata file, List<ByteRange> ranges,
+                                                                              DownloadMetrics.Transfer transfer) {
+        MultipartFrameWriter frames = new MultipartFrameWriter(
+                MultipartFrameWriter.newBoundary("MULTIPART_BYTERANGES_BOUNDARY_"), contentType(file).toString());
 
-                    out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer hot = hotFiles != null ? hotFiles.get(file) : null;
+        StreamingResponseBody stream = hot != null ? out -> {
+            for (ByteRange range : ranges) {
+                frames.writePartHeader(out, range, file.size());
+                write(slice(hot, range), out);
+                frames.writePartEnd(out);
+            }
+            frames.writeClose(out);
+        } : out -> {
+            // One pooled channel for all parts; reads are positional
+            try (FileChannelPool.Lease lease = channelPool.acquire(file)) {
+                for (ByteRange range : ranges) {
+                    frames.writePartHeader(out, range, file.size());
+                    transfer(lease.channel(), range.start(), range.length(), out);
+                    frames.writePartEnd(out);
                 }
-                out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+                frames.writeClose(out);
             }
         };
 
         return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary)
+                .header(HttpHeaders.CONTENT_TYPE, frames.contentType())
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .body(stream);
+                .eTag(file.eTag())
+                .lastModified(file.lastModified())
+                .body(DownloadMetrics.meter(transfer, stream));
+    }
+
+    /**
+     * Body for one contiguous range. With sendfile the container streams the file itself
+     * after the handler returns, so the returned body is {@code null} and only the headers
+     * (which must carry the exact Content-Length) are written here.
+     */
+    private StreamingResponseBody zeroCopyBody(FileCatalog.FileMetadata file, ByteRange range, HttpServletRequest request) {
+        if (range.length() <= 0) {
+            return null;
+        }
+        // The hot tier is asked first so every request counts towards admission; once a file
+        // is in memory, writing it skips the open and page-cache lookup sendfile would need
+        ByteBuffer hot = hotFiles != null ? hotFiles.get(file) : null;
+        if (hot != null) {
+            return out -> write(slice(hot, range), out);
+        }
+        if (sendfile(file.path(), range, request)) {
+            return null;
+        }
+        return out -> {
+            try (FileChannelPool.Lease lease = channelPool.acquire(file)) {
+                transfer(lease.channel(), range.start(), range.length(), out);
+            }
+        };
+    }
+
+    // Hands the range to the container if sendfile is enabled, supported and worth it
+    private boolean sendfile(Path path, ByteRange range, HttpServletRequest request) {
+        if (sendfile && range.length() >= sendfileMinSize
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, range.start());
+            request.setAttribute(SENDFILE_END, range.end() + 1);  // exclusive
+            return true;
+        }
+        return false;
+    }
+
+    // Sendfile and empty bodies are written by the container, so only their size is recorded
+    private static StreamingResponseBody metered(StreamingResponseBody body, DownloadMetrics.Transfer transfer, long length) {
+        if (body == null) {
+            transfer.handedOff(Math.max(0, length));
+            return null;
+        }
+        return DownloadMetrics.meter(transfer, body);
+    }
+
+    // Positional reads of exactly count bytes; never touches the shared channel position
+    private void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buf = bufferPool.acquire(TRANSFER_BUFFER_SIZE);
+        try {
+            // Servlet 6.1 streams take the direct buffer as is; anything else goes through a channel
+            ServletOutputStream servletOut = out instanceof ServletOutputStream s ? s : null;
+            WritableByteChannel outChannel = servletOut == null ? Channels.newChannel(out) : null;
+            long remaining = count;
+            long offset = position;
+            while (remaining > 0) {
+                buf.clear().limit((int) Math.min(buf.capacity(), remaining));
+                int n = channel.read(buf, offset);
+                if (n < 0) {
+                    throw new IOException("File ended " + remaining + " bytes early at offset " + offset);
+                }
+                buf.flip();
+                if (servletOut != null) {
+                    servletOut.write(buf);
+                } else {
+                    while (buf.hasRemaining()) {
+                        outChannel.write(buf);
+                    }
+                }
+                remaining -= n;
+                offset += n;
+            }
+        } finally {
+            bufferPool.release(buf);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer contents, ByteRange range) {
+        return contents.slice((int) range.start(), (int) range.length());
+    }
+
+    // From memory; the servlet stream takes the direct buffer as is, like transfer()
+    private static void write(ByteBuffer data, OutputStream out) throws IOException {
+        if (out instanceof ServletOutputStream servletOut) {
+            servletOut.write(data);
+            return;
+        }
+        WritableByteChannel outChannel = Channels.newChannel(out);
+        while (data.hasRemaining()) {
+            outChannel.write(data);
+        }
     }
 
-    private List<HttpRange> parseRanges(String rangeHeader) {
+    private RangePlanner.Plan planRanges(String rangeHeader, long fileSize) {
         try {
-            return HttpRange.parseRanges(rangeHeader);
+            return rangePlanner.plan(HttpRange.parseRanges(rangeHeader), fileSize);
         } catch (IllegalArgumentException e) {
-            log.debug("Invalid Range header: {}", rangeHeader);
-            return Collections.emptyList();
+            log.debug("Invalid Range header: {} ({})", rangeHeader, e.getMessage());
+            return new RangePlanner.Plan(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
         }
     }
 
-    private ResponseEntity<StreamingResponseBody> rangeNotSatisfiable() {
+    private ResponseEntity<StreamingResponseBody> rangeNotSatisfiable(long fileSize) {
         return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + FILE_SIZE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
                 .build();
     }
 
+    private static MediaType contentType(FileCatalog.FileMetadata file) {
+        return MediaTypeFactory.getMediaType(file.fileName()).orElse(OCTET_STREAM);
+    }
+
+    private static String contentDisposition(FileCatalog.FileMetadata file) {
+        return ContentDisposition.attachment().filename(file.fileName(), StandardCharsets.UTF_8).build().toString();
+    }
+
     // HEAD request – clients use this to check Accept-Ranges and size
-    @RequestMapping(value = "/download", method = RequestMethod.HEAD)
-    public ResponseEntity<Void> head() {
-        return ResponseEntity.ok()
+    @RequestMapping(value = "/download/{*path}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> head(@PathVariable String path, @RequestHeader HttpHeaders headers) throws IOException {
+        FileCatalog.FileMetadata file = catalog.lookup(path);
+        if (file == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        HttpStatus precondition = ConditionalRequests.evaluate(headers, file.eTag(), file.lastModified());
+        if (precondition != null) {
+            return ResponseEntity.status(precondition).eTag(file.eTag()).lastModified(file.lastModified()).build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(FILE_SIZE))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + FILE_NAME + "\"")
+                .eTag(file.eTag())
+                .lastModified(file.lastModified())
+                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.size()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(file))
+                .contentType(contentType(file));
+        if (signatures != null) {
+            response.header(HttpHeaders.LINK, "</api/signatures" + UriUtils.encodePath(path, StandardCharsets.UTF_8)
+                    + ">; rel=\"" + BLOCK_SIGNATURES_REL + "\"");
+        }
+        return response.build();
+    }
+
+    // Signed on first request per file version; the ETag follows the file's and the block size
+    @GetMapping("/signatures/{*path}")
+    public ResponseEntity<byte[]> signatures(@PathVariable String path, @RequestHeader HttpHeaders headers) throws IOException {
+        FileCatalog.FileMetadata file = signatures != null ? catalog.lookup(path) : null;
+        if (file == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        String eTag = file.eTag().substring(0, file.eTag().length() - 1) + "-b" + Integer.toHexString(signatures.blockSize()) + '"';
+        HttpStatus precondition = ConditionalRequests.evaluate(headers, eTag, file.lastModified());
+        if (precondition != null) {
+            return ResponseEntity.status(precondition).eTag(eTag).lastModified(file.lastModified()).build();
+        }
+        byte[] body = signatures.get(file);
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .lastModified(file.lastModified())
                 .contentType(OCTET_STREAM)
-                .build();
+                .contentLength(body.length)
+                .body(body);
     }
 
     // Global exception handler (optional but recommended)
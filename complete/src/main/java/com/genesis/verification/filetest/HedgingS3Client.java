@@ -0,0 +1,403 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.DelegatingS3Client;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * S3 client whose GETs don't wait on one slow request.
+ *
+ * Time to first byte of every GET goes into a rolling {@link LatencyHistogram}. A GET that
+ * has not answered by the configured quantile of it (clamped to {@code [minDelay, maxDelay]},
+ * {@code maxDelay} until enough samples are in) is sent a second time, and whichever answers
+ * first is used; the other is aborted. Hedges are paid for from a budget that every GET adds
+ * {@code budget} of a hedge to, so a slow S3 gets at most that fraction of extra requests.
+ *
+ * Bodies are read through a stream that resumes from the last byte received, with a ranged
+ * GET pinned to the same ETag, when the connection fails or a read has waited longer than
+ * the stall timeout ({@code stallFactor} x the p99 time to first byte, clamped to
+ * {@code [minStall, maxStall]}); a watchdog aborts stalled reads. Other operations go to the
+ * delegate unchanged.
+ */
+public class HedgingS3Client extends DelegatingS3Client {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingS3Client.class);
+
+    private static final int MIN_SAMPLES = 50;
+    private static final long HEDGE_CREDITS = 1000;
+    private static final long MAX_CREDITS = 10 * HEDGE_CREDITS;  // Hedges that may go out back to back
+
+    private final S3Client s3Client;
+    private final Executor executor;
+    private final LatencyHistogram firstByte;
+    private final double quantile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final long creditsPerGet;
+    private final double stallFactor;
+    private final long minStallNanos;
+    private final long maxStallNanos;
+    private final int maxResumes;
+
+    private final AtomicLong credits = new AtomicLong(MAX_CREDITS);
+    private final Set<ResumingInputStream> open = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watchdog;
+
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+
+    /** {@code executor} runs the GETs while the caller waits for the first answer. */
+    public HedgingS3Client(S3Client s3Client, Executor executor, long windowNanos, double quantile,
+                           long minDelayNanos, long maxDelayNanos, double budget,
+                           double stallFactor, long minStallNanos, long maxStallNanos, int maxResumes) {
+        super(s3Client);
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.firstByte = new LatencyHistogram(windowNanos);
+        this.quantile = quantile;
+        this.minDelayNanos = minDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.creditsPerGet = Math.round(budget * HEDGE_CREDITS);
+        this.stallFactor = stallFactor;
+        this.minStallNanos = minStallNanos;
+        this.maxStallNanos = maxStallNanos;
+        this.maxResumes = maxResumes;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "s3-stall-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), minStallNanos / 4);
+        watchdog.scheduleWithFixedDelay(this::abortStalled, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        ResponseInputStream<GetObjectResponse> first = open(request);
+        ResumingInputStream in = new ResumingInputStream(request, first);
+        boolean leftOpen = false;
+        try {
+            ReturnT result = transformer.transform(first.response(), AbortableInputStream.create(in, in::abort));
+            leftOpen = transformer.needsConnectionLeftOpen();
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw SdkClientException.create("Reading the body of " + request.key() + " failed", e);
+        } finally {
+            if (!leftOpen) {
+                in.closeQuietly();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        super.close();
+    }
+
+    /** GETs sent a second time because the first was slow. */
+    public long hedged() {
+        return hedged.sum();
+    }
+
+    /** Hedged GETs that answered before the one they duplicated. */
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /** Body reads aborted by the watchdog for waiting longer than the stall timeout. */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    /** Bodies continued with a ranged GET after failing or stalling part way. */
+    public long resumed() {
+        return resumed.sum();
+    }
+
+    /** How long a GET may take to answer before it is hedged. */
+    public long hedgeDelayNanos() {
+        if (firstByte.count() < MIN_SAMPLES) {
+            return maxDelayNanos;
+        }
+        return clamp(firstByte.quantile(quantile), minDelayNanos, maxDelayNanos);
+    }
+
+    /** How long a body read may wait for data before it is aborted and resumed. */
+    public long stallTimeoutNanos() {
+        if (firstByte.count() < MIN_SAMPLES) {
+            return maxStallNanos;
+        }
+        return clamp((long) (stallFactor * firstByte.quantile(0.99)), minStallNanos, maxStallNanos);
+    }
+
+    private ResponseInputStream<GetObjectResponse> open(GetObjectRequest request) {
+        credits.getAndUpdate(c -> Math.min(MAX_CREDITS, c + creditsPerGet));
+        CompletableFuture<ResponseInputStream<GetObjectResponse>> primary = attempt(request);
+        try {
+            return primary.get(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Slow: hedge below if the budget allows
+        } catch (InterruptedException e) {
+            throw interrupted(request, primary);
+        } catch (ExecutionException e) {
+            throw unwrap(request, e);
+        }
+        if (credits.getAndUpdate(c -> c >= HEDGE_CREDITS ? c - HEDGE_CREDITS : c) < HEDGE_CREDITS) {
+            return await(request, primary);
+        }
+        hedged.increment();
+        log.debug("GET of {} {} not answered within {}ms, hedging", request.key(),
+                request.range() != null ? request.range() : "", TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos()));
+
+        CompletableFuture<ResponseInputStream<GetObjectResponse>> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((in, error) -> race(winner, in, error, failed));
+        CompletableFuture<ResponseInputStream<GetObjectResponse>> hedge = attempt(request);
+        hedge.whenComplete((in, error) -> race(winner, in, error, failed));
+        ResponseInputStream<GetObjectResponse> first = await(request, winner);
+        if (hedge.getNow(null) == first) {
+            hedgeWins.increment();
+        }
+        return first;
+    }
+
+    private CompletableFuture<ResponseInputStream<GetObjectResponse>> attempt(GetObjectRequest request) {
+        long started = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            ResponseInputStream<GetObjectResponse> in = s3Client.getObject(request);
+            firstByte.record(System.nanoTime() - started);  // losers too, so the tail stays visible
+            return in;
+        }, executor);
+    }
+
+    // First success wins and later ones are aborted; fails only when both attempts have
+    private void race(CompletableFuture<ResponseInputStream<GetObjectResponse>> winner,
+                      ResponseInputStream<GetObjectResponse> in, Throwable error, AtomicInteger failed) {
+        if (error == null) {
+            if (!winner.complete(in)) {
+                in.abort();
+            }
+        } else if (failed.incrementAndGet() == 2) {
+            winner.completeExceptionally(error);
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> await(GetObjectRequest request,
+                                                        CompletableFuture<ResponseInputStream<GetObjectResponse>> response) {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            throw interrupted(request, response);
+        } catch (ExecutionException e) {
+            throw unwrap(request, e);
+        }
+    }
+
+    // Whatever arrives after the caller gave up is aborted
+    private static RuntimeException interrupted(GetObjectRequest request,
+                                                CompletableFuture<ResponseInputStream<GetObjectResponse>> response) {
+        Thread.currentThread().interrupt();
+        response.thenAccept(ResponseInputStream::abort);
+        return AbortedException.create("Interrupted waiting for the GET of " + request.key());
+    }
+
+    private static RuntimeException unwrap(GetObjectRequest request, ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        return SdkClientException.create("GET of " + request.key() + " failed", cause);
+    }
+
+    private void abortStalled() {
+        if (open.isEmpty()) {
+            return;
+        }
+        long timeout = stallTimeoutNanos();
+        long now = System.nanoTime();
+        for (ResumingInputStream in : open) {
+            in.abortIfStalled(now, timeout);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * The body of one GET, continued with ranged GETs of the same ETag from the last byte
+     * received when a read fails, ends early or is aborted as stalled.
+     */
+    private final class ResumingInputStream extends InputStream {
+        private final GetObjectRequest request;
+        private final String eTag;
+        private final long start;
+        private final long length;  // -1 when unknown
+
+        private volatile ResponseInputStream<GetObjectResponse> upstream;
+        private volatile long readingSince;  // 0 outside upstream reads
+        private volatile boolean closed;
+        private long position;
+        private int resumes;
+
+        ResumingInputStream(GetObjectRequest request, ResponseInputStream<GetObjectResponse> upstream) {
+            GetObjectResponse response = upstream.response();
+            this.request = request;
+            this.upstream = upstream;
+            this.eTag = request.ifMatch() != null ? request.ifMatch() : response.eTag();
+            this.start = firstByte(response.contentRange());
+            this.length = response.contentLength() != null ? response.contentLength() : -1;
+            open.add(this);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                int n;
+                readingSince = System.nanoTime();
+                try {
+                    n = upstream.read(b, off, len);
+                } catch (IOException | RuntimeException e) {  // aborted reads fail with either
+                    readingSince = 0;
+                    resume(e);
+                    continue;
+                }
+                readingSince = 0;
+                if (n < 0 && length >= 0 && position < length) {
+                    resume(new EOFException("Body ended " + (length - position) + " bytes early"));
+                    continue;
+                }
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return upstream.available();
+        }
+
+        private void resume(Exception cause) throws IOException {
+            if (closed || resumes >= maxResumes || eTag == null || (length >= 0 && position >= length)) {
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw (IOException) cause;
+            }
+            resumes++;
+            resumed.increment();
+            long from = start + position;
+            log.debug("Resuming GET of {} at byte {} after: {}", request.key(), from, cause.toString());
+            upstream.abort();
+            closeQuietly(upstream);
+            GetObjectRequest rest = request.toBuilder()
+                    .partNumber(null)
+                    .ifMatch(eTag)
+                    .range("bytes=" + from + "-" + (length >= 0 ? String.valueOf(start + length - 1) : ""))
+                    .build();
+            try {
+                upstream = open(rest);
+            } catch (RuntimeException e) {
+                IOException failure = new IOException("Resuming GET of " + request.key() + " at byte " + from + " failed", e);
+                failure.addSuppressed(cause);
+                throw failure;
+            }
+        }
+
+        void abortIfStalled(long now, long timeout) {
+            long since = readingSince;
+            if (since != 0 && now - since > timeout) {
+                readingSince = 0;
+                stalls.increment();
+                log.debug("Read of {} stalled for {}ms, aborting", request.key(), TimeUnit.NANOSECONDS.toMillis(now - since));
+                upstream.abort();
+            }
+        }
+
+        void abort() {
+            closed = true;
+            upstream.abort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            open.remove(this);
+            if (!closed) {
+                closed = true;
+                if (length < 0 || position < length) {
+                    upstream.abort();  // don't drain the rest to reuse the connection
+                }
+            }
+            upstream.close();
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                log.debug("Closing the GET of {} failed", request.key(), e);
+            }
+        }
+
+        private void closeQuietly(InputStream in) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Closing the GET of {} failed", request.key(), e);
+            }
+        }
+    }
+
+    // "bytes 100-199/1000" -> 100; whole bodies start at 0
+    private static long firstByte(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return 0;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash < 0 ? 0 : Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+    }
+}
@@ -0,0 +1,157 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap copies of small, frequently requested local files, so their full, range and
+ * multipart responses are written from memory without opening or reading the file.
+ *
+ * A file version (path and ETag, which covers size and mtime) is admitted once it has been
+ * requested {@code admitAfter} times; the request that crosses the threshold copies it into
+ * a direct buffer. Request counts are halved whenever more than {@code maxTracked} versions
+ * are counted, so old popularity fades. Copies are evicted least recently used beyond
+ * {@code maxMemory} bytes; their memory is returned when the last response using one ends.
+ */
+public class HotFileCache {
+
+    private static final Logger log = LoggerFactory.getLogger(HotFileCache.class);
+
+    private record Key(Path path, String eTag) { }
+
+    private final FileChannelPool channelPool;
+    private final long maxFileSize;
+    private final long maxMemory;
+    private final int admitAfter;
+    private final int maxTracked;
+
+    // All guarded by "this"; entries is access-ordered LRU
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashMap<Key, Integer> requests = new HashMap<>();
+    private final Set<Key> loading = new HashSet<>();
+    private long memory;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public HotFileCache(FileChannelPool channelPool, long maxFileSize, long maxMemory, int admitAfter, int maxTracked) {
+        this.channelPool = channelPool;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+        this.maxMemory = maxMemory;
+        this.admitAfter = Math.max(1, admitAfter);
+        this.maxTracked = Math.max(1, maxTracked);
+    }
+
+    /**
+     * The contents of exactly this version of the file, as a read-only buffer of its own that
+     * the caller may slice, or null if it is not (yet) hot. Counts the request towards admission.
+     */
+    public ByteBuffer get(FileCatalog.FileMetadata file) {
+        if (file.size() > maxFileSize || file.size() > maxMemory) {
+            return null;
+        }
+        Key key = new Key(file.path(), file.eTag());
+        synchronized (this) {
+            ByteBuffer cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached.duplicate();
+            }
+            misses.increment();
+            int count = requests.merge(key, 1, Integer::sum);
+            if (requests.size() > maxTracked) {
+                age();
+            }
+            if (count < admitAfter || !loading.add(key)) {
+                return null;
+            }
+        }
+        try {
+            ByteBuffer contents = load(file);
+            put(key, contents);
+            return contents.duplicate();
+        } catch (IOException e) {
+            log.debug("Not promoting {}: {}", file.path(), e.getMessage());
+            return null;
+        } finally {
+            synchronized (this) {
+                loading.remove(key);
+            }
+        }
+    }
+
+    /** Drops every version of {@code path}, e.g. when the catalog sees it change. */
+    public synchronized void invalidate(Path path) {
+        Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = it.next();
+            if (entry.getKey().path().equals(path)) {
+                memory -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+        requests.keySet().removeIf(key -> key.path().equals(path));
+    }
+
+    /** Requests answered from memory. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Requests for files under the size limit that were not in memory. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Bytes held in memory. */
+    public synchronized long memory() {
+        return memory;
+    }
+
+    private ByteBuffer load(FileCatalog.FileMetadata file) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocateDirect((int) file.size());
+        try (FileChannelPool.Lease lease = channelPool.acquire(file)) {
+            while (contents.hasRemaining()) {
+                if (lease.channel().read(contents, contents.position()) < 0) {
+                    throw new IOException(file.path() + " is shorter than " + file.size() + " bytes");
+                }
+            }
+        }
+        // Written in place while it was read: the copy matches neither version
+        BasicFileAttributes attrs = Files.readAttributes(file.path(), BasicFileAttributes.class);
+        if (!ConditionalRequests.fileETag(attrs).equals(file.eTag())) {
+            throw new IOException(file.path() + " changed while it was being read");
+        }
+        return contents.flip().asReadOnlyBuffer();
+    }
+
+    private synchronized void put(Key key, ByteBuffer contents) {
+        ByteBuffer previous = entries.put(key, contents);
+        memory += contents.capacity() - (previous != null ? previous.capacity() : 0);
+        requests.remove(key);
+        Iterator<Map.Entry<Key, ByteBuffer>> eldest = entries.entrySet().iterator();
+        while (memory > maxMemory && eldest.hasNext()) {
+            memory -= eldest.next().getValue().capacity();
+            eldest.remove();
+        }
+    }
+
+    // Halves every count and forgets versions that drop to zero
+    private void age() {
+        requests.replaceAll((key, count) -> count / 2);
+        requests.values().removeIf(count -> count == 0);
+    }
+}
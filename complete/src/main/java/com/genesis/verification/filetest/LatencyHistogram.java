@@ -0,0 +1,106 @@
+package com.genesis.verification.filetest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rolling latency histogram for decisions made on every request, such as when to hedge.
+ *
+ * Buckets grow by 20% from 100µs to a minute, so a quantile is off by at most that much.
+ * Samples go into the current of two windows; quantiles are read over both, and the older
+ * one is dropped each time {@code window} has passed, so the histogram follows the last one
+ * to two windows of traffic. Recording is one atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final long MIN_NANOS = 100_000;
+    private static final double GROWTH = 1.2;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final long[] UPPER_BOUNDS = upperBounds(60_000_000_000L);
+
+    private final long windowNanos;
+    private final AtomicLong rotatedAt = new AtomicLong(System.nanoTime());
+    private volatile AtomicLongArray current = new AtomicLongArray(UPPER_BOUNDS.length);
+    private volatile AtomicLongArray previous = new AtomicLongArray(UPPER_BOUNDS.length);
+
+    public LatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    public void record(long nanos) {
+        rotateIfDue();
+        current.incrementAndGet(bucket(nanos));
+    }
+
+    /** Samples in both windows. */
+    public long count() {
+        rotateIfDue();
+        AtomicLongArray now = current;
+        AtomicLongArray before = previous;
+        long count = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            count += now.get(i) + before.get(i);
+        }
+        return count;
+    }
+
+    /** Upper bound of the bucket holding quantile {@code q}, or 0 without samples. */
+    public long quantile(double q) {
+        rotateIfDue();
+        AtomicLongArray now = current;
+        AtomicLongArray before = previous;
+        long[] counts = new long[UPPER_BOUNDS.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = now.get(i) + before.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return UPPER_BOUNDS[i];
+            }
+        }
+        return UPPER_BOUNDS[UPPER_BOUNDS.length - 1];
+    }
+
+    private void rotateIfDue() {
+        long last = rotatedAt.get();
+        long now = System.nanoTime();
+        if (now - last < windowNanos || !rotatedAt.compareAndSet(last, now)) {
+            return;
+        }
+        // Samples racing with the swap land in the older window; they are few and recent enough
+        previous = now - last < 2 * windowNanos ? current : new AtomicLongArray(UPPER_BOUNDS.length);
+        current = new AtomicLongArray(UPPER_BOUNDS.length);
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos <= MIN_NANOS) {
+            return 0;
+        }
+        int i = Math.min((int) Math.ceil(Math.log((double) nanos / MIN_NANOS) / LOG_GROWTH), UPPER_BOUNDS.length - 1);
+        // Rounding can put a value next to a bucket boundary one bucket off
+        while (i < UPPER_BOUNDS.length - 1 && nanos > UPPER_BOUNDS[i]) {
+            i++;
+        }
+        while (i > 0 && nanos <= UPPER_BOUNDS[i - 1]) {
+            i--;
+        }
+        return i;
+    }
+
+    private static long[] upperBounds(long maxNanos) {
+        int n = (int) Math.ceil(Math.log((double) maxNanos / MIN_NANOS) / LOG_GROWTH) + 1;
+        long[] bounds = new long[n];
+        for (int i = 0; i < n; i++) {
+            bounds[i] = (long) (MIN_NANOS * Math.pow(GROWTH, i));
+        }
+        return bounds;
+    }
+}
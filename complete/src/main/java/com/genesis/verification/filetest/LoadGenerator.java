@@ -0,0 +1,198 @@
+package com.genesis.verification.filetest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage:
+ * java com.genesis.verification.filetest.LoadGenerator <url> [clients] [seconds] [range-size-bytes] [client-kbps]
+ *
+ * Example, 2000 clients reading random 1 MB ranges at 512 KB/s each for 60 seconds:
+ * java com.genesis.verification.filetest.LoadGenerator
+ *   http://localhost:8080/s3/download?key=big.bin 2000 60 1048576 512
+ *
+ * Each client loops GET requests until the time is up, draining the body at the given
+ * rate (0 = as fast as possible) so that downloads stay open like real slow clients do.
+ * With range-size 0 every request is a full download. The summary lists completed
+ * requests, throughput, latency percentiles (time to last byte) and responses by status;
+ * 503s are the endpoint concurrency limit rejecting load.
+ *
+ * To compare execution modes, run the same load against the server started with
+ * download.execution.mode=platform and again with =virtual (Java 21+). The number of
+ * clients served without 503s or timeouts at equal throughput per client is the
+ * concurrency gain.
+ */
+public class LoadGenerator {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Latency histogram in milliseconds, last bucket is "60 s or more"
+    private static final int MAX_LATENCY_MS = 60_000;
+
+    private final URI uri;
+    private final int clients;
+    private final Duration duration;
+    private final long rangeSize;
+    private final long bytesPerSecond;
+
+    private final HttpClient client;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(MAX_LATENCY_MS + 1);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final AtomicLong objectSize = new AtomicLong(-1);
+
+    public LoadGenerator(URI uri, int clients, Duration duration, long rangeSize, long bytesPerSecond) {
+        this.uri = uri;
+        this.clients = clients;
+        this.duration = duration;
+        this.rangeSize = rangeSize;
+        this.bytesPerSecond = bytesPerSecond;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(20))
+                .executor(Executors.newCachedThreadPool())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java LoadGenerator <url> [clients] [seconds] [range-size-bytes] [client-kbps]");
+            System.exit(2);
+        }
+        URI uri = URI.create(args[0]);
+        int clients = args.length >= 2 ? Integer.parseInt(args[1]) : 200;
+        Duration duration = Duration.ofSeconds(args.length >= 3 ? Long.parseLong(args[2]) : 30);
+        long rangeSize = args.length >= 4 ? Long.parseLong(args[3]) : 0;
+        long bytesPerSecond = args.length >= 5 ? Long.parseLong(args[4]) * 1024 : 0;
+
+        new LoadGenerator(uri, clients, duration, rangeSize, bytesPerSecond).run();
+    }
+
+    public void run() throws Exception {
+        if (rangeSize > 0) {
+            objectSize.set(probeSize());
+        }
+        System.out.printf("%d clients for %ds against %s%n", clients, duration.toSeconds(), uri);
+
+        long deadline = System.nanoTime() + duration.toNanos();
+        ExecutorService workers = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            workers.execute(() -> {
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                while (System.nanoTime() < deadline) {
+                    request(buffer, deadline);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(duration.toSeconds() + 120, TimeUnit.SECONDS);
+        report((System.nanoTime() - start) / 1e9);
+        System.exit(0);  // don't wait for lingering connections
+    }
+
+    private void request(byte[] buffer, long deadline) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2));
+        if (rangeSize > 0) {
+            long size = objectSize.get();
+            long start = size > rangeSize ? ThreadLocalRandom.current().nextLong(size - rangeSize) : 0;
+            request.header("Range", "bytes=" + start + "-" + (start + rangeSize - 1));
+        }
+        long begin = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            long received = drain(response.body(), buffer, deadline);
+            bytes.add(received);
+            if (response.statusCode() / 100 == 2) {
+                completed.increment();
+                long millis = (System.nanoTime() - begin) / 1_000_000;
+                latencies.incrementAndGet((int) Math.min(millis, MAX_LATENCY_MS));
+            }
+            outcomes.computeIfAbsent(String.valueOf(response.statusCode()), k -> new LongAdder()).increment();
+            if (response.statusCode() == 503) {
+                Thread.sleep(1000);  // honour Retry-After: 1
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            outcomes.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        }
+    }
+
+    private long drain(InputStream body, byte[] buffer, long deadline) throws IOException, InterruptedException {
+        long total = 0;
+        long started = System.nanoTime();
+        try (InputStream in = body) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                total += n;
+                if (bytesPerSecond > 0) {
+                    // Sleep until this many bytes are due at the client's rate
+                    long dueNanos = total * 1_000_000_000L / bytesPerSecond;
+                    long aheadNanos = dueNanos - (System.nanoTime() - started);
+                    if (aheadNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                    }
+                }
+                if (System.nanoTime() > deadline + TimeUnit.SECONDS.toNanos(60)) {
+                    break;  // stuck far past the end of the run
+                }
+            }
+        }
+        return total;
+    }
+
+    private long probeSize() throws IOException, InterruptedException {
+        HttpResponse<Void> head = client.send(HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        long size = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (head.statusCode() != 200 || size <= 0) {
+            // Endpoints without HEAD: a one-byte range reveals the size in Content-Range
+            HttpResponse<Void> probe = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=0-0").build(),
+                    HttpResponse.BodyHandlers.discarding());
+            size = probe.headers().firstValue("Content-Range")
+                    .map(v -> Long.parseLong(v.substring(v.indexOf('/') + 1).trim()))
+                    .orElseThrow(() -> new IOException("Cannot determine size of " + uri));
+        }
+        return size;
+    }
+
+    private void report(double seconds) {
+        long requests = completed.sum();
+        System.out.printf("completed   %d requests in %.1fs (%.1f req/s)%n", requests, seconds, requests / seconds);
+        System.out.printf("throughput  %.1f MB/s%n", bytes.sum() / seconds / (1024 * 1024));
+        System.out.printf("latency     p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n",
+                percentile(0.50), percentile(0.90), percentile(0.99), percentile(1.0));
+        System.out.println("responses   " + new TreeMap<>(outcomes));
+    }
+
+    private long percentile(double p) {
+        long total = completed.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * p));
+        long seen = 0;
+        for (int ms = 0; ms <= MAX_LATENCY_MS; ms++) {
+            seen += latencies.get(ms);
+            if (seen >= rank) {
+                return ms;
+            }
+        }
+        return MAX_LATENCY_MS;
+    }
+}
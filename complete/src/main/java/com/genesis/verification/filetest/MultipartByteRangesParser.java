@@ -0,0 +1,326 @@
+package com.genesis.verification.filetest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Incremental parser for multipart/byteranges responses.
+ *
+ * The response is read in fixed-size chunks and each part body is written straight to
+ * its Content-Range offset in the output channel, so heap usage stays at roughly one
+ * chunk regardless of the response size. Works on saved captures and on live streams.
+ */
+public final class MultipartByteRangesParser {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // Part header blocks (and the preamble boundary line) must fit into one buffer
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+
+    private final int chunkSize;
+
+    public MultipartByteRangesParser() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MultipartByteRangesParser(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * One reconstructed part. {@code start}/{@code end} are -1 when the part carried
+     * no Content-Range; such parts are appended after the previous one.
+     */
+    public record Part(long start, long end, long totalSize, String contentType, long offset, long length) { }
+
+    public List<Part> parse(InputStream in, String boundary, FileChannel out) throws IOException {
+        return parse(Channels.newChannel(in), boundary, out);
+    }
+
+    /**
+     * Parses the response from {@code in} and writes every part body to {@code out}.
+     *
+     * @param boundary the boundary from the Content-Type header, or {@code null} to take it
+     *                 from the first delimiter line of the body
+     */
+    public List<Part> parse(ReadableByteChannel in, String boundary, FileChannel out) throws IOException {
+        Reader reader = new Reader(in, ByteBuffer.allocate(chunkSize));
+
+        String actualBoundary = readFirstBoundary(reader, boundary);
+        byte[] delimiter = ("--" + actualBoundary).getBytes(StandardCharsets.ISO_8859_1);
+        BytePattern pattern = new BytePattern(delimiter);
+
+        List<Part> parts = new ArrayList<>();
+        long appendOffset = 0;
+
+        while (true) {
+            Part header = readPartHeaders(reader);
+            long offset = header.start() >= 0 ? header.start() : appendOffset;
+            long expected = header.start() >= 0 ? header.end() - header.start() + 1 : -1;
+            long written = copyBody(reader, pattern, out, offset, expected);
+
+            if (expected >= 0 && written != expected) {
+                throw new IOException("Part bytes " + header.start() + "-" + header.end()
+                        + " has " + written + " bytes, expected " + expected);
+            }
+
+            parts.add(new Part(header.start(), header.end(), header.totalSize(), header.contentType(), offset, written));
+            appendOffset = offset + written;
+
+            // Right after the delimiter: "--" closes the multipart, anything else is padding up to CRLF
+            if (!reader.ensure(2)) {
+                break;
+            }
+            ByteBuffer buf = reader.buf;
+            if (buf.get(buf.position()) == DASH && buf.get(buf.position() + 1) == DASH) {
+                break;
+            }
+            reader.readLine();
+        }
+        return parts;
+    }
+
+    private String readFirstBoundary(Reader reader, String boundary) throws IOException {
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IllegalStateException("Boundary not found in response");
+            }
+            if (!line.startsWith("--")) {
+                continue;  // preamble
+            }
+            String candidate = line.substring(2).stripTrailing();
+            if (boundary == null) {
+                return candidate;
+            }
+            if (candidate.equals(boundary)) {
+                return boundary;
+            }
+        }
+    }
+
+    private Part readPartHeaders(Reader reader) throws IOException {
+        long start = -1;
+        long end = -1;
+        long total = -1;
+        String contentType = null;
+
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-type")) {
+                contentType = value;
+            } else if (name.equals("content-range")) {
+                long[] range = parseContentRange(value);
+                start = range[0];
+                end = range[1];
+                total = range[2];
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Unexpected end of stream in part headers");
+        }
+        return new Part(start, end, total, contentType, -1, -1);
+    }
+
+    // "bytes 0-499/1234" or "bytes 0-499/*"
+    static long[] parseContentRange(String value) throws IOException {
+        String v = value.trim();
+        if (!v.regionMatches(true, 0, "bytes ", 0, 6)) {
+            throw new IOException("Unsupported Content-Range: " + value);
+        }
+        int dash = v.indexOf('-', 6);
+        int slash = v.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) {
+            throw new IOException("Malformed Content-Range: " + value);
+        }
+        try {
+            long start = Long.parseLong(v.substring(6, dash).trim());
+            long end = Long.parseLong(v.substring(dash + 1, slash).trim());
+            String totalStr = v.substring(slash + 1).trim();
+            long total = totalStr.equals("*") ? -1 : Long.parseLong(totalStr);
+            if (start < 0 || end < start) {
+                throw new IOException("Invalid Content-Range: " + value);
+            }
+            return new long[] { start, end, total };
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Range: " + value, e);
+        }
+    }
+
+    /**
+     * Copies body bytes up to the next delimiter and consumes the delimiter itself.
+     * The CRLF in front of the delimiter belongs to it, but is optional to stay compatible
+     * with writers that omit it after the last part; a known {@code expected} length decides
+     * whether a trailing CRLF is body data or delimiter.
+     */
+    private long copyBody(Reader reader, BytePattern pattern, FileChannel out, long offset, long expected) throws IOException {
+        ByteBuffer buf = reader.buf;
+        byte[] array = buf.array();
+        int keep = pattern.length() + 1;  // possible delimiter prefix plus its CRLF
+        long written = 0;
+
+        while (true) {
+            int pos = buf.position();
+            int limit = buf.limit();
+            int match = pattern.indexOf(array, pos, limit);
+            if (match >= 0) {
+                int bodyEnd = match;
+                boolean crlf = bodyEnd - pos >= 2 && array[bodyEnd - 2] == CR && array[bodyEnd - 1] == LF;
+                if (crlf && (expected < 0 || written + (bodyEnd - pos) - 2 == expected)) {
+                    bodyEnd -= 2;
+                }
+                written += writeFully(out, buf, bodyEnd, offset + written);
+                buf.position(match + pattern.length());
+                return written;
+            }
+
+            int safe = limit - keep;
+            if (safe > pos) {
+                written += writeFully(out, buf, safe, offset + written);
+            }
+            if (!reader.fill()) {
+                throw new EOFException("Unexpected end of stream in part body at offset " + (offset + written));
+            }
+        }
+    }
+
+    // Writes buf[position, end) at the given file position and advances buf to end
+    private static long writeFully(FileChannel out, ByteBuffer buf, int end, long position) throws IOException {
+        int savedLimit = buf.limit();
+        buf.limit(end);
+        long n = 0;
+        while (buf.hasRemaining()) {
+            n += out.write(buf, position + n);
+        }
+        buf.limit(savedLimit);
+        return n;
+    }
+
+    /**
+     * Read-side buffer. Holds unconsumed bytes in [position, limit).
+     */
+    private static final class Reader {
+        private final ReadableByteChannel in;
+        private final ByteBuffer buf;
+        private boolean eof;
+
+        Reader(ReadableByteChannel in, ByteBuffer buf) {
+            this.in = in;
+            this.buf = buf;
+            buf.limit(0);
+        }
+
+        /** Compacts and reads more data. Returns false if nothing more could be read. */
+        boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            buf.compact();
+            if (!buf.hasRemaining()) {
+                buf.flip();
+                throw new IOException("Multipart header line exceeds buffer size " + buf.capacity());
+            }
+            int n = in.read(buf);
+            buf.flip();
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        boolean ensure(int bytes) throws IOException {
+            while (buf.remaining() < bytes) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the next line without its terminator, or null at end of stream. */
+        String readLine() throws IOException {
+            int scanFrom = buf.position();
+            while (true) {
+                byte[] array = buf.array();
+                for (int i = scanFrom; i < buf.limit(); i++) {
+                    if (array[i] == LF) {
+                        int start = buf.position();
+                        int end = (i > start && array[i - 1] == CR) ? i - 1 : i;
+                        String line = new String(array, start, end - start, StandardCharsets.ISO_8859_1);
+                        buf.position(i + 1);
+                        return line;
+                    }
+                }
+                int scanned = buf.limit() - buf.position();
+                if (!fill()) {
+                    if (buf.hasRemaining()) {
+                        String line = new String(array, buf.position(), buf.remaining(), StandardCharsets.ISO_8859_1);
+                        buf.position(buf.limit());
+                        return line;
+                    }
+                    return null;
+                }
+                scanFrom = buf.position() + scanned;
+            }
+        }
+    }
+
+    /**
+     * Boyer-Moore-Horspool search over a byte array.
+     */
+    static final class BytePattern {
+        private final byte[] pattern;
+        private final int[] shift = new int[256];
+
+        BytePattern(byte[] pattern) {
+            this.pattern = pattern;
+            int m = pattern.length;
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                shift[pattern[i] & 0xFF] = m - 1 - i;
+            }
+        }
+
+        int length() {
+            return pattern.length;
+        }
+
+        int indexOf(byte[] data, int from, int to) {
+            int m = pattern.length;
+            int last = m - 1;
+            int i = from;
+            while (i <= to - m) {
+                int j = last;
+                while (data[i + j] == pattern[j]) {
+                    if (j == 0) {
+                        return i;
+                    }
+                    j--;
+                }
+                i += shift[data[i + last] & 0xFF];
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.genesis.verification.filetest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the framing of one {@code multipart/byteranges} body: part headers, the CRLF after
+ * each part and the closing delimiter.
+ *
+ * The boundary and Content-Type lines are encoded once per response. Per part only the
+ * Content-Range numbers are written, as ASCII digits, into a reused array, so framing a part
+ * allocates nothing and takes a single write. Not thread-safe: one writer per response.
+ */
+public class MultipartFrameWriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    // Three longs of up to 19 digits, "-", "/" and the blank line
+    private static final int MAX_RANGE_LENGTH = 3 * 19 + 2 + 4;
+
+    private final String boundary;
+    private final byte[] header;  // prefix up to "Content-Range: bytes ", then room for the numbers
+    private final int prefixLength;
+    private final byte[] close;
+
+    public MultipartFrameWriter(String boundary, String contentType) {
+        this.boundary = boundary;
+        byte[] prefix = ("--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: bytes ")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        this.prefixLength = prefix.length;
+        this.header = new byte[prefix.length + MAX_RANGE_LENGTH];
+        System.arraycopy(prefix, 0, header, 0, prefix.length);
+        this.close = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** A boundary unique enough for one response; no part body is scanned for it. */
+    public static String newBoundary(String prefix) {
+        return prefix + System.nanoTime();
+    }
+
+    /** Value of the response Content-Type header. */
+    public String contentType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    public void writePartHeader(OutputStream out, ByteRange part, long totalSize) throws IOException {
+        int pos = writeDigits(header, prefixLength, part.start());
+        header[pos++] = '-';
+        pos = writeDigits(header, pos, part.end());
+        header[pos++] = '/';
+        pos = writeDigits(header, pos, totalSize);
+        header[pos++] = '\r';
+        header[pos++] = '\n';
+        header[pos++] = '\r';
+        header[pos++] = '\n';
+        out.write(header, 0, pos);
+    }
+
+    public void writePartEnd(OutputStream out) throws IOException {
+        out.write(CRLF);
+    }
+
+    public void writeClose(OutputStream out) throws IOException {
+        out.write(close);
+    }
+
+    // Non-negative value as ASCII at pos; returns the position after the last digit
+    static int writeDigits(byte[] buf, int pos, long value) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,291 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+/**
+ * Streams a request body into S3 with a multipart upload, without touching local disk.
+ *
+ * The calling thread reads the body into part-sized buffers. Each full buffer is uploaded on
+ * the executor while the next one is read, with at most {@code concurrency} parts in flight,
+ * so an upload holds at most concurrency + 1 parts in memory whatever its size. Buffers of the
+ * configured part size are recycled between uploads.
+ *
+ * Every part carries its CRC32C, which S3 verifies, and the whole body is hashed with SHA-256
+ * as it is read. Bodies shorter than one part go up with a single PutObject. A failed read
+ * (the client went away, or sent less than its Content-Length) or a failed part aborts the
+ * multipart upload once the parts in flight have settled, so no parts are left behind.
+ */
+public class MultipartUploader {
+
+    private static final Logger log = LoggerFactory.getLogger(MultipartUploader.class);
+
+    /** S3's limit on parts per upload. */
+    static final int MAX_PARTS = 10_000;
+
+    public record Result(String eTag, long size, int parts, String sha256) { }
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final int partSize;
+    private final int concurrency;
+    private final BlockingQueue<byte[]> idle;
+
+    public MultipartUploader(S3Client s3Client, ExecutorService executor, int partSize, int concurrency, int maxRetained) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxRetained));
+    }
+
+    /**
+     * Uploads {@code body} to {@code key}. {@code contentLength} is -1 if unknown; if known,
+     * a body that ends early fails with {@link EOFException}. Read failures are thrown as
+     * they are, S3 failures as the SDK's exceptions; either way nothing is stored.
+     */
+    public Result upload(String bucket, String key, String contentType, long contentLength, InputStream body) throws IOException {
+        int size = partSize(contentLength);
+        MessageDigest sha256 = sha256();
+
+        byte[] buf = acquire(size);
+        int n = readPart(body, buf, sha256);
+        if (n < size) {
+            try {
+                checkLength(n, contentLength);
+                String crc = crc32c(buf, n);
+                PutObjectResponse put = s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                        .checksumCRC32C(crc)
+                        .build(), requestBody(buf, n));
+                return new Result(put.eTag(), n, 1, Base64.getEncoder().encodeToString(sha256.digest()));
+            } finally {
+                release(buf);
+            }
+        }
+
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                .build()).uploadId();
+        Semaphore window = new Semaphore(concurrency);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        long total = n;
+        try {
+            while (n > 0) {
+                int partNumber = parts.size() + 1;
+                if (partNumber > MAX_PARTS) {
+                    release(buf);
+                    throw new IOException("Body of " + key + " needs more than " + MAX_PARTS + " parts of " + size + " bytes");
+                }
+                acquire(window, buf);
+                if (failure.get() != null) {
+                    window.release();
+                    release(buf);
+                    rethrow(failure.get());
+                }
+
+                byte[] part = buf;
+                int length = n;
+                parts.add(CompletableFuture.supplyAsync(() -> uploadPart(bucket, key, uploadId, partNumber, part, length), executor)
+                        .whenComplete((done, error) -> {
+                            if (error != null) {
+                                failure.compareAndSet(null, error);
+                            }
+                            release(part);
+                            window.release();
+                        }));
+                if (n < size) {
+                    break;  // that was the short last part
+                }
+                buf = acquire(size);
+                n = readPart(body, buf, sha256);
+                total += n;
+                if (n == 0) {
+                    release(buf);
+                }
+            }
+            checkLength(total, contentLength);
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(join(part));
+            }
+            CompleteMultipartUploadResponse done = s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+            return new Result(done.eTag(), total, completed.size(), Base64.getEncoder().encodeToString(sha256.digest()));
+        } catch (IOException | RuntimeException e) {
+            abort(bucket, key, uploadId, parts, e);
+            throw e;
+        }
+    }
+
+    private int partSize(long contentLength) {
+        if (contentLength <= (long) partSize * MAX_PARTS) {
+            return partSize;
+        }
+        long needed = (contentLength + MAX_PARTS - 1) / MAX_PARTS;
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Body of " + contentLength + " bytes is too large");
+        }
+        return (int) needed;
+    }
+
+    private CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, byte[] buf, int length) {
+        String crc = crc32c(buf, length);
+        UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length)
+                .checksumAlgorithm(ChecksumAlgorithm.CRC32_C)
+                .checksumCRC32C(crc)
+                .build(), requestBody(buf, length));
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).checksumCRC32C(crc).build();
+    }
+
+    // Reads the buffer straight from the array, again on a retry; no copy
+    private static RequestBody requestBody(byte[] buf, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buf, 0, length), length,
+                "application/octet-stream");
+    }
+
+    // Parts in flight may still land after an abort, so wait for them first
+    private void abort(String bucket, String key, String uploadId, List<CompletableFuture<CompletedPart>> parts, Exception cause) {
+        log.info("Aborting upload of {}: {}", key, cause.toString());
+        CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (RuntimeException e) {
+            // A lifecycle rule for incomplete uploads has to clean up now
+            log.warn("Aborting multipart upload {} of {} failed", uploadId, key, e);
+            cause.addSuppressed(e);
+        }
+    }
+
+    /** Fills {@code buf} unless the body ends first; returns the bytes read. */
+    private static int readPart(InputStream body, byte[] buf, MessageDigest digest) throws IOException {
+        int filled = 0;
+        while (filled < buf.length) {
+            int n = body.read(buf, filled, buf.length - filled);
+            if (n < 0) {
+                break;
+            }
+            digest.update(buf, filled, n);
+            filled += n;
+        }
+        return filled;
+    }
+
+    private static void checkLength(long read, long contentLength) throws EOFException {
+        if (contentLength >= 0 && read != contentLength) {
+            throw new EOFException("Body ended after " + read + " of " + contentLength + " bytes");
+        }
+    }
+
+    private void acquire(Semaphore window, byte[] pending) throws InterruptedIOException {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(pending);
+            throw new InterruptedIOException("Interrupted waiting for a part upload");
+        }
+    }
+
+    private byte[] acquire(int size) {
+        byte[] buf = size == partSize ? idle.poll() : null;
+        return buf != null ? buf : new byte[size];
+    }
+
+    private void release(byte[] buf) {
+        if (buf.length == partSize) {
+            idle.offer(buf);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            rethrow(e.getCause());
+            throw e;
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws IOException {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof RuntimeException r) {
+            throw r;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+    }
+
+    private static String crc32c(byte[] buf, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buf, 0, length);
+        int value = (int) crc.getValue();
+        return Base64.getEncoder().encodeToString(new byte[] {
+                (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
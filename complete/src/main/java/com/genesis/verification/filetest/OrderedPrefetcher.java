@@ -0,0 +1,216 @@
+package com.genesis.verification.filetest;
+
+import software.amazon.awssdk.http.Abortable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches a list of items (typically byte ranges) concurrently and hands their bodies to a
+ * consumer strictly in list order.
+ *
+ * Up to {@code window} items are in flight at once, the head included. Each fetch reads its
+ * body into pooled buffers and queues at most {@code buffersPerPart} of them, so memory per
+ * call is bounded by window x buffersPerPart x buffer size however large the parts are. The
+ * consumer starts on the head item as soon as its first buffer arrives.
+ */
+public class OrderedPrefetcher {
+
+    @FunctionalInterface
+    public interface Opener<T> {
+        InputStream open(T item) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface PartConsumer<T> {
+        void accept(T item, InputStream body) throws IOException;
+    }
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ExecutorService executor;
+    private final DirectBufferPool pool;
+    private final int window;
+    private final int buffersPerPart;
+
+    public OrderedPrefetcher(ExecutorService executor, DirectBufferPool pool, int window, int buffersPerPart) {
+        this.executor = executor;
+        this.pool = pool;
+        this.window = Math.max(1, window);
+        this.buffersPerPart = Math.max(1, buffersPerPart);
+    }
+
+    public <T> void run(List<T> items, Opener<T> opener, PartConsumer<T> consumer) throws IOException {
+        Deque<Fetch<T>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                while (next < items.size() && next < i + window) {
+                    inFlight.addLast(start(items.get(next++), opener));
+                }
+                Fetch<T> head = inFlight.removeFirst();
+                try (PartStream body = head.body) {
+                    consumer.accept(head.item, body);
+                } finally {
+                    head.cancel();
+                }
+            }
+        } finally {
+            for (Fetch<T> fetch : inFlight) {
+                fetch.cancel();
+            }
+        }
+    }
+
+    private <T> Fetch<T> start(T item, Opener<T> opener) {
+        Fetch<T> fetch = new Fetch<>(item, new PartStream(new ArrayBlockingQueue<>(buffersPerPart + 1)));
+        fetch.task = executor.submit(() -> fetch.produce(opener));
+        return fetch;
+    }
+
+    private final class Fetch<T> {
+        private final T item;
+        private final PartStream body;
+        private volatile Future<?> task;
+        private volatile InputStream upstream;
+        private volatile boolean cancelled;
+
+        Fetch(T item, PartStream body) {
+            this.item = item;
+            this.body = body;
+        }
+
+        void produce(Opener<T> opener) {
+            ByteBuffer buf = null;
+            try {
+                // The upstream is closed before END is queued, so the window also bounds open connections
+                try (InputStream in = opener.open(item)) {
+                    upstream = in;
+                    ReadableByteChannel channel = Channels.newChannel(in);
+                    while (!cancelled) {
+                        buf = pool.acquire();
+                        int n = 0;
+                        while (buf.hasRemaining() && (n = channel.read(buf)) >= 0) {
+                            // fill the whole buffer before handing it over
+                        }
+                        buf.flip();
+                        if (buf.hasRemaining()) {
+                            body.queue.put(buf);
+                            buf = null;
+                        }
+                        if (n < 0) {
+                            break;
+                        }
+                    }
+                }
+                body.queue.put(END);
+            } catch (Exception e) {
+                body.failure = e;
+                body.queue.offer(END);
+            } finally {
+                pool.release(buf);
+            }
+        }
+
+        /** Stops the fetch and returns all queued buffers to the pool. */
+        void cancel() {
+            cancelled = true;
+            InputStream in = upstream;
+            if (in instanceof Abortable abortable) {
+                abortable.abort();  // don't drain the rest of an S3 body to reuse the connection
+            }
+            Future<?> t = task;
+            if (t != null) {
+                t.cancel(true);
+            }
+            body.releaseAll();
+        }
+    }
+
+    /** Consumer side of one fetch: reads the queued buffers in order. */
+    private final class PartStream extends InputStream {
+        private final BlockingQueue<ByteBuffer> queue;
+        private volatile Exception failure;
+        private ByteBuffer current;
+        private boolean done;
+
+        PartStream(BlockingQueue<ByteBuffer> queue) {
+            this.queue = queue;
+        }
+
+        private boolean advance() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (done) {
+                    return false;
+                }
+                if (current != null) {
+                    pool.release(current);
+                    current = null;
+                }
+                ByteBuffer next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for prefetched data");
+                }
+                if (next == END) {
+                    done = true;
+                    if (failure != null) {
+                        throw failure instanceof IOException io ? io : new IOException("Prefetch failed", failure);
+                    }
+                    return false;
+                }
+                current = next;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return advance() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        void releaseAll() {
+            ByteBuffer buf;
+            while ((buf = queue.poll()) != null) {
+                if (buf != END) {
+                    pool.release(buf);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                pool.release(current);
+                current = null;
+            }
+            done = true;
+        }
+    }
+}
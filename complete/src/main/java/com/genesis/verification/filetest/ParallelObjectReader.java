@@ -0,0 +1,95 @@
+package com.genesis.verification.filetest;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a whole S3 object over several connections and writes it in order.
+ *
+ * Objects uploaded in parts (ETag {@code "<md5>-<parts>"}) are fetched by part number with
+ * checksum mode enabled, so S3 validates every part against its stored checksum; other
+ * objects are fetched as {@code partSize} ranges. The prefetcher keeps {@code window}
+ * parts in flight with a part's worth of buffers each, and at most {@code maxDownloads}
+ * objects are read this way at once to bound that memory.
+ */
+public class ParallelObjectReader {
+
+    private static final Pattern MULTIPART_ETAG = Pattern.compile("^(?:W/)?\"?[0-9a-fA-F]+-(\\d+)\"?$");
+
+    private final S3Client s3Client;
+    private final OrderedPrefetcher prefetcher;
+    private final long partSize;
+    private final Semaphore downloads;
+
+    public ParallelObjectReader(S3Client s3Client, OrderedPrefetcher prefetcher, long partSize, int maxDownloads) {
+        this.s3Client = s3Client;
+        this.prefetcher = prefetcher;
+        this.partSize = partSize;
+        this.downloads = new Semaphore(maxDownloads);
+    }
+
+    /**
+     * Writes the whole object to {@code out}, or returns {@code false} without writing
+     * anything if {@code maxDownloads} objects are already being read in parallel.
+     */
+    public boolean tryWrite(String bucket, String key, String eTag, long size, OutputStream out) throws IOException {
+        if (!downloads.tryAcquire()) {
+            return false;
+        }
+        try {
+            long[] written = {0};
+            prefetcher.run(plan(bucket, key, eTag, size), s3Client::getObject,
+                    (part, in) -> written[0] += in.transferTo(out));
+            if (written[0] != size) {
+                throw new IOException(key + " returned " + written[0] + " bytes, expected " + size);
+            }
+            return true;
+        } finally {
+            downloads.release();
+        }
+    }
+
+    List<GetObjectRequest> plan(String bucket, String key, String eTag, long size) {
+        List<GetObjectRequest> parts = new ArrayList<>();
+        int partCount = partCount(eTag);
+        // Parts much larger than the buffer budget would stall their fetch; ranges keep it busy
+        if (partCount > 1 && size / partCount <= 2 * partSize) {
+            for (int part = 1; part <= partCount; part++) {
+                parts.add(GetObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .ifMatch(eTag)
+                        .partNumber(part)
+                        .checksumMode(ChecksumMode.ENABLED)
+                        .build());
+            }
+            return parts;
+        }
+        for (long[] range : RangeDownloader.split(size, partSize)) {
+            parts.add(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .ifMatch(eTag)
+                    .range(new ByteRange(range[0], range[1]).toRangeHeader())
+                    .build());
+        }
+        return parts;
+    }
+
+    static int partCount(String eTag) {
+        if (eTag == null) {
+            return 0;
+        }
+        Matcher m = MULTIPART_ETAG.matcher(eTag.trim());
+        return m.matches() ? Integer.parseInt(m.group(1)) : 0;
+    }
+}
@@ -0,0 +1,182 @@
+package com.genesis.verification.filetest;
+
+import org.springframework.http.HttpRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the ranges of a Range header into the parts of the response and the upstream
+ * reads that produce them.
+ *
+ * Ranges are resolved against the resource size and unsatisfiable ones dropped; the rest are
+ * the parts, exactly as and in the order the client asked for them. Reads are planned over
+ * the sorted union of the parts: parts that overlap or are separated by at most
+ * {@code coalesceGap} bytes fall into one span, read once, whatever order the client asked
+ * for them in. A span whose parts the client wants one after the other, ascending and
+ * disjoint, is streamed, its gap bytes skipped. Any other span is buffered, so its parts
+ * can be cut from memory whenever they are due, as long as the buffered spans of one
+ * request fit in {@code maxBuffer} bytes; beyond that a span is read once per ascending run
+ * of its parts instead. Reads are issued in the order their first part is due.
+ *
+ * Sets RFC 9110, section 14.2 calls out as abusive are rejected rather than rewritten: more
+ * than {@code maxRanges} ranges, or overlapping ranges that add up to more bytes than the
+ * resource has.
+ */
+public class RangePlanner {
+
+    /**
+     * One upstream read. A streamed read serves its parts in the order given, ascending and
+     * disjoint; a buffered one is read whole into memory and its parts are cut from it.
+     */
+    public record Fetch(ByteRange range, List<ByteRange> parts, boolean buffered) { }
+
+    /**
+     * @param parts   parts to send, in the client's order; empty if nothing is satisfiable
+     * @param fetches upstream reads covering all parts, each read once, in the order needed
+     * @param sources for each part, the index of the fetch it is cut from
+     */
+    public record Plan(List<ByteRange> parts, List<Fetch> fetches, List<Integer> sources) {
+
+        public boolean isSatisfiable() {
+            return !parts.isEmpty();
+        }
+    }
+
+    /** Thrown when a request asks for more ranges than the planner accepts. */
+    public static class TooManyRangesException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        public TooManyRangesException(int count, int max) {
+            super("Too many ranges: " + count + " (max " + max + ")");
+        }
+    }
+
+    private final int maxRanges;
+    private final long coalesceGap;
+    private final long maxBuffer;
+
+    public RangePlanner(int maxRanges, long coalesceGap, long maxBuffer) {
+        this.maxRanges = maxRanges;
+        this.coalesceGap = coalesceGap;
+        this.maxBuffer = Math.min(maxBuffer, Integer.MAX_VALUE);  // one array per span
+    }
+
+    public Plan plan(List<HttpRange> ranges, long size) {
+        if (ranges.size() > maxRanges) {
+            throw new TooManyRangesException(ranges.size(), maxRanges);
+        }
+
+        List<ByteRange> parts = new ArrayList<>(ranges.size());
+        long requested = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(size);
+            long end = range.getRangeEnd(size);
+            if (start < size && start <= end) {
+                ByteRange part = new ByteRange(start, end);
+                parts.add(part);
+                requested += part.length();
+            }
+        }
+        // Disjoint parts never exceed the size, so only overlaps can get here
+        if (requested > size) {
+            throw new IllegalArgumentException("Overlapping ranges ask for " + requested + " of " + size + " bytes");
+        }
+
+        // Spans of the sorted union, each with its parts in the client's order
+        Integer[] byStart = new Integer[parts.size()];
+        for (int i = 0; i < byStart.length; i++) {
+            byStart[i] = i;
+        }
+        Arrays.sort(byStart, Comparator.comparingLong((Integer i) -> parts.get(i).start()));
+        List<List<Integer>> spans = new ArrayList<>();
+        long spanEnd = -1;
+        for (int i : byStart) {
+            ByteRange part = parts.get(i);
+            if (spans.isEmpty() || part.start() - spanEnd - 1 > coalesceGap) {
+                spans.add(new ArrayList<>());
+            }
+            spans.get(spans.size() - 1).add(i);
+            spanEnd = Math.max(spanEnd, part.end());
+        }
+
+        // Each span's reads, tagged with the first part each serves
+        Fetch[] readOf = new Fetch[parts.size()];
+        Map<Fetch, Integer> firstPart = new IdentityHashMap<>();
+        long buffered = 0;
+        for (List<Integer> span : spans) {
+            span.sort(null);
+            if (!streamable(parts, span)) {
+                ByteRange range = new ByteRange(span.stream().mapToLong(i -> parts.get(i).start()).min().orElseThrow(),
+                        span.stream().mapToLong(i -> parts.get(i).end()).max().orElseThrow());
+                if (buffered + range.length() <= maxBuffer) {
+                    buffered += range.length();
+                    addFetch(new Fetch(range, partsOf(parts, span), true), span, readOf, firstPart);
+                    continue;
+                }
+            }
+            // Runs of consecutive, ascending, disjoint parts, each streamed by its own read
+            List<Integer> run = new ArrayList<>();
+            for (int i : span) {
+                if (!run.isEmpty() && !follows(parts, run.get(run.size() - 1), i)) {
+                    addFetch(streamed(parts, run), run, readOf, firstPart);
+                    run = new ArrayList<>();
+                }
+                run.add(i);
+            }
+            addFetch(streamed(parts, run), run, readOf, firstPart);
+        }
+
+        // Issued in the order their first part is due
+        List<Fetch> fetches = new ArrayList<>(firstPart.keySet());
+        fetches.sort(Comparator.comparingInt(firstPart::get));
+        Map<Fetch, Integer> indexOf = new IdentityHashMap<>();
+        for (int f = 0; f < fetches.size(); f++) {
+            indexOf.put(fetches.get(f), f);
+        }
+        List<Integer> sources = new ArrayList<>(parts.size());
+        for (Fetch read : readOf) {
+            sources.add(indexOf.get(read));
+        }
+        return new Plan(List.copyOf(parts), List.copyOf(fetches), List.copyOf(sources));
+    }
+
+    // The client wants the span's parts one after the other, each after the end of the last
+    private boolean streamable(List<ByteRange> parts, List<Integer> span) {
+        for (int k = 1; k < span.size(); k++) {
+            if (!follows(parts, span.get(k - 1), span.get(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean follows(List<ByteRange> parts, int previous, int next) {
+        return next == previous + 1 && parts.get(next).start() > parts.get(previous).end()
+                && parts.get(next).start() - parts.get(previous).end() - 1 <= coalesceGap;
+    }
+
+    private static Fetch streamed(List<ByteRange> parts, List<Integer> run) {
+        ByteRange range = new ByteRange(parts.get(run.get(0)).start(), parts.get(run.get(run.size() - 1)).end());
+        return new Fetch(range, partsOf(parts, run), false);
+    }
+
+    private static List<ByteRange> partsOf(List<ByteRange> parts, List<Integer> indices) {
+        List<ByteRange> result = new ArrayList<>(indices.size());
+        for (int i : indices) {
+            result.add(parts.get(i));
+        }
+        return List.copyOf(result);
+    }
+
+    private static void addFetch(Fetch fetch, List<Integer> served, Fetch[] readOf, Map<Fetch, Integer> firstPart) {
+        for (int i : served) {
+            readOf[i] = fetch;
+        }
+        firstPart.put(fetch, served.get(0));
+    }
+}
@@ -0,0 +1,192 @@
+package com.genesis.verification.filetest;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Read-through cache of fixed-size S3 object blocks on local disk.
+ *
+ * Blocks are keyed by bucket, key, ETag and block index, so a new object version never
+ * hits stale data. A {@link DiskLruIndex} evicts least recently used blocks once the byte
+ * budget is exceeded and opens blocks while it still holds them, so a reader keeps its data
+ * even if the block is evicted mid-transfer. Concurrent misses on one block share a single
+ * upstream GET.
+ */
+public class S3BlockCache {
+
+    private static final Pattern BLOCK_FILE = Pattern.compile("[0-9a-f]{64}-\\d+\\.blk");
+
+    record BlockKey(String bucket, String key, String eTag, long index) { }
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final DiskLruIndex<BlockKey> index;
+
+    private final ConcurrentHashMap<BlockKey, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public S3BlockCache(S3Client s3Client, ExecutorService executor, Path directory, int blockSize, long maxBytes) throws IOException {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.blockSize = blockSize;
+        this.index = new DiskLruIndex<>(directory, maxBytes, "block", S3BlockCache::fileName, BLOCK_FILE);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** Blocks written from disk so far. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Blocks that had to be loaded (or waited for) before they could be written. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long cachedBytes() {
+        return index.cachedBytes();
+    }
+
+    /**
+     * Writes {@code range} of the object to {@code out}, loading missing blocks from S3.
+     * Up to {@code readAhead} further blocks of the range are loaded in the background while
+     * the current one is written.
+     */
+    public void write(String bucket, String key, String eTag, long objectSize, ByteRange range,
+                      WritableByteChannel out, int readAhead) throws IOException {
+        long first = range.start() / blockSize;
+        long last = range.end() / blockSize;
+
+        for (long i = first; i <= last; i++) {
+            for (long j = i + 1; j <= Math.min(last, i + readAhead); j++) {
+                loadAsync(new BlockKey(bucket, key, eTag, j), objectSize);
+            }
+            try (FileChannel block = open(new BlockKey(bucket, key, eTag, i), objectSize)) {
+                long blockStart = i * blockSize;
+                long from = Math.max(range.start(), blockStart) - blockStart;
+                long to = Math.min(range.end(), blockStart + block.size() - 1) - blockStart;
+                transfer(block, from, to - from + 1, out);
+            }
+        }
+    }
+
+    private static void transfer(FileChannel block, long position, long count, WritableByteChannel out) throws IOException {
+        long remaining = count;
+        long offset = position;
+        while (remaining > 0) {
+            long n = block.transferTo(offset, remaining, out);
+            if (n <= 0) {
+                throw new IOException("Cached block is shorter than expected");
+            }
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    /** Opens the cached block, loading it first if needed; the caller closes the channel. */
+    private FileChannel open(BlockKey blockKey, long objectSize) throws IOException {
+        FileChannel cached = index.open(blockKey);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        while (true) {
+            try {
+                load(blockKey, objectSize, false).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted loading block " + blockKey.index());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException("Loading block " + blockKey.index() + " failed", cause);
+            }
+            // Other loads may evict the block before it is opened; then it is loaded again
+            FileChannel loaded = index.open(blockKey);
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+    }
+
+    private void loadAsync(BlockKey blockKey, long objectSize) {
+        if (!index.contains(blockKey)) {
+            load(blockKey, objectSize, true);
+        }
+    }
+
+    /** Returns the in-flight load for the block, starting one if there is none. */
+    private CompletableFuture<Void> load(BlockKey blockKey, long objectSize, boolean async) {
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> existing = loading.putIfAbsent(blockKey, created);
+        if (existing != null) {
+            return existing;
+        }
+        Runnable task = () -> {
+            try {
+                fetch(blockKey, objectSize);
+                created.complete(null);
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                loading.remove(blockKey, created);
+            }
+        };
+        if (async) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+        return created;
+    }
+
+    private void fetch(BlockKey blockKey, long objectSize) throws IOException {
+        long start = blockKey.index() * blockSize;
+        long end = Math.min(start + blockSize, objectSize) - 1;
+        Path tmp = index.createTempFile();
+        try {
+            GetObjectRequest request = GetObjectRequest.builder()
+                    .bucket(blockKey.bucket())
+                    .key(blockKey.key())
+                    .ifMatch(blockKey.eTag())
+                    .range(new ByteRange(start, end).toRangeHeader())
+                    .build();
+            try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(request)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            long size = Files.size(tmp);
+            if (size != end - start + 1) {
+                throw new IOException("Block " + blockKey.index() + " of " + blockKey.key() + " has " + size + " bytes, expected " + (end - start + 1));
+            }
+            index.put(blockKey, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String fileName(BlockKey blockKey) {
+        return DiskLruIndex.digest(blockKey.bucket(), blockKey.key(), blockKey.eTag()) + "-" + blockKey.index() + ".blk";
+    }
+}
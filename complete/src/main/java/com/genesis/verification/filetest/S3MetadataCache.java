@@ -0,0 +1,151 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of S3 HEAD results.
+ *
+ * Entries younger than {@code ttl} are returned as is. Older entries are still returned
+ * immediately while a conditional HEAD (If-None-Match) revalidates them in the background,
+ * up to {@code maxStale}; beyond that the caller waits for a fresh HEAD. Callers that see
+ * a 412 on a GET with If-Match should {@link #invalidate} the key.
+ */
+public class S3MetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(S3MetadataCache.class);
+
+    public record ObjectMetadata(long contentLength, String eTag, String contentType, Instant lastModified) { }
+
+    private record Entry(ObjectMetadata metadata, long fetchedAt) { }
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final long ttlNanos;
+    private final long maxStaleNanos;
+    private final int maxEntries;
+
+    // Access-ordered LRU, guarded by "this"
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final ConcurrentHashMap<String, CompletableFuture<ObjectMetadata>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public S3MetadataCache(S3Client s3Client, ExecutorService executor, Duration ttl, Duration maxStale, int maxEntries) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.ttlNanos = ttl.toNanos();
+        this.maxStaleNanos = maxStale.toNanos();
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > S3MetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    public ObjectMetadata get(String bucket, String key) {
+        String cacheKey = bucket + '/' + key;
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(cacheKey);
+        }
+        if (entry != null) {
+            long age = System.nanoTime() - entry.fetchedAt();
+            if (age <= ttlNanos) {
+                hits.increment();
+                return entry.metadata();
+            }
+            if (age <= ttlNanos + maxStaleNanos) {
+                staleHits.increment();
+                Entry stale = entry;
+                executor.execute(() -> refresh(bucket, key, cacheKey, stale.metadata()));
+                return stale.metadata();
+            }
+        }
+        misses.increment();
+        try {
+            return refresh(bucket, key, cacheKey, null).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+    }
+
+    /** Lookups answered from a fresh entry. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Lookups answered from an expired entry while it was revalidated. */
+    public long staleHits() {
+        return staleHits.sum();
+    }
+
+    /** Lookups that waited for a HEAD. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    public synchronized void invalidate(String bucket, String key) {
+        entries.remove(bucket + '/' + key);
+    }
+
+    /** Fetches the metadata, sharing one HEAD between concurrent callers of the same key. */
+    private CompletableFuture<ObjectMetadata> refresh(String bucket, String key, String cacheKey, ObjectMetadata previous) {
+        CompletableFuture<ObjectMetadata> created = new CompletableFuture<>();
+        CompletableFuture<ObjectMetadata> existing = inFlight.putIfAbsent(cacheKey, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            created.complete(head(bucket, key, cacheKey, previous));
+        } catch (RuntimeException e) {
+            if (previous != null) {
+                log.warn("Revalidating metadata for {} failed", cacheKey, e);
+            }
+            created.completeExceptionally(e);
+        } finally {
+            inFlight.remove(cacheKey, created);
+        }
+        return created;
+    }
+
+    private ObjectMetadata head(String bucket, String key, String cacheKey, ObjectMetadata previous) {
+        HeadObjectRequest.Builder request = HeadObjectRequest.builder().bucket(bucket).key(key);
+        if (previous != null) {
+            request.ifNoneMatch(previous.eTag());
+        }
+        ObjectMetadata metadata;
+        try {
+            HeadObjectResponse head = s3Client.headObject(request.build());
+            metadata = new ObjectMetadata(head.contentLength(), head.eTag(), head.contentType(), head.lastModified());
+        } catch (S3Exception e) {
+            if (previous == null || e.statusCode() != 304) {
+                throw e;
+            }
+            metadata = previous;  // unchanged, just extend its lifetime
+        }
+        synchronized (this) {
+            entries.put(cacheKey, new Entry(metadata, System.nanoTime()));
+        }
+        return metadata;
+    }
+}
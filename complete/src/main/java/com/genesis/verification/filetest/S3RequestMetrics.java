@@ -0,0 +1,63 @@
+package com.genesis.verification.filetest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every S3 request attempt from sending it to receiving the response headers, as
+ * {@code s3.latency} tagged with the operation and the status code ({@code error} when no
+ * response came back). Streaming bodies are not included, so this is S3's time to first
+ * byte, whichever component issued the request.
+ */
+public class S3RequestMetrics implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Long> SENT_AT = new ExecutionAttribute<>("S3RequestMetrics.sentAt");
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public S3RequestMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes) {
+        attributes.putAttribute(SENT_AT, System.nanoTime());
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes) {
+        record(attributes, String.valueOf(context.httpResponse().statusCode()));
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes) {
+        // No response at all: the last attempt failed before S3 answered
+        if (context.httpResponse().isEmpty()) {
+            record(attributes, "error");
+        }
+    }
+
+    private void record(ExecutionAttributes attributes, String status) {
+        Long sentAt = attributes.getAttribute(SENT_AT);
+        if (sentAt == null || sentAt < 0) {
+            return;
+        }
+        attributes.putAttribute(SENT_AT, -1L);  // recorded
+        String operation = attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        timers.computeIfAbsent(operation + ' ' + status, k -> Timer.builder("s3.latency")
+                        .description("S3 request sent to response headers received")
+                        .tags("operation", String.valueOf(operation), "status", status)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(System.nanoTime() - sentAt, TimeUnit.NANOSECONDS);
+    }
+}
@@ -1,15 +1,19 @@
 package com.genesis.verification.filetest;
 
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
@@ -18,16 +22,25 @@ import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 @RestController
 @RequestMapping("/s3")
@@ -39,118 +52,382 @@ public class S3StreamingController {
     @Autowired
     private final S3Client s3Client;
 
+    private final OrderedPrefetcher prefetcher;
+
+    private final RangePlanner rangePlanner;
+
+    private final S3BlockCache blockCache;  // null when disabled
+
+    private final DownloadProperties.Cache cacheProperties;
+
+    private final S3MetadataCache metadataCache;
+
+    private final AsyncS3Streamer asyncStreamer;  // null unless download.s3.mode=async
+
+    private final ParallelObjectReader parallelReader;  // null when disabled
+
+    private final long parallelMinSize;
+
+    private final SequentialReadAhead readAhead;  // null when disabled
+
+    private final DownloadMetrics metrics;
+
+    private final CompressedVariantCache compression;  // null when disabled
+
+    private final MultipartUploader uploader;
+
+    private final SingleFlightFetcher singleFlight;  // null when disabled
+
+    private final BandwidthShaper shaper;  // null when disabled
+
     private static final String BUCKET = "mybucket-devl-us-east-1";
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+
 
     @Autowired
-    public S3StreamingController(S3Client s3Client) {
+    public S3StreamingController(S3Client s3Client, OrderedPrefetcher s3Prefetcher, RangePlanner rangePlanner,
+                                 ObjectProvider<S3BlockCache> blockCache, DownloadProperties properties,
+                                 S3MetadataCache metadataCache, ObjectProvider<AsyncS3Streamer> asyncStreamer,
+                                 ObjectProvider<ParallelObjectReader> parallelReader,
+                                 ObjectProvider<SequentialReadAhead> readAhead, DownloadMetrics metrics,
+                                 ObjectProvider<CompressedVariantCache> compression, MultipartUploader uploader,
+                                 ObjectProvider<SingleFlightFetcher> singleFlight, ObjectProvider<BandwidthShaper> shaper) {
         this.s3Client = s3Client;
+        this.prefetcher = s3Prefetcher;
+        this.rangePlanner = rangePlanner;
+        this.blockCache = blockCache.getIfAvailable();
+        this.cacheProperties = properties.getS3().getCache();
+        this.metadataCache = metadataCache;
+        this.asyncStreamer = asyncStreamer.getIfAvailable();
+        this.parallelReader = parallelReader.getIfAvailable();
+        this.parallelMinSize = properties.getS3().getParallel().getMinSize().toBytes();
+        this.readAhead = readAhead.getIfAvailable();
+        this.metrics = metrics;
+        this.compression = compression.getIfAvailable();
+        this.uploader = uploader;
+        this.singleFlight = singleFlight.getIfAvailable();
+        this.shaper = shaper.getIfAvailable();
+    }
+
+    /**
+     * Streams the raw request body to {@code key}: 201 with the S3 ETag and a SHA-256
+     * Repr-Digest of the body, 400 if the body could not be read in full (nothing is
+     * stored), 502 if S3 failed.
+     */
+    @PutMapping("/upload")
+    public ResponseEntity<Map<String, Object>> upload(@RequestParam String key, HttpServletRequest request) {
+        key = URLDecoder.decode(key, StandardCharsets.UTF_8);
+        try {
+            MultipartUploader.Result result = uploader.upload(BUCKET, key, request.getContentType(),
+                    request.getContentLengthLong(), request.getInputStream());
+            metadataCache.invalidate(BUCKET, key);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .eTag(result.eTag())
+                    .header("Repr-Digest", "sha-256=:" + result.sha256() + ":")
+                    .body(Map.of("key", key, "size", result.size(), "parts", result.parts(), "sha256", result.sha256()));
+        } catch (IOException e) {
+            log.info("Upload of {} not completed: {}", key, e.toString());
+            return ResponseEntity.badRequest().build();
+        } catch (SdkException e) {
+            log.warn("Upload of {} failed", key, e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
     }
 
     @GetMapping("/download")
     public ResponseEntity<StreamingResponseBody> download(
             @RequestParam String key,
-            @RequestHeader(value = "Range", required = false) String rangeHeader) {
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader HttpHeaders headers,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
 
+        long started = System.nanoTime();
         key = URLDecoder.decode(key, StandardCharsets.UTF_8);
 
-        // Get metadata
-        HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
-                .bucket(BUCKET)
-                .key(key)
-                .build());
+        // Get metadata (cached; GETs below use If-Match so a changed object is detected)
+        S3MetadataCache.ObjectMetadata head = metadataCache.get(BUCKET, key);
         long totalSize = head.contentLength();
         String eTag = head.eTag();
-        String contentType = detectContentType(key);
-
-        if (rangeHeader == null || rangeHeader.trim().isEmpty()) {
-            return fullDownload(key, totalSize, eTag, contentType);
-        }
+        Instant lastModified = head.lastModified();
+        String contentType = detectContentType(key, head.contentType());
 
-        List<HttpRange> ranges = parseRanges(rangeHeader);
-        if (ranges.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + totalSize)
+        // If-Match / If-None-Match / If-(Un)Modified-Since → 412 or 304, no S3 GET at all
+        HttpStatus precondition = ConditionalRequests.evaluate(headers, eTag, lastModified);
+        if (precondition != null) {
+            return ResponseEntity.status(precondition)
+                    .headers(h -> ConditionalRequests.setValidators(h, eTag, lastModified))
                     .build();
         }
 
-        if (ranges.size() == 1) {
-            return singleRangeDownload(key, ranges.get(0), totalSize, eTag, contentType);
+        BandwidthShaper.Ticket ticket = null;  // released by the shaped body, or below if building it fails
+        try {
+            // A stale If-Range gets the whole current object instead of mixing versions
+            if (rangeHeader == null || rangeHeader.trim().isEmpty()
+                    || !ConditionalRequests.rangeApplies(headers, eTag, lastModified)) {
+                ticket = admit(request, totalSize);
+                if (ticket == null && shaper != null) {
+                    return overloaded();
+                }
+                DownloadMetrics.Transfer transfer = metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.FULL, started);
+                boolean compressible = compression != null
+                        && compression.compressible(MediaType.parseMediaType(contentType), totalSize);
+                String coding = compressible ? compression.negotiate(headers.getFirst(HttpHeaders.ACCEPT_ENCODING)) : null;
+                if (coding != null) {
+                    return shaped(compressedDownload(key, totalSize, eTag, lastModified, contentType, coding, transfer), ticket);
+                }
+                ResponseEntity<StreamingResponseBody> full = fullDownload(key, totalSize, eTag, lastModified, contentType,
+                        compressible, transfer);
+                return asyncStreamer != null
+                        ? streamAsync(full, key, eTag, null, transfer, ticket, request, response)
+                        : shaped(full, ticket);
+            }
+
+            RangePlanner.Plan plan = planRanges(rangeHeader, totalSize);
+            if (!plan.isSatisfiable()) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + totalSize)
+                        .build();
+            }
+            metrics.ranges(DownloadMetrics.S3, plan.parts().size());
+
+            long bytes = 0;
+            for (ByteRange part : plan.parts()) {
+                bytes += part.length();
+            }
+            ticket = admit(request, bytes);
+            if (ticket == null && shaper != null) {
+                return overloaded();
+            }
+
+            if (plan.parts().size() == 1) {
+                ByteRange range = plan.parts().get(0);
+                DownloadMetrics.Transfer transfer = metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.SINGLE, started);
+                ResponseEntity<StreamingResponseBody> single = singleRangeDownload(key, range, totalSize, eTag, lastModified, contentType,
+                        clientId(request), transfer);
+                return asyncStreamer != null
+                        ? streamAsync(single, key, eTag, range, transfer, ticket, request, response)
+                        : shaped(single, ticket);
+            }
+
+            return shaped(multipartByteRanges(key, plan, totalSize, eTag, lastModified, contentType,
+                    metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.MULTIPART, started)), ticket);
+        } catch (IOException | RuntimeException e) {
+            if (ticket != null) {
+                ticket.close();
+            }
+            throw e;
         }
+    }
+
+    // Null without a shaper or if the outstanding-bytes budget is spent
+    private BandwidthShaper.Ticket admit(HttpServletRequest request, long bytes) {
+        return shaper != null ? shaper.admit(request, bytes) : null;
+    }
 
-        return multipartByteRanges(key, ranges, totalSize, eTag, contentType);
+    private ResponseEntity<StreamingResponseBody> overloaded() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(shaper.retryAfterSeconds()))
+                .build();
+    }
+
+    // The body's writes wait for tokens, and its bytes leave the budget as they are sent
+    private static ResponseEntity<StreamingResponseBody> shaped(ResponseEntity<StreamingResponseBody> entity,
+                                                                BandwidthShaper.Ticket ticket) {
+        if (ticket == null) {
+            return entity;
+        }
+        return ResponseEntity.status(entity.getStatusCode())
+                .headers(entity.getHeaders())
+                .body(BandwidthShaper.shape(ticket, entity.getBody()));
     }
 
-    // Full file: Parallel multipart via TransferManager (no loss, auto-validated)
-    private ResponseEntity<StreamingResponseBody> fullDownload(String key, long size, String eTag, String contentType) {
-        StreamingResponseBody body = out -> s3Client.getObject(
-                GetObjectRequest.builder().bucket(BUCKET).key(key).build(),
-                ResponseTransformer.toOutputStream(out)
-        );
+    // Full file, identity encoding; Vary tells caches a compressed variant exists
+    private ResponseEntity<StreamingResponseBody> fullDownload(String key, long size, String eTag, Instant lastModified, String contentType,
+                                                               boolean vary, DownloadMetrics.Transfer transfer) {
+        StreamingResponseBody body = invalidateOnMismatch(key, identityBody(key, size, eTag));
 
-        return ResponseEntity.ok()
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (vary) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response
                 .contentType(MediaType.parseMediaType(contentType))
                 .contentLength(size)
-                .header(HttpHeaders.ETAG, eTag)
+                .headers(h -> ConditionalRequests.setValidators(h, eTag, lastModified))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + Path.of(key).getFileName() + "\"")
+                .body(DownloadMetrics.meter(transfer, body));
+    }
+
+    // Full file, encoded: the cached variant from disk, else the identity body through the encoder.
+    // The length is only known for a cached variant.
+    private ResponseEntity<StreamingResponseBody> compressedDownload(String key, long size, String eTag, Instant lastModified,
+                                                                     String contentType, String coding,
+                                                                     DownloadMetrics.Transfer transfer) throws IOException {
+        String source = BUCKET + '/' + key;
+        CompressedVariantCache.Variant variant = compression.get(source, eTag, coding);
+        StreamingResponseBody body;
+        if (variant != null) {
+            body = out -> {
+                try (variant) {
+                    WritableByteChannel target = Channels.newChannel(out);
+                    for (long position = 0; position < variant.size(); ) {
+                        long n = variant.channel().transferTo(position, variant.size() - position, target);
+                        if (n <= 0) {
+                            throw new IOException("Compressed variant of " + source + " is shorter than expected");
+                        }
+                        position += n;
+                    }
+                }
+            };
+        } else {
+            StreamingResponseBody identity = identityBody(key, size, eTag);
+            body = out -> {
+                CompressedVariantCache.Encoder encoder = compression.encoder(source, eTag, coding, size, out);
+                try {
+                    identity.writeTo(encoder);
+                    encoder.finish();
+                } finally {
+                    encoder.close();
+                }
+            };
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (variant != null) {
+            response.contentLength(variant.size());
+        }
+        return response
+                .contentType(MediaType.parseMediaType(contentType))
+                .header(HttpHeaders.CONTENT_ENCODING, coding)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .headers(h -> ConditionalRequests.setValidators(h, ConditionalRequests.weak(eTag), lastModified))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + Path.of(key).getFileName() + "\"")
-                .body(body);
+                .body(DownloadMetrics.meter(transfer, invalidateOnMismatch(key, body)));
     }
 
-    // Single range: Async with size validation
-    private ResponseEntity<StreamingResponseBody> singleRangeDownload(String key, HttpRange range, long totalSize, String eTag, String contentType) {
-        long start = range.getRangeStart(totalSize);
-        long end = range.getRangeEnd(totalSize);
-        long length = end - start + 1;
+    // Block cache for small objects, parallel part GETs for large ones, else one (shared) GET
+    private StreamingResponseBody identityBody(String key, long size, String eTag) {
+        StreamingResponseBody single = singleFlight != null && size > 0
+                ? out -> writeShared(key, eTag, size, new ByteRange(0, size - 1), out)
+                : out -> s3Client.getObject(
+                        GetObjectRequest.builder().bucket(BUCKET).key(key).ifMatch(eTag).build(),
+                        ResponseTransformer.toOutputStream(out)
+                );
+        StreamingResponseBody body;
+        if (blockCache != null && size > 0 && size <= cacheProperties.getMaxObjectSize().toBytes()) {
+            body = out -> writeCached(key, eTag, size, new ByteRange(0, size - 1), out);
+        } else if (parallelReader != null && size >= parallelMinSize) {
+            body = out -> {
+                // Falls back to one GET while too many large objects are already being read
+                if (!parallelReader.tryWrite(BUCKET, key, eTag, size, out)) {
+                    single.writeTo(out);
+                }
+            };
+        } else {
+            body = single;
+        }
+        return body;
+    }
+
+    // Single range: read-ahead for sequential clients, else block cache or one (shared) ranged GET.
+    // Uncached GETs stream through the SDK's heap copy: the body arrives as an InputStream of heap
+    // bytes, so a pooled direct buffer would only add a copy in front of Tomcat's socket buffer.
+    private ResponseEntity<StreamingResponseBody> singleRangeDownload(String key, ByteRange range, long totalSize, String eTag, Instant lastModified, String contentType,
+                                                                      String client, DownloadMetrics.Transfer transfer) {
+        long start = range.start();
+        long end = range.end();
+        long length = range.length();
 
-        StreamingResponseBody body = out -> s3Client.getObject(
-                GetObjectRequest.builder()
-                        .bucket(BUCKET)
-                        .key(key)
-                        .range("bytes=" + start + "-" + end)
-                        .build(),
-                ResponseTransformer.toOutputStream(out)
-        );
+        StreamingResponseBody body = blockCache != null
+                ? out -> writeCached(key, eTag, totalSize, range, out)
+                : singleFlight != null
+                ? out -> writeShared(key, eTag, totalSize, range, out)
+                : out -> s3Client.getObject(
+                        GetObjectRequest.builder()
+                                .bucket(BUCKET)
+                                .key(key)
+                                .ifMatch(eTag)
+                                .range("bytes=" + start + "-" + end)
+                                .build(),
+                        ResponseTransformer.toOutputStream(out)
+                );
+        if (readAhead != null && asyncStreamer == null) {
+            StreamingResponseBody direct = body;
+            body = out -> {
+                InputStream prefetched = readAhead.open(BUCKET, key, eTag, totalSize, range, client);
+                if (prefetched == null) {
+                    direct.writeTo(out);
+                    return;
+                }
+                try (InputStream in = prefetched) {
+                    copyExactly(in, out, length);
+                }
+            };
+        }
+        body = invalidateOnMismatch(key, body);
 
         return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
                 .contentType(MediaType.parseMediaType(contentType))
                 .contentLength(length)
                 .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + totalSize)
+                .headers(h -> ConditionalRequests.setValidators(h, eTag, lastModified))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .body(body);
+                .body(DownloadMetrics.meter(transfer, body));
     }
 
-    // Multipart: Parallel per part (sequential assembly)
-    private ResponseEntity<StreamingResponseBody> multipartByteRanges(String key, List<HttpRange> ranges, long totalSize, String eTag, String contentType) {
-        String boundary = "S3_BOUNDARY_" + System.nanoTime();
+    // Multipart: one ranged GET per planned fetch, run concurrently within the prefetch window,
+    // parts written in the client's order; buffered fetches keep their bytes until their parts are due
+    private ResponseEntity<StreamingResponseBody> multipartByteRanges(String key, RangePlanner.Plan plan, long totalSize, String eTag, Instant lastModified, String contentType,
+                                                                      DownloadMetrics.Transfer transfer) {
+        MultipartFrameWriter frames = new MultipartFrameWriter(MultipartFrameWriter.newBoundary("S3_BOUNDARY_"), contentType);
 
         StreamingResponseBody body = out -> {
             try {
-                for (int i = 0; i < ranges.size(); i++) {
-                    HttpRange r = ranges.get(i);
-                    long start = r.getRangeStart(totalSize);
-                    long end = r.getRangeEnd(totalSize);
-
-                    // Multipart header
-                    out.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-                    out.write(("Content-Type: " + contentType + "\r\n").getBytes(StandardCharsets.UTF_8));
-                    out.write(("Content-Range: bytes " + start + "-" + end + "/" + totalSize + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-
-                    // Stream chunk (zero-copy)
-                    s3Client.getObject(
-                            GetObjectRequest.builder()
-                                    .bucket(BUCKET)
-                                    .key(key)
-                                    .range("bytes=" + start + "-" + end)
-                                    .build(),
-                            ResponseTransformer.toOutputStream(out)
-                    );
-
-                    if (i < ranges.size() - 1) {
-                        out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                if (blockCache != null) {
+                    // Cached blocks are local; read-ahead inside each part keeps S3 misses concurrent
+                    WritableByteChannel channel = Channels.newChannel(out);
+                    for (ByteRange part : plan.parts()) {
+                        frames.writePartHeader(out, part, totalSize);
+                        blockCache.write(BUCKET, key, eTag, totalSize, part, channel, cacheProperties.getReadAhead());
+                        frames.writePartEnd(out);
                     }
+                } else {
+                    byte[] buf = new byte[COPY_BUFFER_SIZE];  // one per response, not per part
+                    byte[][] kept = new byte[plan.fetches().size()][];
+                    int[] next = {0};
+                    List<Integer> order = IntStream.range(0, plan.fetches().size()).boxed().toList();
+                    prefetcher.run(order, f -> openRange(key, eTag, totalSize, plan.fetches().get(f).range()), (f, in) -> {
+                        RangePlanner.Fetch fetch = plan.fetches().get(f);
+                        if (fetch.buffered()) {
+                            kept[f] = in.readNBytes((int) fetch.range().length());
+                            if (kept[f].length != fetch.range().length()) {
+                                throw new EOFException("S3 body ended early for " + key);
+                            }
+                        }
+                        long position = fetch.range().start();
+                        // Every part due before this fetch's last one comes from it or an earlier fetch
+                        for (; next[0] < plan.parts().size() && plan.sources().get(next[0]) <= f; next[0]++) {
+                            ByteRange part = plan.parts().get(next[0]);
+                            int source = plan.sources().get(next[0]);
+                            frames.writePartHeader(out, part, totalSize);
+                            if (source == f && !fetch.buffered()) {
+                                // Skip the gap between coalesced parts
+                                in.skipNBytes(part.start() - position);
+                                copyExactly(in, out, part.length(), buf);
+                                position = part.end() + 1;
+                            } else {
+                                long offset = part.start() - plan.fetches().get(source).range().start();
+                                out.write(kept[source], (int) offset, (int) part.length());
+                            }
+                            frames.writePartEnd(out);
+                        }
+                    });
                 }
-                out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+                frames.writeClose(out);
             } catch (Exception e) {
                 log.error("Multipart failed for {}", key, e);
                 throw new RuntimeException(e);
@@ -158,21 +435,125 @@ public class S3StreamingController {
         };
 
         return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary)
+                .header(HttpHeaders.CONTENT_TYPE, frames.contentType())
+                .headers(h -> ConditionalRequests.setValidators(h, eTag, lastModified))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .body(body);  // No Content-Length — correct for multipart
+                .body(DownloadMetrics.meter(transfer, invalidateOnMismatch(key, body)));  // No Content-Length — correct for multipart
+    }
+
+    // Async mode: the entity's status and headers, with the body pushed by S3AsyncClient as the
+    // client drains it. The request thread returns at once; the block cache is not used, and
+    // the shaper only counts the bytes against its budget.
+    private ResponseEntity<StreamingResponseBody> streamAsync(ResponseEntity<StreamingResponseBody> entity, String key, String eTag,
+                                                              ByteRange range, DownloadMetrics.Transfer transfer,
+                                                              BandwidthShaper.Ticket ticket, HttpServletRequest request,
+                                                              HttpServletResponse response) throws IOException {
+        GetObjectRequest.Builder get = GetObjectRequest.builder().bucket(BUCKET).key(key).ifMatch(eTag);
+        if (range != null) {
+            get.range(range.toRangeHeader());
+        }
+        asyncStreamer.stream(get.build(), entity.getStatusCode(), entity.getHeaders(), request, response, transfer, error -> {
+            if (isPreconditionFailed(error)) {
+                log.info("{} changed during download, dropping cached metadata", key);
+                metadataCache.invalidate(BUCKET, key);
+            } else {
+                log.warn("Async download of {} failed", key, error);
+            }
+        });
+        if (ticket != null) {
+            ticket.closeWhenComplete(request.getAsyncContext());
+        }
+        return null;  // response handled
+    }
+
+    // Read-ahead streams are per client; the User-Agent separates clients behind one address
+    private static String clientId(HttpServletRequest request) {
+        return request.getRemoteAddr() + ' ' + request.getHeader(HttpHeaders.USER_AGENT);
+    }
+
+    // Served from local disk blocks with FileChannel.transferTo
+    private void writeCached(String key, String eTag, long totalSize, ByteRange range, OutputStream out) throws IOException {
+        blockCache.write(BUCKET, key, eTag, totalSize, range, Channels.newChannel(out), cacheProperties.getReadAhead());
+    }
+
+    // Concurrent requests for the same bytes share one GET
+    private void writeShared(String key, String eTag, long totalSize, ByteRange range, OutputStream out) throws IOException {
+        try (InputStream in = singleFlight.open(BUCKET, key, eTag, totalSize, range)) {
+            copyExactly(in, out, range.length());
+        }
     }
 
-    private List<HttpRange> parseRanges(String header) {
+    private InputStream openRange(String key, String eTag, long totalSize, ByteRange range) {
+        if (singleFlight != null) {
+            return singleFlight.open(BUCKET, key, eTag, totalSize, range);
+        }
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(BUCKET)
+                .key(key)
+                .ifMatch(eTag)
+                .range(range.toRangeHeader())
+                .build());
+    }
+
+    // A 412 on If-Match means the object changed after its metadata was cached
+    private StreamingResponseBody invalidateOnMismatch(String key, StreamingResponseBody body) {
+        return out -> {
+            try {
+                body.writeTo(out);
+            } catch (IOException | RuntimeException e) {
+                if (isPreconditionFailed(e)) {
+                    log.info("{} changed during download, dropping cached metadata", key);
+                    metadataCache.invalidate(BUCKET, key);
+                }
+                throw e;
+            }
+        };
+    }
+
+    private static boolean isPreconditionFailed(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof S3Exception s3 && s3.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void copyExactly(InputStream in, OutputStream out, long length) throws IOException {
+        copyExactly(in, out, length, new byte[COPY_BUFFER_SIZE]);
+    }
+
+    private static void copyExactly(InputStream in, OutputStream out, long length, byte[] buf) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                throw new IOException("Upstream ended " + remaining + " bytes early");
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private RangePlanner.Plan planRanges(String header, long totalSize) {
         try {
-            return HttpRange.parseRanges(header);
+            return rangePlanner.plan(HttpRange.parseRanges(header), totalSize);
         } catch (Exception e) {
-            return List.of();
+            log.debug("Rejected Range header {}: {}", header, e.getMessage());
+            return new RangePlanner.Plan(List.of(), List.of(), List.of());
         }
     }
 
-    private String detectContentType(String key) {
-        // Your existing logic
-        return "application/octet-stream";
+    // The type stored with the object, unless that is the generic default; else by file extension
+    private static String detectContentType(String key, String stored) {
+        if (stored != null && !stored.isBlank() && !stored.startsWith(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                && !stored.startsWith("binary/octet-stream")) {
+            try {
+                return MediaType.parseMediaType(stored).toString();
+            } catch (InvalidMediaTypeException e) {
+                log.debug("Ignoring Content-Type {} stored with {}", stored, key);
+            }
+        }
+        return MediaTypeFactory.getMediaType(key).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
     }
 }
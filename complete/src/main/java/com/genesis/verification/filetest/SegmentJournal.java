@@ -0,0 +1,192 @@
+package com.genesis.verification.filetest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk progress record for a segmented download, kept next to the output file.
+ *
+ * Layout: fixed header (magic, version, file size, segment size, segment count, ETag),
+ * then a bitmap of completed segments, then one CRC32C per segment. The journal is only
+ * reused when size, segment size and ETag all match the current source.
+ *
+ * Records are updated with small positional writes rather than a memory mapping, so the
+ * journal can be deleted as soon as the download finishes (mapped files stay locked on
+ * Windows until the mapping is garbage collected).
+ */
+final class SegmentJournal implements Closeable {
+
+    private static final int MAGIC = 0x534A524E;  // "SJRN"
+    private static final int VERSION = 1;
+    private static final int MAX_ETAG_BYTES = 256;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 2 + MAX_ETAG_BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int segmentCount;
+    private final byte[] bitmap;
+    private final int[] crcs;
+    private final boolean resumed;
+
+    private SegmentJournal(Path path, FileChannel channel, int segmentCount, byte[] bitmap, int[] crcs, boolean resumed) {
+        this.path = path;
+        this.channel = channel;
+        this.segmentCount = segmentCount;
+        this.bitmap = bitmap;
+        this.crcs = crcs;
+        this.resumed = resumed;
+    }
+
+    static Path pathFor(Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName() + ".journal");
+    }
+
+    /**
+     * Opens the journal at {@code path}, reusing its state if it describes the same source
+     * and segmentation, otherwise starting an empty one.
+     */
+    static SegmentJournal open(Path path, long fileSize, long segmentSize, int segmentCount, String eTag) throws IOException {
+        byte[] tag = eTag.getBytes(StandardCharsets.UTF_8);
+        if (tag.length > MAX_ETAG_BYTES) {
+            throw new IOException("ETag too long for journal: " + eTag);
+        }
+        int bitmapBytes = (segmentCount + 7) / 8;
+        long journalSize = HEADER_SIZE + bitmapBytes + 4L * segmentCount;
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            byte[] bitmap = new byte[bitmapBytes];
+            int[] crcs = new int[segmentCount];
+
+            if (channel.size() == journalSize) {
+                ByteBuffer existing = ByteBuffer.allocate((int) journalSize);
+                readFully(channel, existing, 0);
+                existing.flip();
+                if (matches(existing, fileSize, segmentSize, segmentCount, tag)) {
+                    existing.position(HEADER_SIZE);
+                    existing.get(bitmap);
+                    for (int i = 0; i < segmentCount; i++) {
+                        crcs[i] = existing.getInt();
+                    }
+                    return new SegmentJournal(path, channel, segmentCount, bitmap, crcs, true);
+                }
+            }
+
+            ByteBuffer fresh = ByteBuffer.allocate((int) journalSize);
+            fresh.putInt(MAGIC).putInt(VERSION).putLong(fileSize).putLong(segmentSize).putInt(segmentCount)
+                    .putShort((short) tag.length).put(tag);
+            fresh.clear();
+            channel.truncate(0);
+            writeFully(channel, fresh, 0);
+            channel.force(true);
+            return new SegmentJournal(path, channel, segmentCount, bitmap, crcs, false);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static boolean matches(ByteBuffer b, long fileSize, long segmentSize, int segmentCount, byte[] tag) {
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+            return false;
+        }
+        if (b.getLong() != fileSize || b.getLong() != segmentSize || b.getInt() != segmentCount) {
+            return false;
+        }
+        int tagLength = b.getShort();
+        if (tagLength != tag.length) {
+            return false;
+        }
+        for (byte t : tag) {
+            if (b.get() != t) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** True if this journal was loaded from a previous, compatible run. */
+    boolean resumed() {
+        return resumed;
+    }
+
+    synchronized boolean isComplete(int segment) {
+        return (bitmap[segment >> 3] & (1 << (segment & 7))) != 0;
+    }
+
+    synchronized int crc(int segment) {
+        return crcs[segment];
+    }
+
+    /** Segments currently marked complete. */
+    synchronized int completedCount() {
+        int n = 0;
+        for (byte b : bitmap) {
+            n += Integer.bitCount(b & 0xFF);
+        }
+        return n;
+    }
+
+    /** Records a verified segment. The CRC is written before the bit that makes it valid. */
+    synchronized void markComplete(int segment, int crc) throws IOException {
+        crcs[segment] = crc;
+        writeFully(channel, ByteBuffer.allocate(4).putInt(0, crc), crcOffset(segment));
+        bitmap[segment >> 3] |= (byte) (1 << (segment & 7));
+        writeBitmapByte(segment);
+    }
+
+    synchronized void markMissing(int segment) throws IOException {
+        bitmap[segment >> 3] &= (byte) ~(1 << (segment & 7));
+        writeBitmapByte(segment);
+    }
+
+    private void writeBitmapByte(int segment) throws IOException {
+        int index = segment >> 3;
+        writeFully(channel, ByteBuffer.wrap(bitmap, index, 1), HEADER_SIZE + index);
+    }
+
+    private long crcOffset(int segment) {
+        return HEADER_SIZE + bitmap.length + 4L * segment;
+    }
+
+    /** Segments the download was split into. */
+    int segmentCount() {
+        return segmentCount;
+    }
+
+    /** Closes and removes the journal once the download is complete. */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long offset = position;
+        while (buf.hasRemaining()) {
+            offset += channel.write(buf, offset);
+        }
+    }
+}
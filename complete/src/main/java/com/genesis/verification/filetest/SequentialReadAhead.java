@@ -0,0 +1,352 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Prefetches ahead of clients that read an object with back-to-back ranges.
+ *
+ * Accesses are tracked per object version and client. A range that starts inside or
+ * right after the previous one is sequential; after it, the next window of the object is
+ * fetched in the background into memory. The window is the consumption rate measured
+ * between requests times {@code lookAhead}, at least one request long and clamped to
+ * [minWindow, maxWindow]; a window is one array, so maxWindow is capped at 2 GB. Prefetched
+ * bytes share one {@code maxBytes} budget; when it is exhausted, chunks of streams idle for
+ * longer than the look-ahead are cancelled, and if that is not enough the new prefetch is
+ * skipped and the stream's window halved. Streams idle for longer than {@code idleTimeout}
+ * are forgotten, with their chunks, on the next request of any client.
+ */
+public class SequentialReadAhead {
+
+    private static final Logger log = LoggerFactory.getLogger(SequentialReadAhead.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final long maxBytes;
+    private final long minWindow;
+    private final long maxWindow;
+    private final long lookAheadNanos;
+    private final long idleNanos;
+    private final int maxStreams;
+    private final LongSupplier nanoClock;
+
+    // Access-ordered, guarded by "this" like every Stream and the byte count
+    private final LinkedHashMap<String, Stream> streams;
+    private long prefetchedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SequentialReadAhead(S3Client s3Client, ExecutorService executor, long maxBytes, long minWindow,
+                               long maxWindow, Duration lookAhead, Duration idleTimeout, int maxStreams) {
+        this(s3Client, executor, maxBytes, minWindow, maxWindow, lookAhead, idleTimeout, maxStreams, System::nanoTime);
+    }
+
+    SequentialReadAhead(S3Client s3Client, ExecutorService executor, long maxBytes, long minWindow, long maxWindow,
+                        Duration lookAhead, Duration idleTimeout, int maxStreams, LongSupplier nanoClock) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.maxBytes = maxBytes;
+        this.minWindow = Math.min(minWindow, Integer.MAX_VALUE);
+        this.maxWindow = Math.min(Math.max(minWindow, maxWindow), Integer.MAX_VALUE);
+        this.lookAheadNanos = lookAhead.toNanos();
+        this.idleNanos = idleTimeout.toNanos();
+        this.maxStreams = maxStreams;
+        this.nanoClock = nanoClock;
+        this.streams = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stream> eldest) {
+                if (size() > SequentialReadAhead.this.maxStreams) {
+                    dropChunks(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static final class Stream {
+        private long lastStart = -1;
+        private long lastEnd = -1;
+        private long lastAccessNanos;
+        private long window;
+        // Contiguous, ascending
+        private final Deque<Chunk> chunks = new ArrayDeque<>();
+    }
+
+    private static final class Chunk {
+        private final long start;
+        private final long end;
+        private final CompletableFuture<byte[]> data = new CompletableFuture<>();
+        private volatile boolean cancelled;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Records the access and returns the bytes of {@code range}, or {@code null} if no
+     * prefetched data covers its start. The returned stream serves the prefetched prefix
+     * from memory and the rest, if any, with a ranged GET.
+     */
+    public InputStream open(String bucket, String key, String eTag, long objectSize, ByteRange range, String client) {
+        List<Chunk> covering = new ArrayList<>();
+        synchronized (this) {
+            long now = nanoClock.getAsLong();
+            expireIdle(now);
+            Stream stream = streams.computeIfAbsent(bucket + '/' + key + '\0' + eTag + '\0' + client, id -> new Stream());
+            boolean sequential = stream.lastEnd >= 0
+                    && range.start() > stream.lastStart && range.start() <= stream.lastEnd + 1;
+
+            if (sequential) {
+                // Bytes consumed since the previous request over the time between them
+                long consumed = range.start() - stream.lastStart;
+                double bytesPerNano = (double) consumed / Math.max(1_000_000L, now - stream.lastAccessNanos);
+                long window = Math.max(range.length(), (long) (bytesPerNano * lookAheadNanos));
+                stream.window = Math.max(minWindow, Math.min(maxWindow, window));
+            } else {
+                dropChunks(stream);
+                stream.window = 0;
+            }
+
+            // Chunks behind the range are no longer needed
+            while (!stream.chunks.isEmpty() && stream.chunks.peekFirst().end < range.start()) {
+                cancel(stream.chunks.pollFirst());
+            }
+            for (Chunk chunk : stream.chunks) {
+                if (chunk.start > range.end() || (covering.isEmpty() && chunk.start > range.start())) {
+                    break;
+                }
+                covering.add(chunk);
+            }
+            // Fully consumed by this request, which still needs their fetches to finish
+            while (!stream.chunks.isEmpty() && stream.chunks.peekFirst().end <= range.end()) {
+                release(stream.chunks.pollFirst());
+            }
+
+            stream.lastStart = range.start();
+            stream.lastEnd = range.end();
+            stream.lastAccessNanos = now;
+            if (sequential) {
+                schedule(stream, bucket, key, eTag, objectSize, range.end() + 1);
+            }
+        }
+        if (covering.isEmpty()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+
+        List<InputStream> parts = new ArrayList<>();
+        for (Chunk chunk : covering) {
+            long from = Math.max(range.start(), chunk.start);
+            long to = Math.min(range.end(), chunk.end);
+            parts.add(new LazyInputStream(() -> slice(chunk, from, to, bucket, key, eTag)));
+        }
+        long coveredEnd = covering.get(covering.size() - 1).end;
+        if (coveredEnd < range.end()) {
+            ByteRange rest = new ByteRange(coveredEnd + 1, range.end());
+            parts.add(new LazyInputStream(() -> get(bucket, key, eTag, rest)));
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    public synchronized long prefetchedBytes() {
+        return prefetchedBytes;
+    }
+
+    /** Ranges that started in prefetched data. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Ranges that did not. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private void schedule(Stream stream, String bucket, String key, String eTag, long objectSize, long from) {
+        long coveredTo = stream.chunks.isEmpty() ? from - 1 : stream.chunks.peekLast().end;
+        long target = Math.min(objectSize - 1, from + stream.window - 1);
+        if (coveredTo >= target) {
+            return;
+        }
+        Chunk chunk = new Chunk(coveredTo + 1, target);
+        if (!reserve(chunk.length(), stream)) {
+            stream.window = Math.max(minWindow, stream.window / 2);
+            return;
+        }
+        stream.chunks.addLast(chunk);
+        executor.execute(() -> fetch(chunk, bucket, key, eTag));
+    }
+
+    // Makes room by cancelling the furthest-ahead chunks of streams idle for longer than the
+    // look-ahead, least recently active first; chunks of active streams are never taken
+    private boolean reserve(long bytes, Stream requester) {
+        long idleSince = nanoClock.getAsLong() - lookAheadNanos;
+        Iterator<Stream> it = streams.values().iterator();
+        while (prefetchedBytes + bytes > maxBytes && it.hasNext()) {
+            Stream victim = it.next();
+            if (victim == requester || victim.lastAccessNanos - idleSince > 0) {
+                break;  // access order: every later stream is more recent
+            }
+            while (!victim.chunks.isEmpty() && prefetchedBytes + bytes > maxBytes) {
+                cancel(victim.chunks.pollLast());
+            }
+        }
+        if (prefetchedBytes + bytes > maxBytes) {
+            return false;
+        }
+        prefetchedBytes += bytes;
+        return true;
+    }
+
+    // Least recently active first, so the walk stops at the first stream still in use
+    private void expireIdle(long now) {
+        Iterator<Stream> it = streams.values().iterator();
+        while (it.hasNext()) {
+            Stream stream = it.next();
+            if (now - stream.lastAccessNanos < idleNanos) {
+                break;
+            }
+            dropChunks(stream);
+            it.remove();
+        }
+    }
+
+    private void dropChunks(Stream stream) {
+        while (!stream.chunks.isEmpty()) {
+            cancel(stream.chunks.pollFirst());
+        }
+    }
+
+    // Handed to a reader: no longer counted, but its fetch runs on for that reader
+    private void release(Chunk chunk) {
+        prefetchedBytes -= chunk.length();
+    }
+
+    private void cancel(Chunk chunk) {
+        chunk.cancelled = true;  // stops a fetch still running; readers already holding it fall back to their own GET
+        release(chunk);
+    }
+
+    private void fetch(Chunk chunk, String bucket, String key, String eTag) {
+        if (chunk.cancelled) {
+            chunk.data.completeExceptionally(new IOException("Read-ahead cancelled"));
+            return;
+        }
+        byte[] data = new byte[(int) chunk.length()];
+        try (ResponseInputStream<GetObjectResponse> in = get(bucket, key, eTag, new ByteRange(chunk.start, chunk.end))) {
+            int filled = 0;
+            while (filled < data.length && !chunk.cancelled) {
+                int n = in.read(data, filled, Math.min(READ_BUFFER_SIZE, data.length - filled));
+                if (n < 0) {
+                    throw new IOException("Read-ahead of " + key + " ended " + (data.length - filled) + " bytes early");
+                }
+                filled += n;
+            }
+            if (chunk.cancelled) {
+                in.abort();
+                chunk.data.completeExceptionally(new IOException("Read-ahead cancelled"));
+            } else {
+                chunk.data.complete(data);
+            }
+        } catch (Exception e) {
+            log.debug("Read-ahead of {} [{}-{}] failed", key, chunk.start, chunk.end, e);
+            chunk.data.completeExceptionally(e);
+        }
+    }
+
+    private InputStream slice(Chunk chunk, long from, long to, String bucket, String key, String eTag) throws IOException {
+        try {
+            byte[] data = chunk.data.get();
+            return new ByteArrayInputStream(data, (int) (from - chunk.start), (int) (to - from + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for read-ahead");
+        } catch (ExecutionException e) {
+            // Cancelled or failed in the background: read this slice directly instead
+            return get(bucket, key, eTag, new ByteRange(from, to));
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> get(String bucket, String key, String eTag, ByteRange range) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .ifMatch(eTag)
+                .range(range.toRangeHeader())
+                .build());
+    }
+
+    @FunctionalInterface
+    private interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    /** Opens its source on first use, so later parts cost nothing until they are reached. */
+    private static final class LazyInputStream extends InputStream {
+        private final StreamOpener opener;
+        private InputStream in;
+
+        LazyInputStream(StreamOpener opener) {
+            this.opener = opener;
+        }
+
+        private InputStream in() throws IOException {
+            if (in == null) {
+                in = opener.open();
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+}
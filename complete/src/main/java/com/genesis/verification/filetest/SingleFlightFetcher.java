@@ -0,0 +1,330 @@
+package com.genesis.verification.filetest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares one S3 GET between concurrent readers of the same object version and range.
+ *
+ * The first reader of a range starts a flight; readers arriving while its first chunk is
+ * still in memory join it instead of sending their own GET. A flight keeps only the last
+ * {@code window} bytes, in fixed chunks. There is no fetch thread: whichever reader needs
+ * a chunk nobody has fetched yet reads it from S3, so the flight moves at the pace of its
+ * fastest reader and readers within the window are served from memory. A reader that falls
+ * further behind than the window is detached and continues with its own ranged GET from
+ * where it was, so it never holds the others back and never holds more memory.
+ *
+ * The upstream body is aborted once every reader has closed or detached. A failed GET fails
+ * all readers of the flight, as their own GETs would have.
+ */
+public class SingleFlightFetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlightFetcher.class);
+
+    private record FlightKey(String bucket, String key, String eTag, long start, long end) { }
+
+    private final S3Client s3Client;
+    private final int chunkSize;
+    private final int windowChunks;
+    private final int maxFlights;
+
+    private final ConcurrentHashMap<FlightKey, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder detached = new LongAdder();
+
+    public SingleFlightFetcher(S3Client s3Client, long window, int chunkSize, int maxFlights) {
+        this.s3Client = s3Client;
+        this.chunkSize = chunkSize;
+        this.windowChunks = (int) Math.max(1, window / chunkSize);
+        this.maxFlights = maxFlights;
+    }
+
+    /**
+     * Opens {@code range} of the object, joining a GET already in flight for it if possible.
+     * The stream must be closed; it throws what the GET threw, S3 errors as the cause of an
+     * {@link IOException}.
+     */
+    public InputStream open(String bucket, String key, String eTag, long objectSize, ByteRange range) {
+        FlightKey flightKey = new FlightKey(bucket, key, eTag, range.start(), range.end());
+        while (true) {
+            Flight flight = flights.get(flightKey);
+            if (flight == null) {
+                if (flights.size() >= maxFlights) {
+                    misses.increment();
+                    return get(bucket, key, eTag, objectSize, range);
+                }
+                Flight created = new Flight(flightKey, objectSize);
+                flight = flights.putIfAbsent(flightKey, created);
+                if (flight == null) {
+                    misses.increment();
+                    return created.join();
+                }
+            }
+            InputStream joined = flight.join();
+            if (joined != null) {
+                hits.increment();
+                return joined;
+            }
+            flights.remove(flightKey, flight);  // past its first chunk or finished; start another
+        }
+    }
+
+    /** Readers that joined a flight in progress. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Readers that started a flight, or read directly because too many were in flight. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Readers that fell behind their flight's window and continued with their own GET. */
+    public long detached() {
+        return detached.sum();
+    }
+
+    private InputStream get(String bucket, String key, String eTag, long objectSize, ByteRange range) {
+        GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucket).key(key).ifMatch(eTag);
+        if (range.start() != 0 || range.end() != objectSize - 1) {
+            request.range(range.toRangeHeader());
+        }
+        return s3Client.getObject(request.build());
+    }
+
+    // Chunk i of the range lives in slots[i % slots.length] while tailChunk <= i < ceil(head / chunkSize).
+    // Everything is guarded by lock, except that the reader that set fetching owns upstream and the
+    // next slot until it clears fetching again.
+    private final class Flight {
+        private final FlightKey key;
+        private final long objectSize;
+        private final long length;
+        private final byte[][] slots;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition fetched = lock.newCondition();
+
+        private InputStream upstream;
+        private long head;
+        private long tailChunk;
+        private boolean fetching;
+        private Throwable failure;
+        private int readers;
+        private boolean ended;
+
+        Flight(FlightKey key, long objectSize) {
+            this.key = key;
+            this.objectSize = objectSize;
+            this.length = key.end() - key.start() + 1;
+            this.slots = new byte[(int) Math.min(windowChunks, (length + chunkSize - 1) / chunkSize)][];
+        }
+
+        /** A reader from the first byte, or null if this flight can no longer be joined. */
+        InputStream join() {
+            lock.lock();
+            try {
+                if (ended || tailChunk > 0) {
+                    return null;
+                }
+                readers++;
+                return new Reader(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Copies bytes at {@code position} into {@code b}, fetching the next chunk if needed.
+         * Returns -1 at the end of the range and -2 if {@code position} has left the window.
+         */
+        int read(long position, byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (true) {
+                    if (position < tailChunk * chunkSize) {
+                        return -2;
+                    }
+                    if (position < head) {
+                        byte[] chunk = slots[(int) ((position / chunkSize) % slots.length)];
+                        int offset = (int) (position % chunkSize);
+                        int n = (int) Math.min(len, Math.min(chunkSize - offset, head - position));
+                        System.arraycopy(chunk, offset, b, off, n);
+                        return n;
+                    }
+                    if (position >= length) {
+                        return -1;
+                    }
+                    if (failure != null) {
+                        throw new IOException("Shared GET of " + key.key() + " failed", failure);
+                    }
+                    if (fetching) {
+                        fetched.await();
+                    } else {
+                        fetchNextChunk();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a shared GET of " + key.key());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Called with the lock held; releases it while reading from S3
+        private void fetchNextChunk() {
+            long index = head / chunkSize;
+            if (index - tailChunk >= slots.length) {
+                tailChunk = index - slots.length + 1;  // readers still in the evicted chunk detach
+                flights.remove(key, this);
+            }
+            int slot = (int) (index % slots.length);
+            if (slots[slot] == null) {
+                slots[slot] = new byte[(int) Math.min(chunkSize, length)];
+            }
+            byte[] chunk = slots[slot];
+            int size = (int) Math.min(chunkSize, length - head);
+            fetching = true;
+            lock.unlock();
+
+            int n = 0;
+            Throwable error = null;
+            try {
+                if (upstream == null) {
+                    upstream = get(key.bucket(), key.key(), key.eTag(), objectSize, new ByteRange(key.start(), key.end()));
+                }
+                n = upstream.readNBytes(chunk, 0, size);
+                if (n < size) {
+                    error = new EOFException("Upstream ended " + (length - head - n) + " bytes early");
+                } else if (head + n == length) {
+                    upstream.close();  // back to the connection pool
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            } finally {
+                lock.lock();
+            }
+
+            fetching = false;
+            if (error != null) {
+                log.debug("Shared GET of {} [{}-{}] failed", key.key(), key.start(), key.end(), error);
+                failure = error;
+                flights.remove(key, this);
+                abortUpstream();
+            } else {
+                head += n;
+            }
+            fetched.signalAll();
+        }
+
+        void leave() {
+            lock.lock();
+            try {
+                if (--readers == 0) {
+                    ended = true;
+                    flights.remove(key, this);
+                    if (head < length && !fetching) {
+                        abortUpstream();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void abortUpstream() {
+            InputStream in = upstream;
+            if (in == null) {
+                return;
+            }
+            if (in instanceof Abortable abortable) {
+                abortable.abort();  // don't drain the rest of the body to reuse the connection
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Closing the shared GET of {} failed", key.key(), e);
+            }
+        }
+    }
+
+    private final class Reader extends InputStream {
+        private final Flight flight;
+        private long position;
+        private InputStream own;  // after detaching
+        private boolean closed;
+
+        Reader(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (own == null) {
+                int n = flight.read(position, b, off, len);
+                if (n != -2) {
+                    if (n > 0) {
+                        position += n;
+                    }
+                    return n;
+                }
+                detach();
+            }
+            int n = own.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        private void detach() {
+            FlightKey key = flight.key;
+            log.debug("Reader of {} fell behind the shared GET at {}, reading on its own", key.key(), key.start() + position);
+            detached.increment();
+            flight.leave();
+            own = get(key.bucket(), key.key(), key.eTag(), flight.objectSize, new ByteRange(key.start() + position, key.end()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (own != null) {
+                if (position < flight.length && own instanceof Abortable abortable) {
+                    abortable.abort();
+                }
+                own.close();
+            } else {
+                flight.leave();
+            }
+        }
+    }
+}
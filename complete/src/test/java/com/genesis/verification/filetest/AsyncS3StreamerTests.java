@@ -0,0 +1,193 @@
+package com.genesis.verification.filetest;
+
+import com.example.restservice.RestServiceApplication;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {RestServiceApplication.class, AsyncS3StreamerTests.FakeS3Config.class},
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"download.s3.mode=async", "download.s3.cache.enabled=false"})
+public class AsyncS3StreamerTests {
+
+    private static final long SIZE = 64L * 1024 * 1024;
+    private static final int CHUNK = 64 * 1024;
+    private static final String ETAG = "\"async-v1\"";
+
+    // Bytes handed to the servlet side by the fake S3 body publisher
+    private static final AtomicLong emitted = new AtomicLong();
+
+    @LocalServerPort
+    private int port;
+
+    // HTTP/1.1: over HTTP/2 the client would also buffer a whole 16 MB stream window
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @Test
+    public void rangeIsStreamedExactly() throws Exception {
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri())
+                .header("Range", "bytes=1000-2000999").build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(206);
+        assertThat(response.headers().firstValue("Content-Range")).hasValue("bytes 1000-2000999/" + SIZE);
+        assertThat(response.body()).hasSize(2_000_000);
+        for (int i = 0; i < response.body().length; i++) {
+            if (response.body()[i] != valueAt(1000 + i)) {
+                throw new AssertionError("Mismatch at " + (1000 + i));
+            }
+        }
+    }
+
+    @Test
+    public void slowClientStopsTheUpstream() throws Exception {
+        emitted.set(0);
+        HttpResponse<InputStream> response = client.send(HttpRequest.newBuilder(uri()).build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        assertThat(response.statusCode()).isEqualTo(200);
+
+        // Not reading: only socket and connector buffers can fill up
+        Thread.sleep(1000);
+        assertThat(emitted.get()).isLessThan(SIZE / 4);
+
+        long total = 0;
+        try (InputStream in = response.body()) {
+            byte[] buf = new byte[256 * 1024];
+            for (int n; (n = in.read(buf)) >= 0; ) {
+                total += n;
+            }
+        }
+        assertThat(total).isEqualTo(SIZE);
+    }
+
+    private URI uri() {
+        return URI.create("http://localhost:" + port + "/s3/download?key=big.bin");
+    }
+
+    private static byte valueAt(long position) {
+        return (byte) (position % 251);
+    }
+
+    @TestConfiguration
+    static class FakeS3Config {
+
+        @Bean
+        @Primary
+        S3Client fakeS3Client() {
+            return new S3Client() {
+                @Override
+                public HeadObjectResponse headObject(HeadObjectRequest request) {
+                    return HeadObjectResponse.builder().contentLength(SIZE).eTag(ETAG).lastModified(Instant.EPOCH).build();
+                }
+
+                @Override
+                public String serviceName() {
+                    return "s3";
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Bean
+        @Primary
+        S3AsyncClient fakeS3AsyncClient() {
+            return new S3AsyncClient() {
+                @Override
+                public <T> CompletableFuture<T> getObject(GetObjectRequest request,
+                                                          AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+                    long[] range = {0, SIZE - 1};
+                    if (request.range() != null) {
+                        String[] bounds = request.range().substring("bytes=".length()).split("-");
+                        range = new long[] {Long.parseLong(bounds[0]), Long.parseLong(bounds[1])};
+                    }
+                    CompletableFuture<T> future = transformer.prepare();
+                    transformer.onResponse(GetObjectResponse.builder().contentLength(range[1] - range[0] + 1).eTag(ETAG).build());
+                    transformer.onStream(SdkPublisher.adapt(new ChunkPublisher(range[0], range[1] + 1)));
+                    return future;
+                }
+
+                @Override
+                public String serviceName() {
+                    return "s3";
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /** Emits generated chunks strictly on demand. */
+    private record ChunkPublisher(long start, long end) implements Publisher<ByteBuffer> {
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private long position = start;
+                private long demand;
+                private boolean emitting;
+                private boolean done;
+
+                @Override
+                public synchronized void request(long n) {
+                    demand += n;
+                    if (emitting || done) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && position < end) {
+                        int length = (int) Math.min(CHUNK, end - position);
+                        ByteBuffer chunk = ByteBuffer.allocate(length);
+                        for (int i = 0; i < length; i++) {
+                            chunk.put(valueAt(position + i));
+                        }
+                        chunk.flip();
+                        position += length;
+                        demand--;
+                        emitted.addAndGet(length);
+                        subscriber.onNext(chunk);
+                    }
+                    emitting = false;
+                    if (position >= end) {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    done = true;
+                }
+            });
+        }
+    }
+}
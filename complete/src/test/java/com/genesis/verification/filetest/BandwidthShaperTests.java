@@ -0,0 +1,107 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BandwidthShaperTests {
+
+    private static final int KB = 1024;
+
+    private final ClientIdentity identity = new ClientIdentity("X-Api-Key", Map.of("batch", 2));
+
+    @Test
+    public void writesWaitForTheSlowestBucket() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 1024 * KB, 64 * KB, 0, 100, identity);
+
+        long started = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BandwidthShaper.shape(shaper.admit(client("ui"), 320 * KB), chunks(10, 32 * KB)).writeTo(out);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        // 64 KB of burst, then 256 KB at 1 MB/s
+        assertThat(out.size()).isEqualTo(320 * KB);
+        assertThat(elapsedMillis).isBetween(200L, 2000L);
+        assertThat(shaper.throttledNanos()).isPositive();
+        assertThat(shaper.outstanding()).isZero();
+    }
+
+    @Test
+    public void requestsOfOneClientShareItsWeightedBucket() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper(0, 512 * KB, 0, 32 * KB, 0, 100, identity);
+
+        // Weight 2: 1 MB/s for both requests together
+        BandwidthShaper.Ticket first = shaper.admit(client("batch"), 256 * KB);
+        BandwidthShaper.Ticket second = shaper.admit(client("batch"), 256 * KB);
+        long started = System.nanoTime();
+        BandwidthShaper.shape(first, chunks(8, 32 * KB)).writeTo(new ByteArrayOutputStream());
+        BandwidthShaper.shape(second, chunks(8, 32 * KB)).writeTo(new ByteArrayOutputStream());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertThat(elapsedMillis).isBetween(350L, 3000L);
+
+        // Another client has its own bucket
+        started = System.nanoTime();
+        BandwidthShaper.shape(shaper.admit(client("ui"), 32 * KB), chunks(1, 32 * KB)).writeTo(new ByteArrayOutputStream());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isLessThan(100);
+    }
+
+    @Test
+    public void downloadsPastTheOutstandingBudgetAreTurnedAway() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper(1000, 0, 0, 100_000, 1000, 100, identity);
+
+        BandwidthShaper.Ticket first = shaper.admit(client("a"), 600);
+        assertThat(first).isNotNull();
+        assertThat(shaper.admit(client("b"), 600)).isNull();
+        assertThat(shaper.rejected()).isEqualTo(1);
+        assertThat(shaper.retryAfterSeconds()).isBetween(1L, 60L);
+
+        // Bytes leave the budget as they are sent, the rest when the body ends
+        StreamingResponseBody partial = out -> out.write(new byte[300]);
+        BandwidthShaper.shape(first, out -> {
+            partial.writeTo(out);
+            assertThat(shaper.outstanding()).isEqualTo(300);
+            assertThat(shaper.admit(client("b"), 600)).isNotNull();
+        }).writeTo(new ByteArrayOutputStream());
+        assertThat(shaper.outstanding()).isEqualTo(600);
+
+        // Sendfile and async bodies are not written through the ticket
+        BandwidthShaper.Ticket handedOff = shaper.admit(client("c"), 400);
+        assertThat(BandwidthShaper.shape(handedOff, null)).isNull();
+        assertThat(shaper.outstanding()).isEqualTo(600);
+    }
+
+    @Test
+    public void onlyConfiguredApiKeysIdentifyAClient() {
+        MockHttpServletRequest known = client("batch");
+        known.setRemoteAddr("10.0.0.1");
+        MockHttpServletRequest unknown = client("guessed");
+        unknown.setRemoteAddr("10.0.0.2");
+
+        assertThat(identity.key(known)).isEqualTo("batch");
+        assertThat(identity.key(unknown)).isEqualTo("10.0.0.2");
+        assertThat(identity.weight(identity.key(unknown))).isEqualTo(1);
+    }
+
+    // A distinct address per client, since unconfigured keys fall back to it
+    private static MockHttpServletRequest client(String apiKey) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s3/download");
+        request.addHeader("X-Api-Key", apiKey);
+        request.setRemoteAddr("client-" + apiKey);
+        return request;
+    }
+
+    private static StreamingResponseBody chunks(int count, int size) {
+        return out -> {
+            for (int i = 0; i < count; i++) {
+                out.write(new byte[size]);
+            }
+        };
+    }
+}
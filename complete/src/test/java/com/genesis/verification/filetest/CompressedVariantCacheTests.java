@@ -0,0 +1,136 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedVariantCacheTests {
+
+    private static final byte[] JSON = "{\"id\": 1, \"name\": \"compressible\"}\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void negotiatesByQualityAndType() throws Exception {
+        CompressedVariantCache cache = cache(1024 * 1024);
+
+        assertThat(cache.negotiate("gzip, deflate, br")).isEqualTo("gzip");
+        assertThat(cache.negotiate("br;q=1.0, gzip;q=0.5")).isEqualTo("gzip");
+        assertThat(cache.negotiate("*")).isEqualTo("gzip");
+        assertThat(cache.negotiate("gzip;q=0, *")).isNull();
+        assertThat(cache.negotiate("identity")).isNull();
+        assertThat(cache.negotiate(null)).isNull();
+
+        assertThat(cache.compressible(MediaType.parseMediaType("text/csv"), 10_000)).isTrue();
+        assertThat(cache.compressible(MediaType.parseMediaType("application/vnd.api+json"), 10_000)).isTrue();
+        assertThat(cache.compressible(MediaType.APPLICATION_JSON, 100)).isFalse();
+        assertThat(cache.compressible(MediaType.IMAGE_PNG, 10_000)).isFalse();
+    }
+
+    @Test
+    public void firstResponseBuildsTheVariantLaterOnesReadIt() throws Exception {
+        CompressedVariantCache cache = cache(1024 * 1024);
+        assertThat(cache.get("a.json", "\"1\"", "gzip")).isNull();
+
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        CompressedVariantCache.Encoder encoder = cache.encoder("a.json", "\"1\"", "gzip", JSON.length, client);
+        encoder.write(JSON);
+        encoder.finish();
+
+        assertThat(gunzip(client.toByteArray())).isEqualTo(JSON);
+        assertThat(client.size()).isLessThan(JSON.length / 5);
+        try (CompressedVariantCache.Variant variant = cache.get("a.json", "\"1\"", "gzip")) {
+            assertThat(variant).isNotNull();
+            assertThat(read(variant)).isEqualTo(client.toByteArray());
+        }
+        // A new version is a different variant
+        assertThat(cache.get("a.json", "\"2\"", "gzip")).isNull();
+    }
+
+    @Test
+    public void unfinishedAndOversizedBodiesAreNotCached() throws Exception {
+        CompressedVariantCache cache = cache(JSON.length - 1);
+
+        CompressedVariantCache.Encoder failed = cache.encoder("a.json", "\"1\"", "gzip", 100, new ByteArrayOutputStream());
+        failed.write(JSON, 0, 100);
+        failed.close();
+        assertThat(cache.get("a.json", "\"1\"", "gzip")).isNull();
+
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        CompressedVariantCache.Encoder large = cache.encoder("b.json", "\"1\"", "gzip", JSON.length, client);
+        large.write(JSON);
+        large.finish();
+        assertThat(gunzip(client.toByteArray())).isEqualTo(JSON);
+        assertThat(cache.get("b.json", "\"1\"", "gzip")).isNull();
+
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    public void openVariantSurvivesEviction() throws Exception {
+        // A one byte budget keeps only the newest variant
+        CompressedVariantCache cache = new CompressedVariantCache(directory, 1, 1024 * 1024, 1024,
+                List.of("application/json"), 6);
+        byte[] a = build(cache, "a.json");
+
+        try (CompressedVariantCache.Variant open = cache.get("a.json", "\"1\"", "gzip")) {
+            build(cache, "b.json");
+            assertThat(cache.get("a.json", "\"1\"", "gzip")).isNull();
+            assertThat(read(open)).isEqualTo(a);
+        }
+    }
+
+    @Test
+    public void startupOnlyClearsItsOwnFiles() throws Exception {
+        Path unrelated = Files.writeString(directory.resolve("notes.txt"), "keep");
+        build(cache(1024 * 1024), "a.json");
+
+        cache(1024 * 1024);
+
+        try (var files = Files.list(directory)) {
+            assertThat(files).containsExactly(unrelated);
+        }
+    }
+
+    private CompressedVariantCache cache(long maxSourceSize) throws IOException {
+        return new CompressedVariantCache(directory, 64 * 1024 * 1024, maxSourceSize, 1024,
+                List.of("text/*", "application/json", "application/*+json"), 6);
+    }
+
+    private static byte[] build(CompressedVariantCache cache, String source) throws IOException {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        CompressedVariantCache.Encoder encoder = cache.encoder(source, "\"1\"", "gzip", JSON.length, client);
+        encoder.write(JSON);
+        encoder.finish();
+        return client.toByteArray();
+    }
+
+    private static byte[] read(CompressedVariantCache.Variant variant) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate((int) variant.size());
+        while (contents.hasRemaining() && variant.channel().read(contents, contents.position()) >= 0) {
+            // positional reads until full
+        }
+        return contents.array();
+    }
+
+    static byte[] gunzip(byte[] gzipped) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return in.readAllBytes();
+        }
+    }
+}
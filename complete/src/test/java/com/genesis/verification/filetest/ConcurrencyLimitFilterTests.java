@@ -0,0 +1,49 @@
+package com.genesis.verification.filetest;
+
+import jakarta.servlet.AsyncContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimitFilterTests {
+
+    private final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter("test", 1, Duration.ZERO);
+
+    @Test
+    public void slotIsHeldUntilAsyncResponseCompletes() throws Exception {
+        MockHttpServletRequest streaming = new MockHttpServletRequest("GET", "/s3/download");
+        streaming.setAsyncSupported(true);
+        AsyncContext[] async = new AsyncContext[1];
+        filter.doFilter(streaming, new MockHttpServletResponse(), (req, res) -> async[0] = req.startAsync());
+        assertThat(filter.inUse()).isEqualTo(1);
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/s3/download"), rejected, new MockFilterChain());
+        assertThat(rejected.getStatus()).isEqualTo(503);
+        assertThat(rejected.getHeader("Retry-After")).isEqualTo("1");
+
+        async[0].complete();
+        assertThat(filter.inUse()).isZero();
+
+        MockHttpServletResponse accepted = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/s3/download"), accepted, new MockFilterChain());
+        assertThat(accepted.getStatus()).isEqualTo(200);
+        assertThat(filter.inUse()).isZero();
+    }
+
+    @Test
+    public void slotIsReleasedWhenTheHandlerThrows() {
+        try {
+            filter.doFilter(new MockHttpServletRequest("GET", "/s3/download"), new MockHttpServletResponse(),
+                    (req, res) -> { throw new IllegalStateException("boom"); });
+        } catch (Exception expected) {
+            // released in finally
+        }
+        assertThat(filter.inUse()).isZero();
+    }
+}
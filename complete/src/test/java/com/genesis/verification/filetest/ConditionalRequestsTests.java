@@ -0,0 +1,76 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConditionalRequestsTests {
+
+    private static final String ETAG = "\"abc-123\"";
+    private static final Instant MODIFIED = Instant.parse("2024-05-01T10:15:30.250Z");
+
+    @Test
+    public void ifNoneMatchReturnsNotModified() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(List.of("\"other\"", "W/\"abc-123\""));
+
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+        headers.setIfNoneMatch("\"other\"");
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isNull();
+    }
+
+    @Test
+    public void ifMatchMismatchFailsPrecondition() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"other\"");
+        // If-Match takes precedence over If-None-Match
+        headers.setIfNoneMatch(ETAG);
+
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        headers.setIfMatch(ETAG);
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    @Test
+    public void ifModifiedSinceComparesWholeSeconds() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfModifiedSince(MODIFIED.minusMillis(250));
+
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+        headers.setIfModifiedSince(MODIFIED.minusSeconds(5));
+        assertThat(ConditionalRequests.evaluate(headers, ETAG, MODIFIED)).isNull();
+    }
+
+    @Test
+    public void ifRangeNeedsStrongETagOrExactDate() {
+        HttpHeaders headers = new HttpHeaders();
+        assertThat(ConditionalRequests.rangeApplies(headers, ETAG, MODIFIED)).isTrue();
+
+        headers.set(HttpHeaders.IF_RANGE, ETAG);
+        assertThat(ConditionalRequests.rangeApplies(headers, ETAG, MODIFIED)).isTrue();
+
+        headers.set(HttpHeaders.IF_RANGE, "W/" + ETAG);
+        assertThat(ConditionalRequests.rangeApplies(headers, ETAG, MODIFIED)).isFalse();
+
+        headers.set(HttpHeaders.IF_RANGE, httpDate(MODIFIED));
+        assertThat(ConditionalRequests.rangeApplies(headers, ETAG, MODIFIED)).isTrue();
+
+        headers.set(HttpHeaders.IF_RANGE, httpDate(MODIFIED.minusSeconds(60)));
+        assertThat(ConditionalRequests.rangeApplies(headers, ETAG, MODIFIED)).isFalse();
+    }
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(instant, ZoneOffset.UTC));
+    }
+}
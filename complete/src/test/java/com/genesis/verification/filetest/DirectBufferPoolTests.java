@@ -0,0 +1,63 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirectBufferPoolTests {
+
+    @Test
+    public void buffersComeFromTheSmallestFittingClassAndAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 16 * 1024, 4096, 4, 0);
+
+        ByteBuffer small = pool.acquire(100);
+        ByteBuffer medium = pool.acquire(3000);
+        assertThat(small.isDirect()).isTrue();
+        assertThat(small.capacity()).isEqualTo(1024);
+        assertThat(medium.capacity()).isEqualTo(4096);
+        assertThat(pool.bufferSize()).isEqualTo(4096);
+
+        medium.put((byte) 1);
+        pool.release(medium);
+        ByteBuffer again = pool.acquire();
+        assertThat(again).isSameAs(medium);
+        assertThat(again.position()).isZero();
+        assertThat(again.remaining()).isEqualTo(4096);
+    }
+
+    @Test
+    public void oversizedAndForeignBuffersAreNotPooled() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 4096, 1024, 4, 0);
+
+        ByteBuffer huge = pool.acquire(10_000);
+        assertThat(huge.capacity()).isEqualTo(10_000);
+        pool.release(huge);
+        pool.release(ByteBuffer.allocateDirect(3000));
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(null);
+
+        assertThat(pool.acquire(10_000)).isNotSameAs(huge);
+        assertThat(pool.acquire(3000).capacity()).isEqualTo(4096);
+        assertThat(pool.acquire(1024).isDirect()).isTrue();
+    }
+
+    @Test
+    public void buffersCollectedWithoutReleaseAreReportedAsLeaks() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024, 4096, 1024, 4, 1);
+
+        pool.release(pool.acquire());
+        acquireAndDrop(pool);
+
+        for (int i = 0; i < 50 && pool.leaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertThat(pool.leaks()).isEqualTo(1);
+    }
+
+    private static void acquireAndDrop(DirectBufferPool pool) {
+        pool.acquire(2048).put((byte) 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DiskLruIndexTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void evictsLeastRecentlyUsedFilesBeyondTheBudget() throws Exception {
+        DiskLruIndex<String> index = index(250);
+        put(index, "a", 100);
+        put(index, "b", 100);
+        index.open("a").close();  // now b is the eldest
+
+        put(index, "c", 100);
+
+        assertThat(index.cachedBytes()).isEqualTo(200);
+        assertThat(index.contains("b")).isFalse();
+        assertThat(Files.exists(dir.resolve(name("b")))).isFalse();
+        assertThat(index.contains("a")).isTrue();
+        assertThat(index.contains("c")).isTrue();
+    }
+
+    @Test
+    public void openFilesOutliveTheirEviction() throws Exception {
+        DiskLruIndex<String> index = index(100);
+        put(index, "a", 100);
+
+        try (FileChannel open = index.open("a")) {
+            put(index, "b", 100);
+            assertThat(index.open("a")).isNull();
+            assertThat(open.read(ByteBuffer.allocate(100), 0)).isEqualTo(100);
+        }
+    }
+
+    @Test
+    public void creationWipesOnlyTheCachesOwnFiles() throws Exception {
+        Path unrelated = Files.writeString(dir.resolve("notes.txt"), "keep");
+        Path lookalike = Files.writeString(dir.resolve("other7.tmp"), "keep");
+        DiskLruIndex<String> index = index(1000);
+        put(index, "a", 10);
+        index.createTempFile();
+
+        index(1000);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactlyInAnyOrder(unrelated, lookalike);
+        }
+    }
+
+    private DiskLruIndex<String> index(long maxBytes) throws Exception {
+        return new DiskLruIndex<>(dir, maxBytes, "entry", DiskLruIndexTests::name, Pattern.compile("[0-9a-f]{64}\\.bin"));
+    }
+
+    private static void put(DiskLruIndex<String> index, String key, int size) throws Exception {
+        Path tmp = index.createTempFile();
+        Files.write(tmp, new byte[size]);
+        index.put(key, tmp);
+    }
+
+    private static String name(String key) {
+        return DiskLruIndex.digest(key) + ".bin";
+    }
+}
@@ -0,0 +1,71 @@
+package com.genesis.verification.filetest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DownloadMetricsTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final DownloadMetrics metrics = new DownloadMetrics(registry);
+
+    @Test
+    public void completedBodyRecordsBytesAndTimings() throws Exception {
+        long started = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50);
+        StreamingResponseBody body = DownloadMetrics.meter(metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.SINGLE, started), out -> {
+            out.write(new byte[1000]);
+            out.write(7);
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+
+        assertThat(out.size()).isEqualTo(1001);
+        assertThat(timer("ok").count()).isEqualTo(1);
+        assertThat(timer("ok").totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+        assertThat(registry.get("download.ttfb").tags("endpoint", "s3", "mode", "single").timer().count()).isEqualTo(1);
+        assertThat(registry.get("download.bytes").tags("endpoint", "s3", "mode", "single").summary().totalAmount())
+                .isEqualTo(1001);
+        assertThat(registry.get("download.throughput").tags("endpoint", "s3", "mode", "single").summary().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void clientWriteFailuresCountAsAbortedOthersAsErrors() {
+        OutputStream gone = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        StreamingResponseBody aborted = DownloadMetrics.meter(metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.SINGLE, System.nanoTime()),
+                out -> out.write(1));
+        StreamingResponseBody failed = DownloadMetrics.meter(metrics.start(DownloadMetrics.S3, DownloadMetrics.Mode.SINGLE, System.nanoTime()),
+                out -> {
+                    throw new IOException("Upstream ended early");
+                });
+
+        assertThatThrownBy(() -> aborted.writeTo(gone)).hasMessage("Broken pipe");
+        assertThatThrownBy(() -> failed.writeTo(new ByteArrayOutputStream())).hasMessage("Upstream ended early");
+
+        assertThat(timer("aborted").count()).isEqualTo(1);
+        assertThat(timer("error").count()).isEqualTo(1);
+        assertThat(timer("ok").count()).isZero();
+        // Only the aborted body got as far as a first byte
+        assertThat(registry.get("download.ttfb").tags("endpoint", "s3", "mode", "single").timer().count()).isEqualTo(1);
+    }
+
+    private Timer timer(String outcome) {
+        return registry.get("download.duration").tags("endpoint", "s3", "mode", "single", "outcome", outcome).timer();
+    }
+}
@@ -0,0 +1,26 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ExecutionConfigTests {
+
+    @Test
+    public void platformModeNeverUsesVirtualThreads() {
+        assertThat(ExecutionConfig.useVirtualThreads(new DownloadProperties())).isFalse();
+    }
+
+    @Test
+    public void virtualModeFailsWithoutVirtualThreads() {
+        assumeTrue(Runtime.version().feature() < 21, "this JVM has virtual threads");
+        DownloadProperties properties = new DownloadProperties();
+        properties.getExecution().setMode(DownloadProperties.Execution.Mode.VIRTUAL);
+
+        assertThatThrownBy(() -> ExecutionConfig.useVirtualThreads(properties))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}
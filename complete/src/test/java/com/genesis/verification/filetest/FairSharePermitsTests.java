@@ -0,0 +1,85 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FairSharePermitsTests {
+
+    private static final long WAIT = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    public void freedPermitsGoToTheClientFurthestBelowItsShare() throws Exception {
+        FairSharePermits permits = new FairSharePermits(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(permits.tryAcquire("greedy", 1, 0)).isTrue();
+        }
+        assertThat(permits.tryAcquire("greedy", 1, 0)).isFalse();
+
+        // The greedy client queues first, then two others
+        List<String> granted = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        Thread greedy = waiter(permits, "greedy", 1, granted, done);
+        awaitWaiting(greedy);
+        Thread interactive = waiter(permits, "interactive", 1, granted, done);
+        awaitWaiting(interactive);
+        Thread partner = waiter(permits, "partner", 3, granted, done);
+        awaitWaiting(partner);
+
+        for (int i = 0; i < 3; i++) {
+            permits.release("greedy");
+            awaitGranted(granted, i + 1);
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        // Both newcomers hold nothing; the older waiter wins the tie, the greedy client goes last
+        assertThat(granted).containsExactly("interactive", "partner", "greedy");
+        assertThat(permits.inUse()).isEqualTo(4);
+    }
+
+    @Test
+    public void timedOutWaitersLeaveNoTrace() throws Exception {
+        FairSharePermits permits = new FairSharePermits(1);
+        assertThat(permits.tryAcquire("a", 1, 0)).isTrue();
+        assertThat(permits.tryAcquire("b", 1, TimeUnit.MILLISECONDS.toNanos(20))).isFalse();
+
+        permits.release("a");
+        assertThat(permits.inUse()).isZero();
+        assertThat(permits.tryAcquire("b", 1, 0)).isTrue();
+    }
+
+    private static Thread waiter(FairSharePermits permits, String client, int weight, List<String> granted, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try {
+                if (permits.tryAcquire(client, weight, WAIT)) {
+                    granted.add(client);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + WAIT;
+        while (thread.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitGranted(List<String> granted, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + WAIT;
+        while (granted.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+public class FileCatalogTests {
+
+    @TempDir
+    Path dir;
+
+    private Path root;
+    private FileCatalog catalog;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        root = Files.createDirectories(dir.resolve("root"));
+        catalog = new FileCatalog(root, 100);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        catalog.close();
+    }
+
+    @Test
+    public void servesFilesBelowTheRoot() throws Exception {
+        Files.createDirectories(root.resolve("a/b"));
+        Files.write(root.resolve("a/b/file.bin"), new byte[123]);
+
+        FileCatalog.FileMetadata file = catalog.lookup("/a/b/file.bin");
+
+        assertThat(file).isNotNull();
+        assertThat(file.size()).isEqualTo(123);
+        assertThat(file.fileName()).isEqualTo("file.bin");
+        assertThat(file.eTag()).startsWith("\"").endsWith("\"");
+        assertThat(catalog.lookup("/a/b/missing.bin")).isNull();
+        assertThat(catalog.lookup("/a/b")).isNull();
+    }
+
+    @Test
+    public void rejectsPathsOutsideTheRoot() throws Exception {
+        Files.write(dir.resolve("secret.txt"), new byte[10]);
+
+        assertThat(catalog.lookup("/../secret.txt")).isNull();
+        assertThat(catalog.lookup("/a/../../secret.txt")).isNull();
+        assertThat(catalog.lookup(dir.resolve("secret.txt").toString())).isNull();
+        assertThat(catalog.lookup("/")).isNull();
+        assertThat(catalog.lookup("/x\0y")).isNull();
+    }
+
+    @Test
+    public void rejectsSymlinksLeavingTheRoot() throws Exception {
+        Path secret = Files.write(dir.resolve("secret.txt"), new byte[10]);
+        try {
+            Files.createSymbolicLink(root.resolve("link.txt"), secret);
+        } catch (UnsupportedOperationException | java.io.IOException e) {
+            assumeThat(false).as("symlinks not supported here").isTrue();
+        }
+
+        assertThat(catalog.lookup("/link.txt")).isNull();
+    }
+
+    @Test
+    public void changedFileIsPickedUpAfterWatchEvent() throws Exception {
+        Path path = Files.write(root.resolve("file.bin"), new byte[100]);
+        FileCatalog.FileMetadata before = catalog.lookup("/file.bin");
+        assertThat(catalog.cachedEntries()).isEqualTo(1);
+
+        Files.write(path, new byte[200]);
+
+        // Some platforms poll for changes every few seconds
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        FileCatalog.FileMetadata after = catalog.lookup("/file.bin");
+        while (after.size() == before.size() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            after = catalog.lookup("/file.bin");
+        }
+        assertThat(after.size()).isEqualTo(200);
+        assertThat(after.eTag()).isNotEqualTo(before.eTag());
+    }
+}
@@ -0,0 +1,88 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FileChannelPoolTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void sharesOneChannelBetweenLeases() throws Exception {
+        FileCatalog.FileMetadata file = file("a.bin", 10, "\"v1\"");
+        FileChannelPool pool = new FileChannelPool(4);
+
+        FileChannel first;
+        try (FileChannelPool.Lease a = pool.acquire(file); FileChannelPool.Lease b = pool.acquire(file)) {
+            first = a.channel();
+            assertThat(b.channel()).isSameAs(first);
+        }
+        try (FileChannelPool.Lease c = pool.acquire(file)) {
+            assertThat(c.channel()).isSameAs(first);
+            assertThat(c.channel().isOpen()).isTrue();
+        }
+        assertThat(pool.openChannels()).isEqualTo(1);
+    }
+
+    @Test
+    public void retiredChannelClosesWhenLastLeaseIsReleased() throws Exception {
+        FileCatalog.FileMetadata file = file("a.bin", 10, "\"v1\"");
+        FileChannelPool pool = new FileChannelPool(4);
+
+        FileChannelPool.Lease lease = pool.acquire(file);
+        pool.retire(file.path());
+        assertThat(lease.channel().isOpen()).isTrue();
+
+        lease.close();
+        assertThat(lease.channel().isOpen()).isFalse();
+        assertThat(pool.openChannels()).isZero();
+    }
+
+    @Test
+    public void newVersionGetsNewChannel() throws Exception {
+        FileCatalog.FileMetadata v1 = file("a.bin", 10, "\"v1\"");
+        FileChannelPool pool = new FileChannelPool(4);
+        FileChannelPool.Lease old = pool.acquire(v1);
+
+        FileCatalog.FileMetadata v2 = file("a.bin", 20, "\"v2\"");
+        try (FileChannelPool.Lease lease = pool.acquire(v2)) {
+            assertThat(lease.channel()).isNotSameAs(old.channel());
+            assertThat(lease.channel().size()).isEqualTo(20);
+        }
+        old.close();
+        assertThat(old.channel().isOpen()).isFalse();
+
+        // Metadata that no longer matches the file on disk is refused
+        assertThatThrownBy(() -> pool.acquire(new FileCatalog.FileMetadata(v2.path(), 10, Instant.now(), "\"v3\"")))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void closesIdleChannelsBeyondTheLimit() throws Exception {
+        FileChannelPool pool = new FileChannelPool(2);
+        FileChannel firstChannel;
+        try (FileChannelPool.Lease first = pool.acquire(file("1.bin", 1, "\"1\""))) {
+            firstChannel = first.channel();
+        }
+        pool.acquire(file("2.bin", 1, "\"2\"")).close();
+        pool.acquire(file("3.bin", 1, "\"3\"")).close();
+
+        assertThat(pool.openChannels()).isEqualTo(2);
+        assertThat(firstChannel.isOpen()).isFalse();
+    }
+
+    private FileCatalog.FileMetadata file(String name, int size, String eTag) throws IOException {
+        Path path = Files.write(dir.resolve(name), new byte[size]);
+        return new FileCatalog.FileMetadata(path, size, Instant.now(), eTag);
+    }
+}
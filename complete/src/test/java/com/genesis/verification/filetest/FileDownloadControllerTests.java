@@ -0,0 +1,355 @@
+package com.genesis.verification.filetest;
+
+import com.example.restservice.RestServiceApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = RestServiceApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class FileDownloadControllerTests {
+
+    @TempDir
+    static Path root;
+
+    private static byte[] large;
+    private static byte[] small;
+    private static byte[] medium;
+    private static byte[] json;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CompressedVariantCache compressedVariantCache;
+
+    @Autowired
+    private FileDownloadController controller;
+
+    @Autowired
+    private RangePlanner rangePlanner;
+
+    @Autowired
+    private FileCatalog catalog;
+
+    @Autowired
+    private FileChannelPool channelPool;
+
+    @Autowired
+    private DirectBufferPool bufferPool;
+
+    @Autowired
+    private DownloadProperties properties;
+
+    @Autowired
+    private DownloadMetrics metrics;
+
+    private static final String SENDFILE = "org.apache.tomcat.sendfile.";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("download.local.root", () -> root.toString());
+    }
+
+    @BeforeAll
+    static void createFiles() throws Exception {
+        Random random = new Random(7);
+        large = new byte[3 * 1024 * 1024 + 17];
+        random.nextBytes(large);
+        small = new byte[1000];
+        random.nextBytes(small);
+        medium = new byte[200 * 1024];
+        random.nextBytes(medium);
+        Files.createDirectories(root.resolve("dir"));
+        Files.write(root.resolve("dir/large.bin"), large);
+        Files.write(root.resolve("small.bin"), small);
+        Files.write(root.resolve("medium.bin"), medium);
+        json = "{\"id\": 1, \"tags\": [\"a\", \"b\"]}\n".repeat(5000).getBytes(StandardCharsets.UTF_8);
+        Files.write(root.resolve("data.json"), json);
+    }
+
+    @Test
+    public void fullDownloadSendsWholeFile() throws Exception {
+        HttpResponse<byte[]> large = get("/api/download/dir/large.bin", null);
+        HttpResponse<byte[]> small = get("/api/download/small.bin", null);
+
+        assertThat(large.statusCode()).isEqualTo(200);
+        assertThat(large.body()).isEqualTo(FileDownloadControllerTests.large);
+        assertThat(large.headers().firstValue("ETag")).isPresent();
+        assertThat(small.statusCode()).isEqualTo(200);
+        assertThat(small.body()).isEqualTo(FileDownloadControllerTests.small);
+    }
+
+    @Test
+    public void singleRangeSendsExactlyTheRange() throws Exception {
+        // Both above (sendfile) and below (pooled-buffer copy) the sendfile threshold
+        HttpResponse<byte[]> large = get("/api/download/dir/large.bin", "bytes=100000-1199999");
+        HttpResponse<byte[]> small = get("/api/download/small.bin", "bytes=10-19");
+
+        assertThat(large.statusCode()).isEqualTo(206);
+        assertThat(large.headers().firstValue("Content-Range")).hasValue("bytes 100000-1199999/" + FileDownloadControllerTests.large.length);
+        assertThat(large.body()).isEqualTo(Arrays.copyOfRange(FileDownloadControllerTests.large, 100000, 1200000));
+        assertThat(small.statusCode()).isEqualTo(206);
+        assertThat(small.body()).isEqualTo(Arrays.copyOfRange(FileDownloadControllerTests.small, 10, 20));
+    }
+
+    @Test
+    public void multipleRangesAreFramedAsMultipartByteranges() throws Exception {
+        HttpResponse<byte[]> response = get("/api/download/dir/large.bin", "bytes=0-99,2000000-2000099");
+
+        assertThat(response.statusCode()).isEqualTo(206);
+        String contentType = response.headers().firstValue("Content-Type").orElseThrow();
+        assertThat(contentType).startsWith("multipart/byteranges; boundary=");
+
+        Path rebuilt = Files.createTempFile("rebuilt", ".bin");
+        try (FileChannel out = FileChannel.open(rebuilt, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<MultipartByteRangesParser.Part> parts = new MultipartByteRangesParser().parse(
+                    new ByteArrayInputStream(response.body()), contentType.substring(contentType.indexOf('=') + 1), out);
+            assertThat(parts).extracting(MultipartByteRangesParser.Part::start).containsExactly(0L, 2000000L);
+        }
+        byte[] bytes = Files.readAllBytes(rebuilt);
+        assertThat(Arrays.copyOfRange(bytes, 0, 100)).isEqualTo(Arrays.copyOfRange(large, 0, 100));
+        assertThat(Arrays.copyOfRange(bytes, 2000000, 2000100)).isEqualTo(Arrays.copyOfRange(large, 2000000, 2000100));
+        Files.delete(rebuilt);
+    }
+
+    @Test
+    public void downloadsAreMetered() throws Exception {
+        // The second lookup is answered by the catalog
+        get("/api/download/dir/large.bin", "bytes=0-9,100-109,1000-1009");
+        get("/api/download/dir/large.bin", "bytes=0-9,100-109,1000-1009");
+
+        // The body finishes on the streaming thread, possibly after the client has the last byte
+        Timer duration = meterRegistry.get("download.duration")
+                .tags("endpoint", "local", "mode", "multipart", "outcome", "ok").timer();
+        for (int i = 0; i < 100 && duration.count() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(duration.count()).isGreaterThanOrEqualTo(2);
+        assertThat(meterRegistry.get("download.ranges").tag("endpoint", "local").summary().max()).isEqualTo(3);
+        assertThat(meterRegistry.get("download.bytes").tags("endpoint", "local", "mode", "multipart").summary().totalAmount())
+                .isGreaterThan(30);
+        assertThat(meterRegistry.get("download.cache.requests").tags("cache", "file-catalog", "result", "hit")
+                .functionCounter().count()).isPositive();
+    }
+
+    @Test
+    public void compressibleFilesAreGzippedForClientsThatAcceptIt() throws Exception {
+        HttpRequest.Builder gzip = HttpRequest.newBuilder(uri("/api/download/data.json")).header("Accept-Encoding", "gzip");
+        HttpResponse<byte[]> first = client.send(gzip.build(), HttpResponse.BodyHandlers.ofByteArray());
+        // The variant is committed once the body returns, possibly after the client has the last byte
+        for (int i = 0; i < 100 && compressedVariantCache.cachedBytes() == 0; i++) {
+            Thread.sleep(20);
+        }
+        HttpResponse<byte[]> second = client.send(gzip.build(), HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> identity = get("/api/download/data.json", null);
+        HttpResponse<byte[]> range = client.send(gzip.header("Range", "bytes=0-9").build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(first.headers().firstValue("Content-Encoding")).hasValue("gzip");
+        assertThat(first.headers().firstValue("Content-Type")).hasValue("application/json");
+        assertThat(first.headers().firstValue("ETag").orElseThrow()).startsWith("W/");
+        assertThat(CompressedVariantCacheTests.gunzip(first.body())).isEqualTo(json);
+        assertThat(first.body().length).isLessThan(json.length / 5);
+        // The second is the cached variant, with a length
+        assertThat(second.headers().firstValue("Content-Length")).hasValue(String.valueOf(second.body().length));
+        assertThat(CompressedVariantCacheTests.gunzip(second.body())).isEqualTo(json);
+
+        assertThat(identity.headers().firstValue("Content-Encoding")).isEmpty();
+        assertThat(identity.headers().firstValue("Vary")).hasValue("Accept-Encoding");
+        assertThat(identity.body()).isEqualTo(json);
+        assertThat(range.statusCode()).isEqualTo(206);
+        assertThat(range.headers().firstValue("Content-Encoding")).isEmpty();
+        assertThat(range.body()).isEqualTo(Arrays.copyOfRange(json, 0, 10));
+    }
+
+    @Test
+    public void popularSmallFilesAreServedFromMemory() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            assertThat(get("/api/download/small.bin", null).body()).isEqualTo(small);
+        }
+        double hits = meterRegistry.get("download.cache.requests").tags("cache", "hot-files", "result", "hit")
+                .functionCounter().count();
+
+        HttpResponse<byte[]> full = get("/api/download/small.bin", null);
+        HttpResponse<byte[]> range = get("/api/download/small.bin", "bytes=100-199");
+        HttpResponse<byte[]> multipart = get("/api/download/small.bin", "bytes=0-9,500-509");
+
+        assertThat(full.body()).isEqualTo(small);
+        assertThat(range.statusCode()).isEqualTo(206);
+        assertThat(range.body()).isEqualTo(Arrays.copyOfRange(small, 100, 200));
+        String body = new String(multipart.body(), StandardCharsets.ISO_8859_1);
+        assertThat(body).contains(new String(Arrays.copyOfRange(small, 0, 10), StandardCharsets.ISO_8859_1))
+                .contains(new String(Arrays.copyOfRange(small, 500, 510), StandardCharsets.ISO_8859_1));
+        assertThat(meterRegistry.get("download.cache.requests").tags("cache", "hot-files", "result", "hit")
+                .functionCounter().count()).isEqualTo(hits + 3);
+    }
+
+    @Test
+    public void conditionalAndMissingRequests() throws Exception {
+        String eTag = get("/api/download/small.bin", null).headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> notModified = client.send(HttpRequest.newBuilder(uri("/api/download/small.bin"))
+                .header("If-None-Match", eTag).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(notModified.statusCode()).isEqualTo(304);
+
+        assertThat(get("/api/download/missing.bin", null).statusCode()).isEqualTo(404);
+        assertThat(get("/api/download/dir/../../outside.bin", null).statusCode()).isIn(400, 404);
+    }
+
+    @Test
+    public void headLinksBlockSignaturesThatDeltaDownloadsUse() throws Exception {
+        HttpResponse<Void> head = client.send(HttpRequest.newBuilder(uri("/api/download/dir/large.bin"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(head.headers().firstValue("Link")).hasValue("</api/signatures/dir/large.bin>; rel=\"block-signatures\"");
+
+        HttpResponse<byte[]> manifest = get("/api/signatures/dir/large.bin", null);
+        assertThat(manifest.statusCode()).isEqualTo(200);
+        BlockSignatures signatures = BlockSignatures.read(new ByteArrayInputStream(manifest.body()));
+        assertThat(signatures.eTag()).isEqualTo(head.headers().firstValue("ETag").orElseThrow());
+        assertThat(signatures.size()).isEqualTo(large.length);
+
+        HttpResponse<byte[]> notModified = client.send(HttpRequest.newBuilder(uri("/api/signatures/dir/large.bin"))
+                .header("If-None-Match", manifest.headers().firstValue("ETag").orElseThrow()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(notModified.statusCode()).isEqualTo(304);
+        assertThat(get("/api/signatures/missing.bin", null).statusCode()).isEqualTo(404);
+
+        Path copy = root.resolve("copy.bin");
+        byte[] older = large.clone();
+        older[1_000_000] ^= 1;
+        Files.write(copy, Arrays.copyOfRange(older, 5000, older.length));
+        new RangeDownloader(client, 2, 256 * 1024).downloadDelta(uri("/api/download/dir/large.bin"), copy);
+        assertThat(Files.readAllBytes(copy)).isEqualTo(large);
+    }
+
+    @Test
+    public void segmentsAreMultiplexedOverHttp2() throws Exception {
+        assertThat(get("/api/download/dir/large.bin", "bytes=0-99").version()).isEqualTo(HttpClient.Version.HTTP_2);
+
+        Path out = root.resolve("multiplexed.bin");
+        RangeDownloader downloader = new RangeDownloader(RangeDownloader.newClients(HttpClient.Version.HTTP_2, 2), 8, 256 * 1024);
+        downloader.download(uri("/api/download/dir/large.bin"), out);
+        assertThat(Files.readAllBytes(out)).isEqualTo(large);
+    }
+
+    @Test
+    public void eligibleBodiesAreHandedToSendfile() {
+        MockHttpServletRequest full = sendfileCapable();
+        ResponseEntity<StreamingResponseBody> response = controller.download("/dir/large.bin", null, new HttpHeaders(), full);
+
+        assertThat(response.getBody()).isNull();
+        assertThat(full.getAttribute(SENDFILE + "filename")).isEqualTo(root.resolve("dir/large.bin").toString());
+        assertThat(full.getAttribute(SENDFILE + "start")).isEqualTo(0L);
+        assertThat(full.getAttribute(SENDFILE + "end")).isEqualTo((long) large.length);
+
+        MockHttpServletRequest range = sendfileCapable();
+        controller.download("/dir/large.bin", "bytes=100000-1199999", new HttpHeaders(), range);
+        assertThat(range.getAttribute(SENDFILE + "start")).isEqualTo(100000L);
+        assertThat(range.getAttribute(SENDFILE + "end")).isEqualTo(1200000L);
+
+        // Below sendfile-min-size the body is copied
+        MockHttpServletRequest small = sendfileCapable();
+        assertThat(controller.download("/small.bin", null, new HttpHeaders(), small).getBody()).isNotNull();
+        assertThat(small.getAttribute(SENDFILE + "filename")).isNull();
+    }
+
+    @Test
+    public void sendfileSizedFilesStillBecomeHot() throws Exception {
+        // Above sendfile-min-size but within hot.max-file-size
+        for (int i = 0; i < 4; i++) {
+            controller.download("/medium.bin", null, new HttpHeaders(), sendfileCapable());
+        }
+
+        MockHttpServletRequest request = sendfileCapable();
+        ResponseEntity<StreamingResponseBody> response = controller.download("/medium.bin", "bytes=100-100099",
+                new HttpHeaders(), request);
+        assertThat(request.getAttribute(SENDFILE + "filename")).isNull();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+        assertThat(body.toByteArray()).isEqualTo(Arrays.copyOfRange(medium, 100, 100100));
+    }
+
+    @Test
+    public void compressedAndShapedBodiesAreNotHandedToSendfile() {
+        HttpHeaders gzip = new HttpHeaders();
+        gzip.add(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        MockHttpServletRequest compressed = sendfileCapable();
+        ResponseEntity<StreamingResponseBody> response = controller.download("/data.json", null, gzip, compressed);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getBody()).isNotNull();
+        assertThat(compressed.getAttribute(SENDFILE + "filename")).isNull();
+
+        // The shaper can only pace bytes that pass through the body
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 1024 * 1024, 64 * 1024, 0, 100,
+                new ClientIdentity("X-Api-Key", Map.of()));
+        FileDownloadController shaped = new FileDownloadController(rangePlanner, catalog, channelPool, bufferPool,
+                properties, metrics, provider(CompressedVariantCache.class, null), provider(BandwidthShaper.class, shaper),
+                provider(BlockSignatureCache.class, null), provider(HotFileCache.class, null));
+        MockHttpServletRequest throttled = sendfileCapable();
+        assertThat(shaped.download("/dir/large.bin", null, new HttpHeaders(), throttled).getBody()).isNotNull();
+        assertThat(throttled.getAttribute(SENDFILE + "filename")).isNull();
+        assertThat(throttled.getAttribute(SENDFILE + "start")).isNull();
+    }
+
+    private static MockHttpServletRequest sendfileCapable() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/download");
+        request.setAttribute(SENDFILE + "support", Boolean.TRUE);
+        return request;
+    }
+
+    private static <T> ObjectProvider<T> provider(Class<T> type, T bean) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        if (bean != null) {
+            beans.addBean(type.getSimpleName(), bean);
+        }
+        return beans.getBeanProvider(type);
+    }
+
+    private HttpResponse<byte[]> get(String path, String range) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path));
+        if (range != null) {
+            request.header("Range", range);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,193 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgingS3ClientTests {
+
+    private static final byte[] OBJECT = new byte[64 * 1024];
+    private static final long MS = 1_000_000;
+
+    static {
+        new Random(11).nextBytes(OBJECT);
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> gets = new CopyOnWriteArrayList<>();
+    private final CountDownLatch slowAnswers = new CountDownLatch(1);
+
+    // Per GET, in order: how it behaves; GETs past the end answer at once with the whole range
+    private volatile List<Behaviour> behaviours = List.of();
+
+    private enum Behaviour { SLOW_ANSWER, STALL_AFTER_1000, FAIL_AFTER_1000 }
+
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT)
+            .beforeGet((request, call) -> {
+                gets.add((request.range() != null ? request.range() : "full")
+                        + (request.ifMatch() != null ? " " + request.ifMatch() : ""));
+                if (behaviour(call) == Behaviour.SLOW_ANSWER) {
+                    try {
+                        slowAnswers.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            })
+            .bodies((request, call, start, end) -> new Body(start, end, behaviour(call)));
+
+    @AfterEach
+    public void shutdown() {
+        slowAnswers.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void slowGetIsHedgedAndTheLoserAborted() throws Exception {
+        behaviours = List.of(Behaviour.SLOW_ANSWER);
+        try (HedgingS3Client client = client(50 * MS, 60_000 * MS, 3)) {
+            long started = System.nanoTime();
+            try (InputStream in = client.getObject(request("bytes=100-999"))) {
+                assertThat(in.readAllBytes()).isEqualTo(slice(100, 999));
+            }
+            assertThat(System.nanoTime() - started).isLessThan(5_000 * MS);
+            assertThat(gets).containsExactly("bytes=100-999", "bytes=100-999");
+            assertThat(client.hedged()).isEqualTo(1);
+            assertThat(client.hedgeWins()).isEqualTo(1);
+
+            // The slow GET answers after all and is thrown away
+            slowAnswers.countDown();
+            long deadline = System.nanoTime() + 5_000 * MS;
+            while (s3.aborts() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(s3.aborts()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void stalledBodyResumesFromTheLastByte() throws Exception {
+        behaviours = List.of(Behaviour.STALL_AFTER_1000);
+        try (HedgingS3Client client = client(60_000 * MS, 100 * MS, 3)) {
+            try (InputStream in = client.getObject(request(null))) {
+                assertThat(in.readAllBytes()).isEqualTo(OBJECT);
+            }
+            assertThat(gets).containsExactly("full", "bytes=1000-65535 \"e\"");
+            assertThat(client.stalls()).isEqualTo(1);
+            assertThat(client.resumed()).isEqualTo(1);
+            assertThat(client.hedged()).isZero();
+        }
+    }
+
+    @Test
+    public void failuresPastMaxResumesReachTheCaller() throws Exception {
+        behaviours = List.of(Behaviour.FAIL_AFTER_1000, Behaviour.FAIL_AFTER_1000, Behaviour.FAIL_AFTER_1000);
+        try (HedgingS3Client client = client(60_000 * MS, 60_000 * MS, 2)) {
+            InputStream in = client.getObject(request("bytes=0-9999"));
+            byte[] buffer = new byte[20_000];
+            int read = 0;
+            IOException failure = null;
+            try {
+                for (int n; (n = in.read(buffer, read, buffer.length - read)) > 0; ) {
+                    read += n;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            in.close();
+
+            assertThat(failure).hasMessage("connection reset");
+            assertThat(read).isEqualTo(3000);
+            assertThat(Arrays.copyOf(buffer, read)).isEqualTo(slice(0, 2999));
+            assertThat(gets).containsExactly("bytes=0-9999", "bytes=1000-9999 \"e\"", "bytes=2000-9999 \"e\"");
+            assertThat(client.resumed()).isEqualTo(2);
+        }
+    }
+
+    private HedgingS3Client client(long maxDelayNanos, long maxStallNanos, int maxResumes) {
+        return new HedgingS3Client(s3, executor, 60_000 * MS, 0.95, 10 * MS, maxDelayNanos, 1.0,
+                4, 10 * MS, maxStallNanos, maxResumes);
+    }
+
+    private static GetObjectRequest request(String range) {
+        return GetObjectRequest.builder().bucket("b").key("k").range(range).build();
+    }
+
+    private static byte[] slice(int start, int end) {
+        return Arrays.copyOfRange(OBJECT, start, end + 1);
+    }
+
+    private Behaviour behaviour(int call) {
+        List<Behaviour> behaviours = this.behaviours;
+        return call < behaviours.size() ? behaviours.get(call) : null;
+    }
+
+    // Serves [start, end]; stalls or fails after 1000 bytes if told to
+    private static final class Body extends InputStream implements Abortable {
+        private final int end;
+        private final Behaviour behaviour;
+        private final CountDownLatch aborted = new CountDownLatch(1);
+        private int position;
+        private int served;
+
+        Body(int start, int end, Behaviour behaviour) {
+            this.position = start;
+            this.end = end;
+            this.behaviour = behaviour;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (aborted.getCount() == 0) {
+                throw new IOException("aborted");
+            }
+            if (position > end) {
+                return -1;
+            }
+            if (served == 1000 && behaviour == Behaviour.STALL_AFTER_1000) {
+                try {
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                throw new IOException("aborted");
+            }
+            if (served == 1000 && behaviour == Behaviour.FAIL_AFTER_1000) {
+                throw new IOException("connection reset");
+            }
+            int limit = behaviour != null ? 1000 - served : Integer.MAX_VALUE;
+            int n = Math.min(Math.min(len, limit), end - position + 1);
+            System.arraycopy(OBJECT, position, b, off, n);
+            position += n;
+            served += n;
+            return n;
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+    }
+}
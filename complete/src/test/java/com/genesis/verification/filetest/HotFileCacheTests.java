@@ -0,0 +1,114 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HotFileCacheTests {
+
+    @TempDir
+    Path dir;
+
+    private final FileChannelPool pool = new FileChannelPool(4);
+
+    @Test
+    public void promotesAfterEnoughRequests() throws Exception {
+        FileCatalog.FileMetadata file = file("a.bin", 1000, 1);
+        HotFileCache cache = new HotFileCache(pool, 4096, 1 << 20, 3, 100);
+
+        assertThat(cache.get(file)).isNull();
+        assertThat(cache.get(file)).isNull();
+        ByteBuffer contents = cache.get(file);
+
+        assertThat(contents).isNotNull();
+        assertThat(bytes(contents)).isEqualTo(Files.readAllBytes(file.path()));
+        assertThat(cache.get(file)).isNotNull();
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(3);
+        assertThat(cache.memory()).isEqualTo(1000);
+    }
+
+    @Test
+    public void changedFileIsANewVersion() throws Exception {
+        FileCatalog.FileMetadata v1 = file("a.bin", 1000, 1);
+        HotFileCache cache = new HotFileCache(pool, 4096, 1 << 20, 1, 100);
+        assertThat(cache.get(v1)).isNotNull();
+
+        FileCatalog.FileMetadata v2 = file("a.bin", 1000, 2);
+        pool.retire(v2.path());
+        assertThat(v2.eTag()).isNotEqualTo(v1.eTag());
+        assertThat(bytes(cache.get(v2))).isEqualTo(Files.readAllBytes(v2.path()));
+
+        cache.invalidate(v2.path());
+        assertThat(cache.memory()).isZero();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondMemoryBudget() throws Exception {
+        FileCatalog.FileMetadata a = file("a.bin", 1000, 1);
+        FileCatalog.FileMetadata b = file("b.bin", 1000, 2);
+        FileCatalog.FileMetadata c = file("c.bin", 1000, 3);
+        HotFileCache cache = new HotFileCache(pool, 4096, 2500, 1, 100);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        assertThat(cache.memory()).isEqualTo(2000);
+        long hits = cache.hits();
+        assertThat(cache.get(a)).isNotNull();
+        assertThat(cache.get(c)).isNotNull();
+        assertThat(cache.hits()).isEqualTo(hits + 2);
+    }
+
+    @Test
+    public void largeFilesAreNeverCounted() throws Exception {
+        FileCatalog.FileMetadata file = file("big.bin", 5000, 1);
+        HotFileCache cache = new HotFileCache(pool, 4096, 1 << 20, 1, 100);
+
+        assertThat(cache.get(file)).isNull();
+        assertThat(cache.misses()).isZero();
+    }
+
+    @Test
+    public void countsFadeWhenTooManyFilesAreTracked() throws Exception {
+        FileCatalog.FileMetadata a = file("a.bin", 100, 1);
+        FileCatalog.FileMetadata b = file("b.bin", 100, 2);
+        FileCatalog.FileMetadata c = file("c.bin", 100, 3);
+        HotFileCache cache = new HotFileCache(pool, 4096, 1 << 20, 2, 2);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(c);  // three tracked: every count halves to zero
+
+        assertThat(cache.get(a)).isNull();
+        assertThat(cache.get(a)).isNotNull();
+    }
+
+    private FileCatalog.FileMetadata file(String name, int size, int seed) throws Exception {
+        Path path = dir.resolve(name);
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        Files.write(path, data);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.ofEpochSecond(1_700_000_000L + seed)));
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileCatalog.FileMetadata(path, attrs.size(), attrs.lastModifiedTime().toInstant(),
+                ConditionalRequests.fileETag(attrs));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
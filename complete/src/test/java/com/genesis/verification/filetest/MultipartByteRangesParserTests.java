@@ -0,0 +1,109 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MultipartByteRangesParserTests {
+
+    private static final String BOUNDARY = "MULTIPART_BYTERANGES_BOUNDARY_42";
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    public void reconstructsPartsAtTheirOffsets() throws Exception {
+        byte[] source = randomBytes(100_000);
+        long[][] ranges = { { 0, 29_999 }, { 30_000, 69_999 }, { 70_000, 99_999 } };
+        byte[] response = multipart(source, ranges, true);
+
+        Path out = tmp.resolve("out.bin");
+        List<MultipartByteRangesParser.Part> parts = parse(response, null, out, 8 * 1024);
+
+        assertThat(parts).hasSize(3);
+        assertThat(Files.readAllBytes(out)).isEqualTo(source);
+    }
+
+    @Test
+    public void toleratesMissingCrlfBeforeClosingDelimiter() throws Exception {
+        // Body ends in CRLF itself, and the writer omits the delimiter CRLF after the last part
+        byte[] source = "0123456789\r\nABCDEFGH\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        long[][] ranges = { { 0, 11 }, { 12, source.length - 1 } };
+        byte[] response = multipart(source, ranges, false);
+
+        Path out = tmp.resolve("out.bin");
+        parse(response, BOUNDARY, out, 8 * 1024);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(source);
+    }
+
+    @Test
+    public void findsDelimiterAcrossChunkBoundaries() throws Exception {
+        byte[] source = randomBytes(64 * 1024 + 17);
+        long[][] ranges = new long[40][];
+        int step = source.length / ranges.length;
+        for (int i = 0; i < ranges.length; i++) {
+            long end = i == ranges.length - 1 ? source.length - 1 : (long) (i + 1) * step - 1;
+            ranges[i] = new long[] { (long) i * step, end };
+        }
+        byte[] response = multipart(source, ranges, true);
+
+        Path out = tmp.resolve("out.bin");
+        parse(response, BOUNDARY, out, 1);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(source);
+    }
+
+    @Test
+    public void failsOnTruncatedPart() throws Exception {
+        byte[] source = randomBytes(10_000);
+        byte[] response = multipart(source, new long[][] { { 0, 4_999 }, { 5_000, 9_999 } }, true);
+        byte[] truncated = Arrays.copyOf(response, response.length - 3_000);
+
+        assertThatThrownBy(() -> parse(truncated, BOUNDARY, tmp.resolve("out.bin"), 8 * 1024))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static List<MultipartByteRangesParser.Part> parse(byte[] response, String boundary, Path out, int chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            return new MultipartByteRangesParser(chunkSize).parse(new ByteArrayInputStream(response), boundary, channel);
+        }
+    }
+
+    private static byte[] multipart(byte[] source, long[][] ranges, boolean crlfBeforeClose) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < ranges.length; i++) {
+            long start = ranges[i][0];
+            long end = ranges[i][1];
+            out.writeBytes(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.writeBytes("Content-Type: application/octet-stream\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.writeBytes(("Content-Range: bytes " + start + "-" + end + "/" + source.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(source, (int) start, (int) (end - start + 1));
+            if (crlfBeforeClose || i < ranges.length - 1) {
+                out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        out.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,54 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultipartFrameWriterTests {
+
+    @Test
+    public void framesMatchTheMultipartByterangesFormat() throws Exception {
+        MultipartFrameWriter frames = new MultipartFrameWriter("B0UND", "text/plain");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        frames.writePartHeader(out, new ByteRange(0, 9), 1000);
+        out.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+        frames.writePartEnd(out);
+        frames.writePartHeader(out, new ByteRange(990, 999), Long.MAX_VALUE);
+        frames.writePartEnd(out);
+        frames.writeClose(out);
+
+        assertThat(out.toString(StandardCharsets.US_ASCII)).isEqualTo(
+                "--B0UND\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-9/1000\r\n\r\n0123456789\r\n"
+                        + "--B0UND\r\nContent-Type: text/plain\r\nContent-Range: bytes 990-999/" + Long.MAX_VALUE + "\r\n\r\n\r\n"
+                        + "--B0UND--\r\n");
+        assertThat(frames.contentType()).isEqualTo("multipart/byteranges; boundary=B0UND");
+    }
+
+    @Test
+    public void framingPartsDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MultipartFrameWriter frames = new MultipartFrameWriter("B0UND", "application/octet-stream");
+        ByteRange part = new ByteRange(123_456_789L, 987_654_321L);
+        OutputStream sink = OutputStream.nullOutputStream();
+
+        for (int i = 0; i < 20_000; i++) {
+            frames.writePartHeader(sink, part, 1L << 40);
+            frames.writePartEnd(sink);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 50_000; i++) {
+            frames.writePartHeader(sink, part, 1L << 40);
+            frames.writePartEnd(sink);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        // The string-concatenating version allocated several hundred bytes per part
+        assertThat(allocated / 50_000).isLessThan(8);
+    }
+}
@@ -0,0 +1,208 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MultipartUploaderTests {
+
+    private static final int PART = 64 * 1024;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final FakeS3 s3 = new FakeS3();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void streamsPartsConcurrentlyWithinTheWindow() throws Exception {
+        byte[] body = random(10 * PART + 123);
+        MultipartUploader uploader = new MultipartUploader(s3, executor, PART, 3, 8);
+
+        // Unknown length, as with a chunked request
+        MultipartUploader.Result result = uploader.upload("b", "k", "text/csv", -1, new ByteArrayInputStream(body));
+
+        assertThat(result.parts()).isEqualTo(11);
+        assertThat(result.size()).isEqualTo(body.length);
+        assertThat(result.sha256()).isEqualTo(Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body)));
+        assertThat(s3.assembled()).isEqualTo(body);
+        assertThat(s3.maxInFlight.get()).isBetween(1, 3);
+        assertThat(s3.completedParts).extracting(CompletedPart::partNumber).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+        assertThat(s3.completedParts).allSatisfy(part -> assertThat(part.checksumCRC32C()).isNotBlank());
+        assertThat(s3.aborted).isZero();
+    }
+
+    @Test
+    public void smallBodiesArePutInOneRequest() throws Exception {
+        byte[] body = random(1000);
+        MultipartUploader uploader = new MultipartUploader(s3, executor, PART, 3, 8);
+
+        MultipartUploader.Result result = uploader.upload("b", "k", null, body.length, new ByteArrayInputStream(body));
+
+        assertThat(result.parts()).isEqualTo(1);
+        assertThat(s3.put).isEqualTo(body);
+        assertThat(s3.parts).isEmpty();
+    }
+
+    @Test
+    public void clientDisconnectAbortsTheUpload() {
+        byte[] body = random(3 * PART);
+        InputStream disconnecting = new SequenceInputStream(new ByteArrayInputStream(body), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        });
+        MultipartUploader uploader = new MultipartUploader(s3, executor, PART, 2, 8);
+
+        assertThatThrownBy(() -> uploader.upload("b", "k", null, -1, disconnecting)).hasMessageContaining("reset");
+        assertThat(s3.aborted).isEqualTo(1);
+        assertThat(s3.completedParts).isEmpty();
+    }
+
+    @Test
+    public void shortBodiesAndFailedPartsAbortTheUpload() {
+        MultipartUploader uploader = new MultipartUploader(s3, executor, PART, 2, 8);
+
+        assertThatThrownBy(() -> uploader.upload("b", "k", null, 5L * PART, new ByteArrayInputStream(random(3 * PART))))
+                .isInstanceOf(EOFException.class);
+        assertThat(s3.aborted).isEqualTo(1);
+
+        s3.failPart = 2;
+        assertThatThrownBy(() -> uploader.upload("b", "k", null, -1, new ByteArrayInputStream(random(6 * PART))))
+                .isInstanceOf(S3Exception.class);
+        assertThat(s3.aborted).isEqualTo(2);
+        assertThat(s3.completedParts).isEmpty();
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static final class FakeS3 implements S3Client {
+        final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        final List<CompletedPart> completedParts = new CopyOnWriteArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile int aborted;
+        volatile int failPart;
+        volatile byte[] put;
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            parts.clear();
+            return CreateMultipartUploadResponse.builder().uploadId("u1").build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+                if (request.partNumber() == failPart) {
+                    throw (S3Exception) S3Exception.builder().statusCode(500).message("Internal error").build();
+                }
+                byte[] bytes = read(body);
+                assertThat(request.checksumCRC32C()).isEqualTo(crc32c(bytes));
+                parts.put(request.partNumber(), bytes);
+                return UploadPartResponse.builder().eTag("\"p" + request.partNumber() + "\"").build();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            completedParts.addAll(request.multipartUpload().parts());
+            return CompleteMultipartUploadResponse.builder().eTag("\"done-" + parts.size() + "\"").build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborted++;
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            put = read(body);
+            return PutObjectResponse.builder().eTag("\"single\"").build();
+        }
+
+        byte[] assembled() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 1; i <= parts.size(); i++) {
+                out.writeBytes(parts.get(i));
+            }
+            return out.toByteArray();
+        }
+
+        private static byte[] read(RequestBody body) {
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String crc32c(byte[] bytes) {
+            CRC32C crc = new CRC32C();
+            crc.update(bytes);
+            long value = crc.getValue();
+            return Base64.getEncoder().encodeToString(Arrays.copyOfRange(
+                    ByteBuffer.allocate(8).putLong(value).array(), 4, 8));
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrderedPrefetcherTests {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writesPartsInOrderWithinWindow() throws Exception {
+        OrderedPrefetcher prefetcher = new OrderedPrefetcher(executor, new DirectBufferPool(1024, 16), 3, 2);
+        List<Integer> items = IntStream.range(0, 10).boxed().toList();
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger maxOpen = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        prefetcher.run(items, i -> {
+            maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+            sleep(10 - i);  // later parts complete first
+            return new ByteArrayInputStream(part(i)) {
+                @Override
+                public void close() {
+                    open.decrementAndGet();
+                }
+            };
+        }, (i, in) -> in.transferTo(out));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        items.forEach(i -> expected.writeBytes(part(i)));
+        assertThat(out.toByteArray()).isEqualTo(expected.toByteArray());
+        assertThat(maxOpen.get()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void propagatesFetchFailureInOrder() {
+        OrderedPrefetcher prefetcher = new OrderedPrefetcher(executor, new DirectBufferPool(1024, 16), 4, 2);
+        List<Integer> seen = new ArrayList<>();
+
+        assertThatThrownBy(() -> prefetcher.run(List.of(0, 1, 2), i -> {
+            if (i == 1) {
+                throw new IOException("boom");
+            }
+            return new ByteArrayInputStream(part(i));
+        }, (i, in) -> {
+            in.transferTo(OutputStream.nullOutputStream());
+            seen.add(i);
+        })).hasMessage("boom");
+        assertThat(seen).containsExactly(0);
+    }
+
+    private static byte[] part(int i) {
+        byte[] b = new byte[3000 + i];
+        Arrays.fill(b, (byte) i);
+        return b;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
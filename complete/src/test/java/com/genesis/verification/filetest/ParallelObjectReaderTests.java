@@ -0,0 +1,90 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelObjectReaderTests {
+
+    private static final int PART = 64 * 1024;
+    private static final byte[] OBJECT = new byte[5 * PART + 1000];
+
+    static {
+        new Random(3).nextBytes(OBJECT);
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final DirectBufferPool pool = new DirectBufferPool(16 * 1024, 64);
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT).partSize(PART).beforeGet((request, call) -> {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            RangeServingS3.delay(20).beforeGet(request, call);
+        } finally {
+            active.decrementAndGet();
+        }
+    });
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void rangesAreFetchedConcurrentlyAndWrittenInOrder() throws Exception {
+        ParallelObjectReader reader = reader(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(reader.tryWrite("b", "k", "\"0123abcd\"", OBJECT.length, out)).isTrue();
+
+        assertThat(out.toByteArray()).isEqualTo(OBJECT);
+        assertThat(maxActive.get()).isGreaterThan(1);
+    }
+
+    @Test
+    public void multipartUploadsAreFetchedByPartNumberWithChecksums() throws Exception {
+        ParallelObjectReader reader = reader(2);
+
+        List<GetObjectRequest> plan = reader.plan("b", "k", "\"0123abcd-6\"", OBJECT.length);
+        assertThat(plan).hasSize(6);
+        assertThat(plan).allSatisfy(r -> {
+            assertThat(r.range()).isNull();
+            assertThat(r.checksumMode()).isEqualTo(ChecksumMode.ENABLED);
+            assertThat(r.ifMatch()).isEqualTo("\"0123abcd-6\"");
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(reader.tryWrite("b", "k", "\"0123abcd-6\"", OBJECT.length, out)).isTrue();
+        assertThat(out.toByteArray()).isEqualTo(OBJECT);
+    }
+
+    @Test
+    public void hugePartsFallBackToRanges() {
+        assertThat(reader(2).plan("b", "k", "\"0123abcd-2\"", 100L * PART)).hasSize(100);
+        assertThat(ParallelObjectReader.partCount("\"0123abcd\"")).isZero();
+        assertThat(ParallelObjectReader.partCount("\"0123abcd-12\"")).isEqualTo(12);
+    }
+
+    @Test
+    public void refusesBeyondMaxDownloads() throws Exception {
+        ParallelObjectReader reader = reader(0);
+
+        assertThat(reader.tryWrite("b", "k", "\"0123abcd\"", OBJECT.length, new ByteArrayOutputStream())).isFalse();
+    }
+
+    private ParallelObjectReader reader(int maxDownloads) {
+        OrderedPrefetcher prefetcher = new OrderedPrefetcher(executor, pool, 4, PART / pool.bufferSize());
+        return new ParallelObjectReader(s3, prefetcher, PART, maxDownloads);
+    }
+}
@@ -0,0 +1,269 @@
+package com.genesis.verification.filetest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RangeDownloaderTests {
+
+    private static final byte[] CONTENT = new byte[3 * 1024 * 1024 + 123];
+
+    static {
+        new Random(7).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path tmp;
+
+    private HttpServer server;
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile String eTag = "\"v1\"";
+    private volatile long failRangeStart = -1;
+    private volatile String eTagAfterHead;
+    private volatile byte[] signatures;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file", this::serve);
+        server.createContext("/signatures/file", this::serveSignatures);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsAllSegmentsWithBoundedConcurrency() throws Exception {
+        Path out = tmp.resolve("out.bin");
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 3, 256 * 1024);
+
+        long size = downloader.download(uri(), out);
+
+        assertThat(size).isEqualTo(CONTENT.length);
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(13);
+        assertThat(maxActive.get()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void resumesOnlyMissingSegments() throws Exception {
+        Path out = tmp.resolve("out.bin");
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 2, 256 * 1024);
+
+        failRangeStart = 5 * 256 * 1024;
+        assertThatThrownBy(() -> downloader.download(uri(), out)).isInstanceOf(IOException.class);
+        assertThat(SegmentJournal.pathFor(out)).exists();
+
+        failRangeStart = -1;
+        rangeRequests.set(0);
+        downloader.download(uri(), out);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(1);
+        assertThat(SegmentJournal.pathFor(out)).doesNotExist();
+    }
+
+    @Test
+    public void refetchesCorruptSegments() throws Exception {
+        Path out = tmp.resolve("out.bin");
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 2, 256 * 1024);
+
+        failRangeStart = 12 * 256 * 1024;
+        assertThatThrownBy(() -> downloader.download(uri(), out)).isInstanceOf(IOException.class);
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 300 * 1024);
+        }
+
+        failRangeStart = -1;
+        rangeRequests.set(0);
+        downloader.download(uri(), out);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void restartsWhenSourceChangesMidDownload() throws Exception {
+        Path out = tmp.resolve("out.bin");
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 2, 256 * 1024);
+
+        eTagAfterHead = "\"v2\"";
+        downloader.download(uri(), out);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(SegmentJournal.pathFor(out)).doesNotExist();
+    }
+
+    @Test
+    public void http2ClientsFallBackToHttp11() throws Exception {
+        Path out = tmp.resolve("out.bin");
+        RangeDownloader downloader = new RangeDownloader(RangeDownloader.newClients(HttpClient.Version.HTTP_2, 2), 3, 256 * 1024);
+
+        downloader.download(uri(), out);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(13);
+    }
+
+    @Test
+    public void deltaFetchesOnlyBlocksTheCopyLacks() throws Exception {
+        signatures = sign(64 * 1024, eTag);
+        Path out = tmp.resolve("out.bin");
+        // 1000 bytes inserted into block 1 shift every later block; block 30 is modified
+        byte[] copy = new byte[CONTENT.length + 1000];
+        System.arraycopy(CONTENT, 0, copy, 0, 100_000);
+        System.arraycopy(CONTENT, 100_000, copy, 101_000, CONTENT.length - 100_000);
+        copy[2_000_000 + 1000] ^= 1;
+        Files.write(out, copy);
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 2, 256 * 1024);
+
+        long size = downloader.downloadDelta(uri(), out);
+
+        assertThat(size).isEqualTo(CONTENT.length);
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void deltaDownloadsWholeWhenSignaturesAreStale() throws Exception {
+        signatures = sign(64 * 1024, "\"v0\"");
+        Path out = tmp.resolve("out.bin");
+        Files.write(out, Arrays.copyOf(CONTENT, 1000));
+        RangeDownloader downloader = new RangeDownloader(HttpClient.newHttpClient(), 2, 256 * 1024);
+
+        downloader.downloadDelta(uri(), out);
+
+        assertThat(Files.readAllBytes(out)).isEqualTo(CONTENT);
+        assertThat(rangeRequests.get()).isEqualTo(13);
+    }
+
+    @Test
+    public void splitCoversWholeObject() {
+        assertThat(RangeDownloader.split(10, 4)).containsExactly(new long[] { 0, 3 }, new long[] { 4, 7 }, new long[] { 8, 9 });
+    }
+
+    @Test
+    public void parsesCommandLine() {
+        RangeDownloader.Options defaults = RangeDownloader.Options.parse("http://host/f", "out.bin");
+        assertThat(defaults.uri()).isEqualTo(URI.create("http://host/f"));
+        assertThat(defaults.out()).isEqualTo(Path.of("out.bin"));
+        assertThat(defaults.concurrency()).isEqualTo(RangeDownloader.DEFAULT_CONCURRENCY);
+        assertThat(defaults.segmentSize()).isEqualTo(RangeDownloader.DEFAULT_SEGMENT_SIZE);
+        assertThat(defaults.delta()).isFalse();
+        assertThat(defaults.http2()).isFalse();
+        assertThat(defaults.connections()).isEqualTo(RangeDownloader.DEFAULT_HTTP2_CONNECTIONS);
+
+        RangeDownloader.Options options = RangeDownloader.Options.parse(
+                "--delta", "--http2", "--connections=3", "http://host/f", "out.bin", "4", "1048576");
+        assertThat(options.delta()).isTrue();
+        assertThat(options.http2()).isTrue();
+        assertThat(options.connections()).isEqualTo(3);
+        assertThat(options.concurrency()).isEqualTo(4);
+        assertThat(options.segmentSize()).isEqualTo(1048576);
+    }
+
+    @Test
+    public void rejectsMalformedCommandLine() {
+        assertThatThrownBy(() -> RangeDownloader.Options.parse("http://host/f")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RangeDownloader.Options.parse("--fast", "http://host/f", "out.bin")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RangeDownloader.Options.parse("--connections=0", "http://host/f", "out.bin")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RangeDownloader.Options.parse("http://host/f", "out.bin", "eight")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RangeDownloader.Options.parse("http://host/f", "out.bin", "8", "0")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/file");
+    }
+
+    private byte[] sign(int blockSize, String signedETag) throws IOException {
+        Path source = tmp.resolve("source.bin");
+        Files.write(source, CONTENT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(source)) {
+            BlockSignatures.compute(channel, CONTENT.length, blockSize, signedETag).writeTo(out);
+        }
+        return out.toByteArray();
+    }
+
+    private void serveSignatures(HttpExchange exchange) throws IOException {
+        byte[] body = signatures;
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(200, body.length);
+            out.write(body);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("ETag", eTag);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            if (signatures != null) {
+                exchange.getResponseHeaders().add("Link", "</signatures/file>; rel=\"block-signatures\"");
+            }
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(CONTENT.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            if (eTagAfterHead != null) {
+                eTag = eTagAfterHead;
+                eTagAfterHead = null;
+            }
+            return;
+        }
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(eTag)) {
+            range = null;
+        }
+        int start = 0;
+        int end = CONTENT.length - 1;
+        int status = 200;
+        if (range != null) {
+            String[] p = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(p[0]);
+            end = Math.min(Integer.parseInt(p[1]), CONTENT.length - 1);
+            status = 206;
+            rangeRequests.incrementAndGet();
+            if (start == failRangeStart) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+        }
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(status, end - start + 1);
+            out.write(CONTENT, start, end - start + 1);
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRange;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RangePlannerTests {
+
+    private final RangePlanner planner = new RangePlanner(10, 100, 1_000);
+
+    @Test
+    public void keepsTheClientsRangesAndOrder() {
+        RangePlanner.Plan plan = planner.plan(HttpRange.parseRanges("bytes=500-599,0-99,50-149,150-199"), 10_000);
+
+        assertThat(plan.parts()).containsExactly(new ByteRange(500, 599), new ByteRange(0, 99),
+                new ByteRange(50, 149), new ByteRange(150, 199));
+        // 500-599 is too far from the rest to join them; the overlapping rest is read once
+        assertThat(plan.fetches()).containsExactly(
+                new RangePlanner.Fetch(new ByteRange(500, 599), List.of(new ByteRange(500, 599)), false),
+                new RangePlanner.Fetch(new ByteRange(0, 199),
+                        List.of(new ByteRange(0, 99), new ByteRange(50, 149), new ByteRange(150, 199)), true));
+        assertThat(plan.sources()).containsExactly(0, 1, 1, 1);
+    }
+
+    @Test
+    public void overlappingPartsShareOneRead() {
+        RangePlanner.Plan plan = planner.plan(HttpRange.parseRanges("bytes=0-499,250-749,700-799"), 10_000);
+
+        assertThat(plan.fetches()).extracting(RangePlanner.Fetch::range).containsExactly(new ByteRange(0, 799));
+        assertThat(plan.fetches().get(0).buffered()).isTrue();
+        assertThat(plan.sources()).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    public void reversedPartsShareOneRead() {
+        RangePlanner.Plan plan = planner.plan(HttpRange.parseRanges("bytes=300-399,150-249,0-99"), 10_000);
+
+        assertThat(plan.parts()).containsExactly(new ByteRange(300, 399), new ByteRange(150, 249), new ByteRange(0, 99));
+        assertThat(plan.fetches()).containsExactly(new RangePlanner.Fetch(new ByteRange(0, 399), plan.parts(), true));
+
+        // Far apart, each part needs its own read anyway; they are issued in the client's order
+        RangePlanner.Plan apart = planner.plan(HttpRange.parseRanges("bytes=5000-5099,0-99"), 10_000);
+        assertThat(apart.fetches()).extracting(RangePlanner.Fetch::range)
+                .containsExactly(new ByteRange(5000, 5099), new ByteRange(0, 99));
+        assertThat(apart.fetches()).noneMatch(RangePlanner.Fetch::buffered);
+        assertThat(apart.sources()).containsExactly(0, 1);
+    }
+
+    @Test
+    public void readsAgainRatherThanBufferBeyondTheLimit() {
+        RangePlanner small = new RangePlanner(10, 100, 500);
+
+        RangePlanner.Plan plan = small.plan(HttpRange.parseRanges("bytes=0-399,200-599,600-699"), 10_000);
+
+        // 0-699 does not fit in 500 bytes: one read per ascending run
+        assertThat(plan.fetches()).containsExactly(
+                new RangePlanner.Fetch(new ByteRange(0, 399), List.of(new ByteRange(0, 399)), false),
+                new RangePlanner.Fetch(new ByteRange(200, 699),
+                        List.of(new ByteRange(200, 599), new ByteRange(600, 699)), false));
+        assertThat(plan.sources()).containsExactly(0, 1, 1);
+    }
+
+    @Test
+    public void coalescesNearbyPartsIntoOneFetch() {
+        RangePlanner.Plan plan = planner.plan(HttpRange.parseRanges("bytes=0-99,200-299,1000-1099"), 10_000);
+
+        assertThat(plan.parts()).hasSize(3);
+        assertThat(plan.fetches()).hasSize(2);
+        assertThat(plan.fetches().get(0).range()).isEqualTo(new ByteRange(0, 299));
+        assertThat(plan.fetches().get(0).parts()).containsExactly(new ByteRange(0, 99), new ByteRange(200, 299));
+        assertThat(plan.fetches().get(1).range()).isEqualTo(new ByteRange(1000, 1099));
+        assertThat(plan.fetches()).noneMatch(RangePlanner.Fetch::buffered);
+    }
+
+    @Test
+    public void dropsUnsatisfiableRanges() {
+        RangePlanner.Plan plan = planner.plan(HttpRange.parseRanges("bytes=5000-6000,-50"), 1_000);
+
+        assertThat(plan.parts()).containsExactly(new ByteRange(950, 999));
+        assertThat(planner.plan(HttpRange.parseRanges("bytes=5000-"), 1_000).isSatisfiable()).isFalse();
+    }
+
+    @Test
+    public void rejectsOverlapsThatAmplifyTheResource() {
+        assertThatThrownBy(() -> planner.plan(HttpRange.parseRanges("bytes=0-,0-"), 1_000))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(planner.plan(HttpRange.parseRanges("bytes=0-599,400-799"), 1_000).parts()).hasSize(2);
+    }
+
+    @Test
+    public void rejectsTooManyRanges() {
+        assertThatThrownBy(() -> planner.plan(HttpRange.parseRanges("bytes=0-0,2-2,4-4,6-6,8-8,10-10,12-12,14-14,16-16,18-18,20-20"), 1_000))
+                .isInstanceOf(RangePlanner.TooManyRangesException.class);
+    }
+}
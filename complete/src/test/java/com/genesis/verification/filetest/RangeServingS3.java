@@ -0,0 +1,156 @@
+package com.genesis.verification.filetest;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * S3 holding one object in memory. GETs are answered whole, by range or by part number,
+ * HEADs honour If-None-Match. Tests hook in before each GET to count, delay or fail it,
+ * and may replace the bodies; a body that is {@link Abortable} is told when it is aborted.
+ */
+final class RangeServingS3 implements S3Client {
+
+    /** Runs on the calling thread before GET number {@code call} (from 0) is answered. */
+    @FunctionalInterface
+    interface Hook {
+        void beforeGet(GetObjectRequest request, int call);
+    }
+
+    /** The body of GET number {@code call}, serving object bytes [start, end]. */
+    @FunctionalInterface
+    interface Bodies {
+        InputStream body(GetObjectRequest request, int call, int start, int end);
+    }
+
+    /** Holds every GET up for {@code millis}, as a slow network would. */
+    static Hook delay(long millis) {
+        return (request, call) -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private final byte[] object;
+    private final List<String> gets = new CopyOnWriteArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger aborts = new AtomicInteger();
+    private final AtomicInteger heads = new AtomicInteger();
+    private final AtomicInteger conditionalHeads = new AtomicInteger();
+
+    private volatile String eTag = "\"e\"";
+    private volatile int partSize;
+    private volatile Hook hook = (request, call) -> { };
+    private volatile Bodies bodies;
+
+    RangeServingS3(byte[] object) {
+        this.object = object;
+        this.bodies = (request, call, start, end) -> new ByteArrayInputStream(object, start, end - start + 1);
+    }
+
+    RangeServingS3 eTag(String eTag) {
+        this.eTag = eTag;
+        return this;
+    }
+
+    /** Serves part numbers as parts of this size, the last one holding the remainder. */
+    RangeServingS3 partSize(int partSize) {
+        this.partSize = partSize;
+        return this;
+    }
+
+    RangeServingS3 beforeGet(Hook hook) {
+        this.hook = hook;
+        return this;
+    }
+
+    RangeServingS3 bodies(Bodies bodies) {
+        this.bodies = bodies;
+        return this;
+    }
+
+    /** Range header of every GET so far, "full" for whole-object GETs. */
+    List<String> gets() {
+        return gets;
+    }
+
+    int aborts() {
+        return aborts.get();
+    }
+
+    int heads() {
+        return heads.get();
+    }
+
+    int conditionalHeads() {
+        return conditionalHeads.get();
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        int call = calls.getAndIncrement();
+        gets.add(request.range() != null ? request.range() : "full");
+        hook.beforeGet(request, call);
+
+        int start = 0;
+        int end = object.length - 1;
+        if (request.partNumber() != null) {
+            start = (request.partNumber() - 1) * partSize;
+            end = Math.min(start + partSize, object.length) - 1;
+        } else if (request.range() != null) {
+            String[] bounds = request.range().substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Integer.parseInt(bounds[1]);
+        }
+        boolean partial = request.partNumber() != null || request.range() != null;
+        GetObjectResponse response = GetObjectResponse.builder()
+                .eTag(eTag)
+                .contentLength((long) end - start + 1)
+                .contentRange(partial ? "bytes " + start + "-" + end + "/" + object.length : null)
+                .build();
+        InputStream body = bodies.body(request, call, start, end);
+        return new ResponseInputStream<>(response, AbortableInputStream.create(body, () -> {
+            aborts.incrementAndGet();
+            if (body instanceof Abortable abortable) {
+                abortable.abort();
+            }
+        }));
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        heads.incrementAndGet();
+        String current = eTag;
+        if (request.ifNoneMatch() != null) {
+            conditionalHeads.incrementAndGet();
+            if (request.ifNoneMatch().equals(current)) {
+                throw (S3Exception) S3Exception.builder().statusCode(304).build();
+            }
+        }
+        return HeadObjectResponse.builder().contentLength((long) object.length).eTag(current).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+}
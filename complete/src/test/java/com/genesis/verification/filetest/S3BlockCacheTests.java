@@ -0,0 +1,128 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class S3BlockCacheTests {
+
+    private static final int BLOCK = 64 * 1024;
+    private static final byte[] OBJECT = new byte[10 * BLOCK + 500];
+
+    static {
+        new Random(3).nextBytes(OBJECT);
+    }
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT).beforeGet(RangeServingS3.delay(20));
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void servesRangesAcrossBlocksAndHitsCacheOnRepeat() throws Exception {
+        S3BlockCache cache = new S3BlockCache(s3, executor, dir, BLOCK, 100L * BLOCK);
+
+        assertThat(read(cache, new ByteRange(BLOCK - 10, 3L * BLOCK + 10))).isEqualTo(slice(BLOCK - 10, 3 * BLOCK + 10));
+        int afterFirst = s3.gets().size();
+        assertThat(afterFirst).isEqualTo(4);
+
+        assertThat(read(cache, new ByteRange(BLOCK, 2L * BLOCK))).isEqualTo(slice(BLOCK, 2 * BLOCK));
+        assertThat(s3.gets()).hasSize(afterFirst);
+
+        assertThat(read(cache, new ByteRange(10L * BLOCK, OBJECT.length - 1))).isEqualTo(slice(10 * BLOCK, OBJECT.length - 1));
+    }
+
+    @Test
+    public void concurrentMissesShareOneFetch() throws Exception {
+        S3BlockCache cache = new S3BlockCache(s3, executor, dir, BLOCK, 100L * BLOCK);
+        List<CompletableFuture<byte[]>> readers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            readers.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return read(cache, new ByteRange(100, 200));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<byte[]> reader : readers) {
+            assertThat(reader.get()).isEqualTo(slice(100, 200));
+        }
+        assertThat(s3.gets()).hasSize(1);
+    }
+
+    @Test
+    public void evictsBeyondBudget() throws Exception {
+        S3BlockCache cache = new S3BlockCache(s3, executor, dir, BLOCK, 3L * BLOCK);
+
+        read(cache, new ByteRange(0, 6L * BLOCK - 1));
+
+        assertThat(cache.cachedBytes()).isLessThanOrEqualTo(3L * BLOCK);
+    }
+
+    @Test
+    public void readersKeepBlocksThatAreEvictedUnderThem() throws Exception {
+        // One block of budget: every read-ahead evicts the block about to be written
+        S3BlockCache cache = new S3BlockCache(s3, executor, dir, BLOCK, BLOCK);
+        List<CompletableFuture<byte[]>> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    cache.write("bucket", "key", "\"etag\"", OBJECT.length, new ByteRange(0, OBJECT.length - 1),
+                            Channels.newChannel(out), 3);
+                    return out.toByteArray();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<byte[]> reader : readers) {
+            assertThat(reader.get()).isEqualTo(OBJECT);
+        }
+    }
+
+    @Test
+    public void startupOnlyClearsItsOwnFiles() throws Exception {
+        Path unrelated = Files.writeString(dir.resolve("notes.txt"), "keep");
+        S3BlockCache cache = new S3BlockCache(s3, executor, dir, BLOCK, 100L * BLOCK);
+        read(cache, new ByteRange(0, 10));
+
+        new S3BlockCache(s3, executor, dir, BLOCK, 100L * BLOCK);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(unrelated);
+        }
+    }
+
+    private static byte[] read(S3BlockCache cache, ByteRange range) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write("bucket", "key", "\"etag\"", OBJECT.length, range, Channels.newChannel(out), 0);
+        return out.toByteArray();
+    }
+
+    private static byte[] slice(int start, int end) {
+        return Arrays.copyOfRange(OBJECT, start, end + 1);
+    }
+}
@@ -0,0 +1,56 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class S3MetadataCacheTests {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final RangeServingS3 s3 = new RangeServingS3(new byte[42]).eTag("\"v1\"");
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void freshEntriesSkipS3() {
+        S3MetadataCache cache = new S3MetadataCache(s3, executor, Duration.ofMinutes(1), Duration.ofMinutes(1), 10);
+
+        assertThat(cache.get("b", "k").eTag()).isEqualTo("\"v1\"");
+        assertThat(cache.get("b", "k").contentLength()).isEqualTo(42);
+        assertThat(s3.heads()).isEqualTo(1);
+    }
+
+    @Test
+    public void staleEntriesAreServedAndRevalidatedInBackground() throws Exception {
+        S3MetadataCache cache = new S3MetadataCache(s3, executor, Duration.ZERO, Duration.ofMinutes(1), 10);
+        cache.get("b", "k");
+
+        s3.eTag("\"v2\"");
+        assertThat(cache.get("b", "k").eTag()).isEqualTo("\"v1\"");
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);  // revalidation ran before this
+
+        assertThat(s3.conditionalHeads()).isEqualTo(1);
+        assertThat(cache.get("b", "k").eTag()).isEqualTo("\"v2\"");
+    }
+
+    @Test
+    public void invalidateForcesFreshHead() {
+        S3MetadataCache cache = new S3MetadataCache(s3, executor, Duration.ofMinutes(1), Duration.ofMinutes(1), 10);
+        cache.get("b", "k");
+
+        s3.eTag("\"v2\"");
+        cache.invalidate("b", "k");
+
+        assertThat(cache.get("b", "k").eTag()).isEqualTo("\"v2\"");
+        assertThat(s3.heads()).isEqualTo(2);
+    }
+}
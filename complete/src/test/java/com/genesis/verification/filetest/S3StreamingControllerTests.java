@@ -0,0 +1,93 @@
+package com.genesis.verification.filetest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class S3StreamingControllerTests {
+
+    private static final byte[] OBJECT = new byte[64 * 1024];
+
+    static {
+        new Random(13).nextBytes(OBJECT);
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void reorderedAndOverlappingPartsAreCutFromOneGet() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller(new RangePlanner(64, 256 * 1024, 1024 * 1024))
+                .download("k", "bytes=3000-3999,0-1999,1000-2499", new HttpHeaders(),
+                        new MockHttpServletRequest(), new MockHttpServletResponse());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertPartsInOrder(body.toByteArray(), 3000, 3999, 0, 1999, 1000, 2499);
+        assertThat(s3.gets()).containsExactly("bytes=0-3999");
+    }
+
+    @Test
+    public void partsBeyondTheBufferAreReadAgain() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller(new RangePlanner(64, 256 * 1024, 1000))
+                .download("k", "bytes=3000-3999,0-1999,1000-2499", new HttpHeaders(),
+                        new MockHttpServletRequest(), new MockHttpServletResponse());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+
+        assertPartsInOrder(body.toByteArray(), 3000, 3999, 0, 1999, 1000, 2499);
+        assertThat(s3.gets()).containsExactly("bytes=3000-3999", "bytes=0-1999", "bytes=1000-2499");
+    }
+
+    private S3StreamingController controller(RangePlanner planner) {
+        DirectBufferPool pool = new DirectBufferPool(16 * 1024, 64);
+        return new S3StreamingController(s3, new OrderedPrefetcher(executor, pool, 4, 4), planner,
+                provider(S3BlockCache.class), new DownloadProperties(),
+                new S3MetadataCache(s3, executor, Duration.ofMinutes(1), Duration.ofMinutes(1), 10),
+                provider(AsyncS3Streamer.class), provider(ParallelObjectReader.class),
+                provider(SequentialReadAhead.class), new DownloadMetrics(new SimpleMeterRegistry()),
+                provider(CompressedVariantCache.class), new MultipartUploader(s3, executor, 5 * 1024 * 1024, 1, 1),
+                provider(SingleFlightFetcher.class), provider(BandwidthShaper.class));
+    }
+
+    // Each part's Content-Range and bytes, in this order
+    private static void assertPartsInOrder(byte[] body, long... bounds) {
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int from = 0;
+        for (int i = 0; i < bounds.length; i += 2) {
+            String part = "Content-Range: bytes " + bounds[i] + "-" + bounds[i + 1] + "/" + OBJECT.length + "\r\n\r\n"
+                    + new String(Arrays.copyOfRange(OBJECT, (int) bounds[i], (int) bounds[i + 1] + 1), StandardCharsets.ISO_8859_1);
+            int at = text.indexOf(part, from);
+            assertThat(at).as("part %d-%d", bounds[i], bounds[i + 1]).isGreaterThanOrEqualTo(from);
+            from = at + part.length();
+        }
+    }
+
+    private static <T> ObjectProvider<T> provider(Class<T> type) {
+        return new StaticListableBeanFactory().getBeanProvider(type);
+    }
+}
@@ -0,0 +1,189 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SequentialReadAheadTests {
+
+    private static final int KB = 1024;
+    private static final byte[] OBJECT = new byte[256 * KB];
+
+    static {
+        new Random(5).nextBytes(OBJECT);
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Semaphore fetched = new Semaphore(0);
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT).beforeGet((request, call) -> fetched.release());
+    private int awaited;
+    private final AtomicLong clock = new AtomicLong();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sequentialRangesAreServedFromPrefetchedData() throws Exception {
+        SequentialReadAhead readAhead = readAhead(1024 * KB);
+
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 4 * KB), "c")).isNull();
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(4 * KB, 4 * KB), "c")).isNull();
+        // The second range was sequential: the next window is on its way
+        awaitGets(1);
+        assertThat(s3.gets()).containsExactly("bytes=8192-73727");
+
+        try (InputStream in = readAhead.open("b", "k", "\"e\"", OBJECT.length, range(8 * KB, 4 * KB), "c")) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(OBJECT, 8 * KB, 12 * KB));
+        }
+        // Only the window beyond what is already prefetched was requested
+        awaitGets(2);
+        assertThat(s3.gets()).containsExactly("bytes=8192-73727", "bytes=73728-77823");
+    }
+
+    @Test
+    public void rangesReachingPastThePrefetchedDataReadTheRestFromS3() throws Exception {
+        SequentialReadAhead readAhead = readAhead(1024 * KB);
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 4 * KB), "c");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(4 * KB, 4 * KB), "c");
+
+        try (InputStream in = readAhead.open("b", "k", "\"e\"", OBJECT.length, range(8 * KB, 100 * KB), "c")) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(OBJECT, 8 * KB, 108 * KB));
+        }
+        assertThat(s3.gets()).contains("bytes=73728-110591");
+    }
+
+    @Test
+    public void rangesCatchingUpWithAPrefetchStillInFlightWaitForIt() throws Exception {
+        CountDownLatch answer = new CountDownLatch(1);
+        s3.beforeGet((request, call) -> {
+            fetched.release();
+            if (call == 0) {
+                awaitUninterruptibly(answer);
+            }
+        });
+        SequentialReadAhead readAhead = readAhead(1024 * KB);
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 4 * KB), "c");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(4 * KB, 4 * KB), "c");
+        awaitGets(1);
+
+        // Consumes the whole window while its GET is still waiting for an answer
+        InputStream in = readAhead.open("b", "k", "\"e\"", OBJECT.length, range(8 * KB, 64 * KB), "c");
+        assertThat(readAhead.prefetchedBytes()).isEqualTo(64 * KB);  // only the next window
+        answer.countDown();
+        try (in) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(OBJECT, 8 * KB, 72 * KB));
+        }
+        assertThat(s3.gets()).containsOnlyOnce("bytes=8192-73727");
+    }
+
+    @Test
+    public void seeksAndOtherClientsDoNotUsePrefetchedData() {
+        SequentialReadAhead readAhead = readAhead(1024 * KB);
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 4 * KB), "c");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(4 * KB, 4 * KB), "c");
+
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(8 * KB, 4 * KB), "other")).isNull();
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(200 * KB, 4 * KB), "c")).isNull();
+        assertThat(readAhead.prefetchedBytes()).isZero();
+    }
+
+    @Test
+    public void memoryPressureCancelsOnlyIdleStreams() throws Exception {
+        SequentialReadAhead readAhead = readAhead(64 * KB, Duration.ofMillis(200));
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 16 * KB), "first");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(16 * KB, 16 * KB), "first");
+        long firstWindow = readAhead.prefetchedBytes();
+        assertThat(firstWindow).isPositive();
+
+        // An active stream keeps its window; the newcomer has to do without
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 48 * KB), "second");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(48 * KB, 48 * KB), "second");
+        assertThat(readAhead.prefetchedBytes()).isEqualTo(firstWindow);
+
+        // Once the first one has been idle past the look-ahead, its prefetch is fair game
+        clock.addAndGet(Duration.ofMillis(300).toNanos());
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(96 * KB, 48 * KB), "second");
+        assertThat(readAhead.prefetchedBytes()).isEqualTo(48 * KB);
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(32 * KB, 16 * KB), "first")).isNull();
+        try (InputStream in = readAhead.open("b", "k", "\"e\"", OBJECT.length, range(144 * KB, 48 * KB), "second")) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(OBJECT, 144 * KB, 192 * KB));
+        }
+    }
+
+    @Test
+    public void idleStreamsAreForgottenWithTheirPrefetch() {
+        SequentialReadAhead readAhead = readAhead(1024 * KB);
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(0, 4 * KB), "idle");
+        readAhead.open("b", "k", "\"e\"", OBJECT.length, range(4 * KB, 4 * KB), "idle");
+        assertThat(readAhead.prefetchedBytes()).isPositive();
+
+        clock.addAndGet(Duration.ofSeconds(29).toNanos());
+        readAhead.open("b", "other", "\"e\"", OBJECT.length, range(0, 4 * KB), "c");
+        assertThat(readAhead.prefetchedBytes()).isPositive();
+
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        readAhead.open("b", "other", "\"e\"", OBJECT.length, range(100 * KB, 4 * KB), "c");
+        assertThat(readAhead.prefetchedBytes()).isZero();
+        // Forgotten: the next range is not recognised as sequential
+        assertThat(readAhead.open("b", "k", "\"e\"", OBJECT.length, range(8 * KB, 4 * KB), "idle")).isNull();
+    }
+
+    @Test
+    public void windowsStayWithinOneArray() {
+        // Fetches are dropped: only the planned window matters
+        ThreadPoolExecutor discarding = new ThreadPoolExecutor(0, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadPoolExecutor.DiscardPolicy());
+        discarding.shutdown();
+        SequentialReadAhead readAhead = new SequentialReadAhead(s3, discarding, Long.MAX_VALUE, 16 * KB,
+                Long.MAX_VALUE, Duration.ofSeconds(2), Duration.ofSeconds(30), 16, clock::get);
+        long gb = 1L << 30;
+
+        readAhead.open("b", "k", "\"e\"", 1L << 40, range(0, gb), "c");
+        readAhead.open("b", "k", "\"e\"", 1L << 40, range(gb, gb), "c");
+
+        assertThat(readAhead.prefetchedBytes()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    private SequentialReadAhead readAhead(long maxBytes) {
+        return readAhead(maxBytes, Duration.ofSeconds(2));
+    }
+
+    private SequentialReadAhead readAhead(long maxBytes, Duration lookAhead) {
+        return new SequentialReadAhead(s3, executor, maxBytes, 16 * KB, 64 * KB, lookAhead,
+                Duration.ofSeconds(30), 16, clock::get);
+    }
+
+    // Prefetches run in the background; waits until that many GETs have been made in all
+    private void awaitGets(int count) throws InterruptedException {
+        assertThat(fetched.tryAcquire(count - awaited, 5, TimeUnit.SECONDS)).isTrue();
+        awaited = count;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ByteRange range(long start, long length) {
+        return new ByteRange(start, start + length - 1);
+    }
+}
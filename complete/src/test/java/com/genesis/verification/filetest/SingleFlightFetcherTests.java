@@ -0,0 +1,114 @@
+package com.genesis.verification.filetest;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightFetcherTests {
+
+    private static final int KB = 1024;
+    private static final byte[] OBJECT = new byte[64 * KB];
+
+    static {
+        new Random(7).nextBytes(OBJECT);
+    }
+
+    private volatile S3Exception failure;
+    private final RangeServingS3 s3 = new RangeServingS3(OBJECT).beforeGet((request, call) -> {
+        if (failure != null) {
+            throw failure;
+        }
+    });
+
+    @Test
+    public void concurrentReadersShareOneGet() throws Exception {
+        SingleFlightFetcher fetcher = new SingleFlightFetcher(s3, 64 * KB, 4 * KB, 16);
+
+        List<InputStream> readers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            readers.add(fetcher.open("b", "k", "\"e\"", OBJECT.length, new ByteRange(0, OBJECT.length - 1)));
+        }
+        List<CompletableFuture<byte[]>> bodies = new ArrayList<>();
+        for (InputStream reader : readers) {
+            bodies.add(CompletableFuture.supplyAsync(() -> {
+                try (InputStream in = reader) {
+                    return in.readAllBytes();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        for (CompletableFuture<byte[]> body : bodies) {
+            assertThat(body.get()).isEqualTo(OBJECT);
+        }
+        assertThat(s3.gets()).containsExactly("full");
+        assertThat(fetcher.hits()).isEqualTo(7);
+        assertThat(fetcher.misses()).isEqualTo(1);
+
+        // A finished flight is gone; the next request sends its own GET
+        try (InputStream in = fetcher.open("b", "k", "\"e\"", OBJECT.length, new ByteRange(0, OBJECT.length - 1))) {
+            assertThat(in.readAllBytes()).isEqualTo(OBJECT);
+        }
+        assertThat(s3.gets()).hasSize(2);
+    }
+
+    @Test
+    public void readersBehindTheWindowContinueWithTheirOwnGet() throws Exception {
+        SingleFlightFetcher fetcher = new SingleFlightFetcher(s3, 8 * KB, 4 * KB, 16);
+        ByteRange range = new ByteRange(1000, 40 * KB);
+        byte[] expected = Arrays.copyOfRange(OBJECT, 1000, 40 * KB + 1);
+
+        try (InputStream fast = fetcher.open("b", "k", "\"e\"", OBJECT.length, range);
+             InputStream slow = fetcher.open("b", "k", "\"e\"", OBJECT.length, range)) {
+            byte[] start = slow.readNBytes(3000);
+
+            // The fast reader is not held back, and the flight keeps two chunks behind it
+            assertThat(fast.readAllBytes()).isEqualTo(expected);
+            assertThat(s3.gets()).containsExactly("bytes=1000-40960");
+
+            // Too late to join: the first chunk is gone
+            try (InputStream late = fetcher.open("b", "k", "\"e\"", OBJECT.length, range)) {
+                assertThat(late.readAllBytes()).isEqualTo(expected);
+            }
+
+            byte[] rest = slow.readAllBytes();
+            assertThat(start).isEqualTo(Arrays.copyOfRange(expected, 0, 3000));
+            assertThat(rest).isEqualTo(Arrays.copyOfRange(expected, 3000, expected.length));
+            assertThat(s3.gets()).containsExactly("bytes=1000-40960", "bytes=1000-40960", "bytes=4000-40960");
+            assertThat(fetcher.detached()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void failuresReachEveryReaderAndClosingEarlyAbortsTheGet() throws Exception {
+        SingleFlightFetcher fetcher = new SingleFlightFetcher(s3, 16 * KB, 4 * KB, 16);
+        failure = (S3Exception) S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+
+        InputStream first = fetcher.open("b", "k", "\"old\"", OBJECT.length, new ByteRange(0, 1023));
+        InputStream second = fetcher.open("b", "k", "\"old\"", OBJECT.length, new ByteRange(0, 1023));
+        assertThatThrownBy(first::read).isInstanceOf(IOException.class).hasCause(failure);
+        assertThatThrownBy(second::read).isInstanceOf(IOException.class).hasCause(failure);
+        first.close();
+        second.close();
+
+        failure = null;
+        InputStream a = fetcher.open("b", "k", "\"e\"", OBJECT.length, new ByteRange(0, OBJECT.length - 1));
+        InputStream b = fetcher.open("b", "k", "\"e\"", OBJECT.length, new ByteRange(0, OBJECT.length - 1));
+        assertThat(a.readNBytes(100)).isEqualTo(Arrays.copyOf(OBJECT, 100));
+        a.close();
+        assertThat(s3.aborts()).isZero();  // still being read
+        b.close();
+        assertThat(s3.aborts()).isEqualTo(1);
+    }
+}